@@ -0,0 +1,177 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Common base class of the concrete (field-backed) annotation implementations
+ * which are used instead of java.lang.reflect.Proxy instances whenever we
+ * synthesize jaxb-facets annotations. Implements the hashCode/equals contract
+ * defined in {@link java.lang.annotation.Annotation}.
+ */
+abstract class AbstractAnnotationImpl implements Annotation {
+
+	/**
+	 * Builder of an annotation implementation. The generic {@link #set(String, Object)}
+	 * is used to populate the builder from a map of member values (e.g., as
+	 * extracted by {@link SchemagenUtil}).
+	 */
+	static abstract class AbstractBuilder<T extends Annotation> {
+
+		/**
+		 * Set the value of the annotation member with the given name.
+		 * @throws IllegalArgumentException if the member does not exist or
+		 *         the value cannot be converted to the member type.
+		 */
+		abstract void set(String name, Object value);
+
+		public abstract T build();
+	}
+
+	/** names and values of all members, computed once (the instances are immutable) */
+	private volatile Object[] memberValues;
+	private volatile int hashCode;
+
+	/** @return names and values of all members, in declaration order */
+	protected abstract Object[] computeMemberValues();
+
+	/**
+	 * @return names and values of all members, in declaration order. The
+	 * returned array is shared and must not be modified.
+	 */
+	final Object[] memberValues() {
+		Object[] members = memberValues;
+		if(members == null) {
+			members = computeMemberValues();
+			memberValues = members;
+		}
+		return members;
+	}
+
+	public int hashCode() {
+		int hash = hashCode;
+		if(hash == 0) {
+			Object[] members = memberValues();
+			for(int i = 0; i < members.length; i += 2) {
+				hash += (127 * members[i].hashCode()) ^ valueHashCode(members[i + 1]);
+			}
+			hashCode = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * Compares the members of this annotation to the members of the given
+	 * annotation, which is an instance of the same annotation type, but
+	 * not necessarily an instance of this implementation class.
+	 */
+	protected boolean membersEqual(Object[] otherMembers) {
+		Object[] members = memberValues();
+		for(int i = 1; i < members.length; i += 2) {
+			if(!valueEquals(members[i], otherMembers[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder("@").append(annotationType().getName()).append("(");
+		Object[] members = memberValues();
+		for(int i = 0; i < members.length; i += 2) {
+			if(i > 0) {
+				b.append(", ");
+			}
+			Object value = members[i + 1];
+			b.append(members[i]).append("=").append(value instanceof Object[] ?
+					Arrays.toString((Object[])value) : String.valueOf(value));
+		}
+		return b.append(")").toString();
+	}
+
+	private static int valueHashCode(Object value) {
+		if(value == null) {
+			return 0;
+		}
+		if(value instanceof Object[]) {
+			return Arrays.hashCode((Object[])value);
+		}
+		return value.hashCode();
+	}
+
+	private static boolean valueEquals(Object v1, Object v2) {
+		if(v1 instanceof Object[] && v2 instanceof Object[]) {
+			return Arrays.equals((Object[])v1, (Object[])v2);
+		}
+		return v1 == null ? v2 == null : v1.equals(v2);
+	}
+
+	/* HELPER METHODS FOR VALUE CONVERSION */
+
+	static long toLong(String name, Object value) {
+		if(value instanceof Number) {
+			return ((Number)value).longValue();
+		}
+		throw new IllegalArgumentException("Illegal value for annotation member '" +
+				name + "': " + value);
+	}
+
+	static String toStr(String name, Object value) {
+		if(value == null || value instanceof String) {
+			return (String)value;
+		}
+		throw new IllegalArgumentException("Illegal value for annotation member '" +
+				name + "': " + value);
+	}
+
+	static <E extends Enum<E>> E toEnum(String name, Object value, Class<E> enumClass) {
+		if(value == null || enumClass.isInstance(value)) {
+			return enumClass.cast(value);
+		}
+		/* e.g., enum constants coming from another classloader, or from javac symbols */
+		try {
+			return Enum.valueOf(enumClass, value.toString());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Illegal value for annotation member '" +
+					name + "': " + value, e);
+		}
+	}
+
+	static <E> E[] toArray(String name, Object value, Class<E> componentType) {
+		if(value == null) {
+			return newArray(componentType, 0);
+		}
+		if(componentType.isInstance(value)) {
+			E[] result = newArray(componentType, 1);
+			result[0] = componentType.cast(value);
+			return result;
+		}
+		if(value instanceof Object[]) {
+			Object[] values = (Object[])value;
+			E[] result = newArray(componentType, values.length);
+			for(int i = 0; i < values.length; i ++) {
+				if(!componentType.isInstance(values[i])) {
+					throw new IllegalArgumentException("Illegal value for annotation member '" +
+							name + "': " + Arrays.toString(values));
+				}
+				result[i] = componentType.cast(values[i]);
+			}
+			return result;
+		}
+		throw new IllegalArgumentException("Illegal value for annotation member '" +
+				name + "': " + value);
+	}
+
+	/* Array.newInstance returns an array of the given (non-primitive) component type */
+	@SuppressWarnings("unchecked")
+	private static <E> E[] newArray(Class<E> componentType, int length) {
+		return (E[])Array.newInstance(componentType, length);
+	}
+
+	static IllegalArgumentException unknownMember(Class<?> annoClass, String name) {
+		return new IllegalArgumentException("Annotation @" + annoClass.getName() +
+				" does not have member '" + name + "'");
+	}
+
+}
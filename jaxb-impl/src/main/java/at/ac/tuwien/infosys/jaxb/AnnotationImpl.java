@@ -0,0 +1,132 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.AnnotationLocation;
+import javax.xml.bind.annotation.AppInfo;
+import javax.xml.bind.annotation.Attribute;
+import javax.xml.bind.annotation.Documentation;
+
+/**
+ * Immutable implementation of {@link javax.xml.bind.annotation.Annotation},
+ * i.e., the annotation which represents an &lt;xsd:annotation&gt; element.
+ */
+@SuppressWarnings("all")
+public final class AnnotationImpl extends AbstractAnnotationImpl
+		implements javax.xml.bind.annotation.Annotation {
+
+	private static final Attribute[] NO_ATTRIBUTES = new Attribute[0];
+	private static final AppInfo[] NO_APPINFOS = new AppInfo[0];
+	private static final Documentation[] NO_DOCUMENTATIONS = new Documentation[0];
+
+	private final String id;
+	private final Attribute[] attributes;
+	private final AppInfo[] appinfo;
+	private final Documentation[] documentation;
+	private final AnnotationLocation location;
+
+	private AnnotationImpl(Builder b) {
+		this.id = b.id;
+		this.attributes = b.attributes;
+		this.appinfo = b.appinfo;
+		this.documentation = b.documentation;
+		this.location = b.location;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<javax.xml.bind.annotation.Annotation> {
+		private String id = "";
+		private Attribute[] attributes = NO_ATTRIBUTES;
+		private AppInfo[] appinfo = NO_APPINFOS;
+		private Documentation[] documentation = NO_DOCUMENTATIONS;
+		private AnnotationLocation location = AnnotationLocation.INSIDE_ELEMENT;
+
+		private Builder() {
+		}
+
+		public Builder id(String id) {
+			this.id = id;
+			return this;
+		}
+		public Builder attributes(Attribute ... attributes) {
+			this.attributes = attributes == null ? NO_ATTRIBUTES : attributes.clone();
+			return this;
+		}
+		public Builder appinfo(AppInfo ... appinfo) {
+			this.appinfo = appinfo == null ? NO_APPINFOS : appinfo.clone();
+			return this;
+		}
+		public Builder documentation(Documentation ... documentation) {
+			this.documentation = documentation == null ? NO_DOCUMENTATIONS : documentation.clone();
+			return this;
+		}
+		public Builder location(AnnotationLocation location) {
+			this.location = location;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("id".equals(name)) {
+				id(toStr(name, value));
+			} else if("attributes".equals(name)) {
+				attributes(toArray(name, value, Attribute.class));
+			} else if("appinfo".equals(name)) {
+				appinfo(toArray(name, value, AppInfo.class));
+			} else if("documentation".equals(name)) {
+				documentation(toArray(name, value, Documentation.class));
+			} else if("location".equals(name)) {
+				location(toEnum(name, value, AnnotationLocation.class));
+			} else {
+				throw unknownMember(javax.xml.bind.annotation.Annotation.class, name);
+			}
+		}
+
+		public javax.xml.bind.annotation.Annotation build() {
+			return new AnnotationImpl(this);
+		}
+	}
+
+	public String id() {
+		return id;
+	}
+	public Attribute[] attributes() {
+		return attributes.length == 0 ? attributes : attributes.clone();
+	}
+	public AppInfo[] appinfo() {
+		return appinfo.length == 0 ? appinfo : appinfo.clone();
+	}
+	public Documentation[] documentation() {
+		return documentation.length == 0 ? documentation : documentation.clone();
+	}
+	public AnnotationLocation location() {
+		return location;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return javax.xml.bind.annotation.Annotation.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return members(this);
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof javax.xml.bind.annotation.Annotation &&
+				membersEqual(o instanceof AbstractAnnotationImpl ? ((AbstractAnnotationImpl)o).memberValues() :
+						members((javax.xml.bind.annotation.Annotation)o)));
+	}
+
+	private static Object[] members(javax.xml.bind.annotation.Annotation a) {
+		return new Object[] {
+				"id", a.id(),
+				"attributes", a.attributes(),
+				"appinfo", a.appinfo(),
+				"documentation", a.documentation(),
+				"location", a.location()
+		};
+	}
+
+}
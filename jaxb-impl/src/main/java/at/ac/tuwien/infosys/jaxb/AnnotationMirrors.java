@@ -0,0 +1,187 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.element.AnnotationValueVisitor;
+import javax.lang.model.element.UnknownAnnotationValueException;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Reads annotations from the javax.lang.model API, which is implemented by
+ * the javac symbols used by schemagen. Annotation values are converted
+ * according to the return types of the annotation members, hence annotation
+ * classes are not looked up by name.
+ */
+final class AnnotationMirrors {
+
+	private static final ValueConverter CONVERTER = new ValueConverter();
+
+	private AnnotationMirrors() {
+	}
+
+	/**
+	 * @param type a javac ClassType or TypeSymbol (or any other implementation
+	 * 			of the javax.lang.model API).
+	 * @return the model element of the given type, or null if the type does
+	 * 			not implement the javax.lang.model API.
+	 */
+	static Element asElement(Object type) {
+		if(type instanceof Element) {
+			return (Element)type;
+		}
+		if(type instanceof DeclaredType) {
+			return ((DeclaredType)type).asElement();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the annotation mirrors of the given element, by qualified
+	 * 			name of the annotation type.
+	 */
+	static Map<String, AnnotationMirror> getMirrors(Element element) {
+		Map<String, AnnotationMirror> result = new LinkedHashMap<String, AnnotationMirror>();
+		for(AnnotationMirror m : element.getAnnotationMirrors()) {
+			result.put(getTypeName(m), m);
+		}
+		return result;
+	}
+
+	static String getTypeName(AnnotationMirror m) {
+		return ((TypeElement)m.getAnnotationType().asElement()).getQualifiedName().toString();
+	}
+
+	/**
+	 * Convert an annotation mirror into an annotation instance. For the
+	 * jaxb-facets annotation types, the values are set on the builder of the
+	 * respective implementation class (e.g., {@link FacetsImpl}); a proxy is
+	 * only created for other annotation types.
+	 * @param m the annotation mirror.
+	 * @param annoClass the annotation type of the mirror.
+	 */
+	static <A extends Annotation> A toAnnotation(AnnotationMirror m, Class<A> annoClass) {
+		AbstractAnnotationImpl.AbstractBuilder<?> builder = AnnotationUtils.builderFor(annoClass);
+		Map<String,Object> values = builder == null ? new HashMap<String,Object>() : null;
+		for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e :
+				m.getElementValues().entrySet()) {
+			String name = e.getKey().getSimpleName().toString();
+			Class<?> expected;
+			try {
+				Method method = annoClass.getMethod(name);
+				expected = method.getReturnType();
+			} catch (NoSuchMethodException ex) {
+				throw AbstractAnnotationImpl.unknownMember(annoClass, name);
+			}
+			Object value = e.getValue().accept(CONVERTER, expected);
+			if(builder != null) {
+				builder.set(name, value);
+			} else {
+				values.put(name, value);
+			}
+		}
+		if(builder != null) {
+			return annoClass.cast(builder.build());
+		}
+		return AnnotationUtils.createAnnotationProxy(annoClass, values);
+	}
+
+	/**
+	 * Converts annotation values into the (given) type of the annotation member.
+	 */
+	private static class ValueConverter implements AnnotationValueVisitor<Object, Class<?>> {
+
+		public Object visit(AnnotationValue av, Class<?> expected) {
+			return av.accept(this, expected);
+		}
+
+		public Object visit(AnnotationValue av) {
+			return av.accept(this, Object.class);
+		}
+
+		/* primitives and strings */
+
+		public Object visitBoolean(boolean b, Class<?> expected) {
+			return b;
+		}
+
+		public Object visitByte(byte b, Class<?> expected) {
+			return b;
+		}
+
+		public Object visitChar(char c, Class<?> expected) {
+			return c;
+		}
+
+		public Object visitDouble(double d, Class<?> expected) {
+			return d;
+		}
+
+		public Object visitFloat(float f, Class<?> expected) {
+			return f;
+		}
+
+		public Object visitInt(int i, Class<?> expected) {
+			return i;
+		}
+
+		public Object visitLong(long i, Class<?> expected) {
+			return i;
+		}
+
+		public Object visitShort(short s, Class<?> expected) {
+			return s;
+		}
+
+		public Object visitString(String s, Class<?> expected) {
+			return s;
+		}
+
+		public Object visitUnknown(AnnotationValue av, Class<?> expected) {
+			throw new UnknownAnnotationValueException(av, expected);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Object visitEnumConstant(VariableElement c, Class<?> expected) {
+			String name = c.getSimpleName().toString();
+			if(expected.isEnum()) {
+				return Enum.valueOf((Class<? extends Enum>)expected, name);
+			}
+			return name;
+		}
+
+		public Object visitAnnotation(AnnotationMirror a, Class<?> expected) {
+			return toAnnotation(a, expected.asSubclass(Annotation.class));
+		}
+
+		public Object visitType(TypeMirror t, Class<?> expected) {
+			try {
+				return Class.forName(t.toString());
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Unable to load class " + t, e);
+			}
+		}
+
+		public Object visitArray(List<? extends AnnotationValue> values, Class<?> expected) {
+			Class<?> componentType = expected.isArray() ? expected.getComponentType() : Object.class;
+			Object result = Array.newInstance(componentType, values.size());
+			for(int i = 0; i < values.size(); i ++) {
+				Array.set(result, i, values.get(i).accept(this, componentType));
+			}
+			return result;
+		}
+	}
+
+}
@@ -5,13 +5,21 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.bind.annotation.AppInfo;
+import javax.xml.bind.annotation.Assert;
+import javax.xml.bind.annotation.Documentation;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.MaxOccurs;
+import javax.xml.bind.annotation.MinOccurs;
+
 import com.sun.xml.bind.v2.model.core.EnumConstant;
 
 /**
@@ -24,8 +32,16 @@ public final class AnnotationUtils {
 	public static final Logger logger = Logger
 			.getLogger(SchemagenUtil.class.getName());
 
+	/**
+	 * Formerly the handlers of the annotation proxies created via 
+	 * {@link #createAnnotationProxy(Class, Map, ClassLoader)}. The map is not 
+	 * filled anymore - use {@link #getInvocationHandler(Object)} to resolve the 
+	 * handler of a proxy.
+	 * @deprecated only kept for backwards compatibility.
+	 */
+	@Deprecated
 	public static final Map<Object,AnnotationInvocationHandler> PROXY_HANDLERS = 
-			new IdentityHashMap<Object, AnnotationUtils.AnnotationInvocationHandler>();
+			Collections.synchronizedMap(new WeakHashMap<Object, AnnotationUtils.AnnotationInvocationHandler>());
 
 	/**
 	 * Generic annotation handler to instantiate annotation objects
@@ -47,6 +63,12 @@ public final class AnnotationUtils {
 				return "annotation @" + annoClass.getName() + "(" + annoValues + ")";
 			} else if(m.getName().equals("hashCode")) {
 				return annoClass.hashCode() + annoValues.hashCode();
+			} else if(m.getName().equals("equals") && args != null && args.length == 1) {
+				/* proxies are equal if they have the same handler */
+				return o == args[0] || (args[0] != null && Proxy.isProxyClass(args[0].getClass()) &&
+						Proxy.getInvocationHandler(args[0]) == this);
+			} else if(m.getName().equals("annotationType") && !annoValues.containsKey(m.getName())) {
+				return annoClass;
 			} else if(!annoValues.containsKey(m.getName())) {
 				throw new IllegalAccessException("Annotation proxy for '" + this +
 						"' does not have method '" + m.getName() + "'. Existing values: " + annoValues);
@@ -67,6 +89,20 @@ public final class AnnotationUtils {
 	private AnnotationUtils() {
 	}
 
+	/**
+	 * Get the handler of an annotation proxy created by this class.
+	 * @param anno annotation instance
+	 * @return the handler, or null if the given object is not an annotation proxy 
+	 *  created via {@link #createAnnotationProxy(Class, Map, ClassLoader)}
+	 */
+	public static AnnotationInvocationHandler getInvocationHandler(Object anno) {
+		if(anno == null || !Proxy.isProxyClass(anno.getClass())) {
+			return null;
+		}
+		InvocationHandler h = Proxy.getInvocationHandler(anno);
+		return h instanceof AnnotationInvocationHandler ? (AnnotationInvocationHandler)h : null;
+	}
+
 	public static <T extends Annotation> Map<String,Object> getAnnotationValues(Class<T> annoClass, T anno) {
 		Map<String, Object> annoValues = new HashMap<String,Object>();
 		for(Method m : annoClass.getDeclaredMethods()) {
@@ -92,6 +128,60 @@ public final class AnnotationUtils {
 	}
 
 
+	/**
+	 * Utility method to instantiate an annotation of the given class, using
+	 * a map of values used for the new annotation instance (missing values
+	 * are filled with the defaults of the annotation type). For the
+	 * jaxb-facets annotation types, an instance of the respective immutable
+	 * implementation class (e.g., {@link FacetsImpl}) is returned. For all
+	 * other types, or if the values do not match the member types (which
+	 * may happen for values extracted from javac symbols), we fall back to
+	 * {@link #createAnnotationProxy(Class, Map)}.
+	 * @param annoClass
+	 * @param annoValues
+	 * @return
+	 */
+	public static <T extends Annotation> T createAnnotation(
+			Class<T> annoClass, Map<String, Object> annoValues) {
+		AbstractAnnotationImpl.AbstractBuilder<?> builder = builderFor(annoClass);
+		if(builder != null) {
+			try {
+				for(Map.Entry<String, Object> e : annoValues.entrySet()) {
+					builder.set(e.getKey(), e.getValue());
+				}
+				return annoClass.cast(builder.build());
+			} catch (IllegalArgumentException e) {
+				logger.fine("Using annotation proxy for @" + annoClass.getName() + ": " + e);
+			}
+		}
+		return createAnnotationProxy(annoClass, annoValues);
+	}
+
+	/**
+	 * @return a builder of the implementation class of the given jaxb-facets
+	 * annotation type, or null for other annotation types.
+	 */
+	static AbstractAnnotationImpl.AbstractBuilder<?> builderFor(Class<?> annoClass) {
+		/* note: we compare class identity here, because the implementation classes 
+		 * only implement the annotation interfaces visible to our own classloader */
+		if(annoClass == Facets.class) {
+			return FacetsImpl.builder();
+		} else if(annoClass == MinOccurs.class) {
+			return MinOccursImpl.builder();
+		} else if(annoClass == MaxOccurs.class) {
+			return MaxOccursImpl.builder();
+		} else if(annoClass == Documentation.class) {
+			return DocumentationImpl.builder();
+		} else if(annoClass == AppInfo.class) {
+			return AppInfoImpl.builder();
+		} else if(annoClass == Assert.class) {
+			return AssertImpl.builder();
+		} else if(annoClass == javax.xml.bind.annotation.Annotation.class) {
+			return AnnotationImpl.builder();
+		}
+		return null;
+	}
+
 	/**
 	 * Utility method to instantiate a proxy for a given annotation
 	 * class and annotation instance.
@@ -132,10 +222,8 @@ public final class AnnotationUtils {
 	public static <T extends Annotation> T createAnnotationProxy(
 			final Class<T> annoClass, final Map<String, Object> annoValues, ClassLoader cl) {
 		AnnotationInvocationHandler h = new AnnotationInvocationHandler(annoClass, annoValues);
-		T proxy = (T) Proxy.newProxyInstance(
+		return (T) Proxy.newProxyInstance(
 				cl, new Class<?>[] { annoClass }, h);
-		PROXY_HANDLERS.put(proxy, h);
-		return proxy;
 	}
 
 	/**
@@ -0,0 +1,83 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.AppInfo;
+
+/**
+ * Immutable implementation of {@link AppInfo}.
+ */
+@SuppressWarnings("all")
+public final class AppInfoImpl extends AbstractAnnotationImpl implements AppInfo {
+
+	private final String source;
+	private final String value;
+
+	private AppInfoImpl(Builder b) {
+		this.source = b.source;
+		this.value = b.value;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<AppInfo> {
+		private String source = "";
+		private String value;
+
+		private Builder() {
+		}
+
+		public Builder source(String source) {
+			this.source = source;
+			return this;
+		}
+		public Builder value(String value) {
+			this.value = value;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("source".equals(name)) {
+				source(toStr(name, value));
+			} else if("value".equals(name)) {
+				value(toStr(name, value));
+			} else {
+				throw unknownMember(AppInfo.class, name);
+			}
+		}
+
+		public AppInfo build() {
+			return new AppInfoImpl(this);
+		}
+	}
+
+	public String source() {
+		return source;
+	}
+	public String value() {
+		return value;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return AppInfo.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return members(this);
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof AppInfo && membersEqual(o instanceof AbstractAnnotationImpl ?
+				((AbstractAnnotationImpl)o).memberValues() : members((AppInfo)o)));
+	}
+
+	private static Object[] members(AppInfo a) {
+		return new Object[] {
+				"source", a.source(),
+				"value", a.value()
+		};
+	}
+
+}
@@ -0,0 +1,127 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.Assert;
+import javax.xml.bind.annotation.Attribute;
+
+/**
+ * Immutable implementation of {@link Assert}.
+ */
+@SuppressWarnings("all")
+public final class AssertImpl extends AbstractAnnotationImpl implements Assert {
+
+	private static final Attribute[] NO_ATTRIBUTES = new Attribute[0];
+	private static final javax.xml.bind.annotation.Annotation[] NO_ANNOTATIONS =
+			new javax.xml.bind.annotation.Annotation[0];
+
+	private final String id;
+	private final String test;
+	private final String xpathDefaultNamespace;
+	private final Attribute[] attributes;
+	private final javax.xml.bind.annotation.Annotation[] annotation;
+
+	private AssertImpl(Builder b) {
+		this.id = b.id;
+		this.test = b.test;
+		this.xpathDefaultNamespace = b.xpathDefaultNamespace;
+		this.attributes = b.attributes;
+		this.annotation = b.annotation;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<Assert> {
+		private String id = "";
+		private String test;
+		private String xpathDefaultNamespace = "";
+		private Attribute[] attributes = NO_ATTRIBUTES;
+		private javax.xml.bind.annotation.Annotation[] annotation = NO_ANNOTATIONS;
+
+		private Builder() {
+		}
+
+		public Builder id(String id) {
+			this.id = id;
+			return this;
+		}
+		public Builder test(String test) {
+			this.test = test;
+			return this;
+		}
+		public Builder xpathDefaultNamespace(String xpathDefaultNamespace) {
+			this.xpathDefaultNamespace = xpathDefaultNamespace;
+			return this;
+		}
+		public Builder attributes(Attribute ... attributes) {
+			this.attributes = attributes == null ? NO_ATTRIBUTES : attributes.clone();
+			return this;
+		}
+		public Builder annotation(javax.xml.bind.annotation.Annotation ... annotation) {
+			this.annotation = annotation == null ? NO_ANNOTATIONS : annotation.clone();
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("id".equals(name)) {
+				id(toStr(name, value));
+			} else if("test".equals(name)) {
+				test(toStr(name, value));
+			} else if("xpathDefaultNamespace".equals(name)) {
+				xpathDefaultNamespace(toStr(name, value));
+			} else if("attributes".equals(name)) {
+				attributes(toArray(name, value, Attribute.class));
+			} else if("annotation".equals(name)) {
+				annotation(toArray(name, value, javax.xml.bind.annotation.Annotation.class));
+			} else {
+				throw unknownMember(Assert.class, name);
+			}
+		}
+
+		public Assert build() {
+			return new AssertImpl(this);
+		}
+	}
+
+	public String id() {
+		return id;
+	}
+	public String test() {
+		return test;
+	}
+	public String xpathDefaultNamespace() {
+		return xpathDefaultNamespace;
+	}
+	public Attribute[] attributes() {
+		return attributes.length == 0 ? attributes : attributes.clone();
+	}
+	public javax.xml.bind.annotation.Annotation[] annotation() {
+		return annotation.length == 0 ? annotation : annotation.clone();
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return Assert.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return members(this);
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof Assert && membersEqual(o instanceof AbstractAnnotationImpl ?
+				((AbstractAnnotationImpl)o).memberValues() : members((Assert)o)));
+	}
+
+	private static Object[] members(Assert a) {
+		return new Object[] {
+				"id", a.id(),
+				"test", a.test(),
+				"xpathDefaultNamespace", a.xpathDefaultNamespace(),
+				"attributes", a.attributes(),
+				"annotation", a.annotation()
+		};
+	}
+
+}
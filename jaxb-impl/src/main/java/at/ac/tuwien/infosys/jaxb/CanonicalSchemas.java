@@ -0,0 +1,304 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+import com.sun.xml.txw2.output.XmlSerializer;
+
+/**
+ * Canonical schema output, see {@link XmlSchemaEnhancer#CANONICAL_OUTPUT_ENABLED}.
+ * By default, the order of the top-level components of a schema document (and of
+ * the imports and namespace prefixes) follows the order in which the JAXB model
+ * has discovered the classes, which depends, e.g., on the order of the classes
+ * passed to the JAXBContext or found on the classpath. In canonical mode:
+ * <ul>
+ * <li>the complex and simple types are written in the order of their names,</li>
+ * <li>the imports and the namespace declarations (and hence the generated
+ * prefixes) in the order of the namespace URIs and prefixes,</li>
+ * <li>the attribute declarations of a complex type in the order of their names,</li>
+ * <li>the XML attributes of each element in the order of their names (as in
+ * XML canonicalization).</li>
+ * </ul>
+ * Hence, the same classes always result in the same documents, which can be
+ * compared and cached byte-wise.
+ *
+ * <p>
+ * In canonical mode, the generator also computes the SHA-256 digest of each
+ * schema document which is written to an output stream or writer (for writers,
+ * the digest of the UTF-8 encoded characters; for compressed output, the digest
+ * of the uncompressed document). The hex encoded digests can be used as HTTP
+ * ETags or as cache keys; they are reported to {@link XmlSchemaEnhancer#SCHEMA_DIGEST_LISTENER}
+ * and returned by {@link #generateSchema(JAXBContext, SchemaOutputResolver)}.
+ */
+public final class CanonicalSchemas {
+
+    /** digests of the schema generation of the current thread, if selected per call */
+    private static final ThreadLocal<Map<String, String>> DIGESTS = new ThreadLocal<Map<String, String>>();
+
+    private CanonicalSchemas() { }
+
+    /**
+     * Receives the digests of the schema documents written in canonical mode.
+     * Implementations must be thread-safe.
+     */
+    public interface Listener {
+        /**
+         * @param namespaceUri the target namespace of the document
+         * @param systemId the system ID of the output of the document
+         * @param digest the hex encoded SHA-256 digest of the document
+         */
+        void schemaWritten(String namespaceUri, String systemId, String digest);
+    }
+
+    /**
+     * Generates the canonical schema documents of the given context (regardless
+     * of {@link XmlSchemaEnhancer#CANONICAL_OUTPUT_ENABLED}).
+     *
+     * @return the hex encoded SHA-256 digests of the documents, by namespace URI.
+     */
+    public static Map<String, String> generateSchema(JAXBContext context, SchemaOutputResolver resolver)
+            throws IOException {
+        Map<String, String> before = DIGESTS.get();
+        Map<String, String> digests = new TreeMap<String, String>();
+        DIGESTS.set(digests);
+        try {
+            context.generateSchema(resolver);
+        } finally {
+            if (before == null) {
+                DIGESTS.remove();
+            } else {
+                DIGESTS.set(before);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * @return whether the schema generation of the current thread is canonical.
+     */
+    public static boolean isEnabled() {
+        return DIGESTS.get() != null || XmlSchemaEnhancer.CANONICAL_OUTPUT_ENABLED.get();
+    }
+
+    /**
+     * Reports the digest of a written schema document.
+     */
+    public static void schemaWritten(String namespaceUri, String systemId, String digest) {
+        Map<String, String> digests = DIGESTS.get();
+        if (digests != null) {
+            digests.put(namespaceUri, digest);
+        }
+        Listener listener = XmlSchemaEnhancer.SCHEMA_DIGEST_LISTENER.get();
+        if (listener != null) {
+            listener.schemaWritten(namespaceUri, systemId, digest);
+        }
+    }
+
+    /**
+     * @return a serializer which writes the namespace declarations and attributes
+     * of each element to the given serializer in the order of their names.
+     */
+    public static XmlSerializer createSerializer(XmlSerializer target) {
+        return new SortedAttributes(target);
+    }
+
+    private static final class SortedAttributes implements XmlSerializer {
+        private final XmlSerializer target;
+        /** namespace declarations of the current start tag, by prefix */
+        private final Map<String, String> xmlns = new TreeMap<String, String>();
+        /** attributes of the current start tag */
+        private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+        SortedAttributes(XmlSerializer target) {
+            this.target = target;
+        }
+
+        public void startDocument() {
+            target.startDocument();
+        }
+        public void beginStartTag(String uri, String localName, String prefix) {
+            target.beginStartTag(uri, localName, prefix);
+        }
+        public void writeXmlns(String prefix, String uri) {
+            xmlns.put(prefix == null ? "" : prefix, uri);
+        }
+        public void writeAttribute(String uri, String localName, String prefix, StringBuilder value) {
+            attributes.add(new Attribute(uri, localName, prefix, new StringBuilder(value)));
+        }
+        public void endStartTag(String uri, String localName, String prefix) {
+            for (Map.Entry<String, String> ns : xmlns.entrySet()) {
+                target.writeXmlns(ns.getKey(), ns.getValue());
+            }
+            Collections.sort(attributes);
+            for (Attribute a : attributes) {
+                target.writeAttribute(a.uri, a.localName, a.prefix, a.value);
+            }
+            xmlns.clear();
+            attributes.clear();
+            target.endStartTag(uri, localName, prefix);
+        }
+        public void endTag() {
+            target.endTag();
+        }
+        public void text(StringBuilder text) {
+            target.text(text);
+        }
+        public void cdata(StringBuilder text) {
+            target.cdata(text);
+        }
+        public void comment(StringBuilder comment) {
+            target.comment(comment);
+        }
+        public void endDocument() {
+            target.endDocument();
+        }
+        public void flush() {
+            target.flush();
+        }
+    }
+
+    private static final class Attribute implements Comparable<Attribute> {
+        final String uri;
+        final String localName;
+        final String prefix;
+        final StringBuilder value;
+
+        Attribute(String uri, String localName, String prefix, StringBuilder value) {
+            this.uri = uri;
+            this.localName = localName;
+            this.prefix = prefix;
+            this.value = value;
+        }
+
+        public int compareTo(Attribute o) {
+            int c = uri.compareTo(o.uri);
+            return c != 0 ? c : localName.compareTo(o.localName);
+        }
+    }
+
+    /**
+     * Streaming SHA-256 digest of a schema document which is written to a
+     * {@link StreamResult}.
+     */
+    public static final class Digest {
+        private final MessageDigest digest;
+        /** encodes the characters written to a writer, if any */
+        private Writer encoder;
+        private String value;
+
+        public Digest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return a result which writes to the output stream or writer of the
+         * given result and updates this digest, or null if the result has
+         * neither an output stream nor a writer.
+         */
+        public Result wrap(Result result) {
+            if (!(result instanceof StreamResult)) {
+                return null;
+            }
+            StreamResult r = (StreamResult) result;
+            StreamResult wrapped;
+            if (r.getOutputStream() != null) {
+                wrapped = new StreamResult(new DigestOutputStream(r.getOutputStream(), digest));
+            } else if (r.getWriter() != null) {
+                try {
+                    encoder = new OutputStreamWriter(new DigestOutputStream(NULL_STREAM, digest), "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e);
+                }
+                wrapped = new StreamResult(new DigestWriter(r.getWriter(), encoder));
+            } else {
+                return null;
+            }
+            wrapped.setSystemId(r.getSystemId());
+            return wrapped;
+        }
+
+        /**
+         * @return the hex encoded digest of the written document (to be called
+         * after the document has been written).
+         */
+        public String getValue() {
+            if (value == null) {
+                if (encoder != null) {
+                    try {
+                        encoder.flush();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                StringBuilder b = new StringBuilder();
+                for (byte x : digest.digest()) {
+                    b.append(Character.forDigit((x >> 4) & 0xF, 16));
+                    b.append(Character.forDigit(x & 0xF, 16));
+                }
+                value = b.toString();
+            }
+            return value;
+        }
+    }
+
+    private static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) { }
+        @Override
+        public void write(byte[] b, int off, int len) { }
+    };
+
+    /**
+     * Writes to the target writer and (UTF-8 encoded) to the digest.
+     */
+    private static final class DigestWriter extends Writer {
+        private final Writer target;
+        private final Writer encoder;
+
+        DigestWriter(Writer target, Writer encoder) {
+            this.target = target;
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            target.write(cbuf, off, len);
+            encoder.write(cbuf, off, len);
+        }
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            target.write(str, off, len);
+            encoder.write(str, off, len);
+        }
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+        @Override
+        public void close() throws IOException {
+            encoder.flush();
+            target.close();
+        }
+    }
+
+}
@@ -95,4 +95,15 @@ public class Constants {
         put(Date.class, get(Double.class));
     }};
 
+    /**
+     * @return the facets allowed for the given base type, or null if unknown.
+     */
+    public static Set<String> getAllowedFacets(Class<?> baseType) {
+        Set<String> allowed = FACETS_BY_TYPE.get(baseType);
+        if (allowed == null && Enum.class.isAssignableFrom(baseType)) {
+            allowed = FACETS_BY_TYPE.get(Enum.class);
+        }
+        return allowed;
+    }
+
 }
@@ -0,0 +1,38 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+/**
+ * Service provider interface for deriving XSD facets (and minOccurs) from
+ * validation constraint annotations, e.g., from javax.validation, Hibernate
+ * Validator or custom constraints.
+ *
+ * <p>
+ * Implementations are discovered via {@link java.util.ServiceLoader}, i.e.,
+ * they need to be listed in a file named
+ * <code>META-INF/services/at.ac.tuwien.infosys.jaxb.ConstraintFacetMapper</code>
+ * and require a public no-argument constructor. The built-in mappers for the
+ * javax.validation constraints are always registered first; if several mappers
+ * derive the same facet, the mapper registered first takes precedence.
+ * Values explicitly provided in the Facets annotation always take precedence
+ * over derived values.
+ *
+ * @see ConstraintMapperRegistry
+ */
+public interface ConstraintFacetMapper {
+
+    /**
+     * @return the constraint annotation types handled by this mapper.
+     */
+    List<Class<? extends Annotation>> getConstraintTypes();
+
+    /**
+     * Derive facets from the given constraint annotation.
+     * @param constraint annotation instance, of one of the types
+     *  returned by {@link #getConstraintTypes()}.
+     * @param facets the facets derived for the current property.
+     */
+    void map(Annotation constraint, DerivedFacets facets);
+
+}
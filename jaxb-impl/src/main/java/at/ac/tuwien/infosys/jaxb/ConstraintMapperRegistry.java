@@ -0,0 +1,256 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.xml.bind.v2.model.annotation.AnnotationSource;
+import com.sun.xml.bind.v2.model.runtime.RuntimePropertyInfo;
+import com.sun.xml.bind.v2.runtime.reflect.Accessor;
+
+/**
+ * Dispatch table of the registered {@link ConstraintFacetMapper}s, keyed by
+ * constraint annotation type. The table is compiled once, so that deriving
+ * the facets of a property requires only a single pass over its annotations,
+ * independently of the number of registered mappers.
+ */
+public final class ConstraintMapperRegistry {
+
+    private static final Logger logger = Logger
+            .getLogger(ConstraintMapperRegistry.class.getName());
+
+    /**
+     * Default registries by class loader. The registries are referenced weakly,
+     * since the mappers loaded via a class loader reference the loader; they
+     * are kept alive by the {@link ValidationFacetsFilter}s which use them.
+     */
+    private static final Map<ClassLoader, WeakReference<ConstraintMapperRegistry>> DEFAULTS =
+            new WeakHashMap<ClassLoader, WeakReference<ConstraintMapperRegistry>>();
+
+    /** a mapper, along with its priority (= registration index) */
+    private static final class Entry {
+        final ConstraintFacetMapper mapper;
+        final int priority;
+        Entry(ConstraintFacetMapper mapper, int priority) {
+            this.mapper = mapper;
+            this.priority = priority;
+        }
+    }
+
+    private final List<ConstraintFacetMapper> mappers;
+    private final Map<Class<?>, Entry[]> table = new HashMap<Class<?>, Entry[]>();
+    private final List<Class<? extends Annotation>> constraintTypes;
+    /** the class loader of which this is the default registry, if any */
+    private final WeakReference<ClassLoader> defaultFor;
+
+    /**
+     * @param mappers the mappers, in order of precedence.
+     */
+    public ConstraintMapperRegistry(List<? extends ConstraintFacetMapper> mappers) {
+        this(mappers, null);
+    }
+
+    private ConstraintMapperRegistry(List<? extends ConstraintFacetMapper> mappers,
+            ClassLoader defaultFor) {
+        this.defaultFor = defaultFor == null ? null : new WeakReference<ClassLoader>(defaultFor);
+        this.mappers = Collections.unmodifiableList(
+                new ArrayList<ConstraintFacetMapper>(mappers));
+        Map<Class<? extends Annotation>, List<Entry>> entries =
+                new LinkedHashMap<Class<? extends Annotation>, List<Entry>>();
+        int priority = 0;
+        for (ConstraintFacetMapper m : this.mappers) {
+            for (Class<? extends Annotation> type : m.getConstraintTypes()) {
+                List<Entry> list = entries.get(type);
+                if (list == null) {
+                    list = new ArrayList<Entry>(1);
+                    entries.put(type, list);
+                }
+                list.add(new Entry(m, priority));
+            }
+            priority ++;
+        }
+        for (Map.Entry<Class<? extends Annotation>, List<Entry>> e : entries.entrySet()) {
+            table.put(e.getKey(), e.getValue().toArray(new Entry[e.getValue().size()]));
+        }
+        constraintTypes = Collections.unmodifiableList(
+                new ArrayList<Class<? extends Annotation>>(entries.keySet()));
+    }
+
+    /**
+     * Get the default registry of the context class loader of the current thread,
+     * see {@link #getDefault(ClassLoader)}.
+     */
+    public static ConstraintMapperRegistry getDefault() {
+        return getDefault(getContextClassLoader());
+    }
+
+    /**
+     * Get the default registry of the given class loader, consisting of the
+     * built-in mappers for the javax.validation constraints, followed by the
+     * mappers registered via {@link ServiceLoader} (loaded once per class
+     * loader, as long as the registry is in use).
+     */
+    public static synchronized ConstraintMapperRegistry getDefault(ClassLoader cl) {
+        WeakReference<ConstraintMapperRegistry> ref = DEFAULTS.get(cl);
+        ConstraintMapperRegistry registry = ref == null ? null : ref.get();
+        if (registry == null) {
+            List<ConstraintFacetMapper> mappers = new ArrayList<ConstraintFacetMapper>(
+                    ValidationConstraintMappers.getMappers());
+            mappers.addAll(loadMappers(cl));
+            registry = new ConstraintMapperRegistry(mappers, cl);
+            DEFAULTS.put(cl, new WeakReference<ConstraintMapperRegistry>(registry));
+        }
+        return registry;
+    }
+
+    /**
+     * @return the context class loader of the current thread, or the class
+     * loader of the jaxb-facets classes if there is none.
+     */
+    static ClassLoader getContextClassLoader() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return cl != null ? cl : ConstraintFacetMapper.class.getClassLoader();
+    }
+
+    /**
+     * @return whether this is the default registry of the given class loader.
+     */
+    boolean isDefaultFor(ClassLoader cl) {
+        return defaultFor != null && defaultFor.get() == cl;
+    }
+
+    /**
+     * @return the mappers registered via {@link ServiceLoader}.
+     */
+    static List<ConstraintFacetMapper> loadMappers(ClassLoader cl) {
+        List<ConstraintFacetMapper> result = new ArrayList<ConstraintFacetMapper>();
+        Iterator<ConstraintFacetMapper> it =
+                ServiceLoader.load(ConstraintFacetMapper.class, cl).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                ConstraintFacetMapper m = it.next();
+                logger.fine("Registering constraint facet mapper " + m);
+                result.add(m);
+            } catch (ServiceConfigurationError e) {
+                logger.log(Level.WARNING, "Unable to load constraint facet mapper.", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return all mappers, in order of precedence.
+     */
+    public List<ConstraintFacetMapper> getMappers() {
+        return mappers;
+    }
+
+    /**
+     * @return the constraint annotation types handled by the registered mappers.
+     */
+    public List<Class<? extends Annotation>> getConstraintTypes() {
+        return constraintTypes;
+    }
+
+    /**
+     * Derive the facets from the constraints of an annotated element
+     * (single pass over the annotations of the element).
+     */
+    public DerivedFacets derive(AnnotatedElement elem) {
+        DerivedFacets result = new DerivedFacets();
+        for (Annotation a : elem.getAnnotations()) {
+            Entry[] entries = table.get(a.annotationType());
+            if (entries != null) {
+                apply(a, entries, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Derive the facets from the constraints provided by an annotation source.
+     * For runtime properties which are accessed via a field or via getter and
+     * setter, the annotations of the field (or methods) are enumerated (single
+     * pass, as for {@link #derive(AnnotatedElement)}). Other annotation sources
+     * (e.g., adapted properties) cannot enumerate their annotations, hence each
+     * registered constraint type is looked up once.
+     */
+    public DerivedFacets derive(AnnotationSource info) {
+        if (info instanceof ValidationFacetsFilter.AnnotatedElementWrapper) {
+            return derive(((ValidationFacetsFilter.AnnotatedElementWrapper) info).getElement());
+        }
+        Accessor<?, ?> accessor = info instanceof RuntimePropertyInfo ?
+                ((RuntimePropertyInfo) info).getAccessor() : null;
+        if (accessor instanceof Accessor.FieldReflection) {
+            return derive(((Accessor.FieldReflection<?, ?>) accessor).f);
+        }
+        if (accessor instanceof Accessor.GetterSetterReflection) {
+            Accessor.GetterSetterReflection<?, ?> gs = (Accessor.GetterSetterReflection<?, ?>) accessor;
+            return derive(gs.getter, gs.setter);
+        }
+        DerivedFacets result = new DerivedFacets();
+        for (Class<? extends Annotation> type : constraintTypes) {
+            Annotation a = info.readAnnotation(type);
+            if (a != null) {
+                apply(a, table.get(type), result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Derive the facets from the constraints of a getter and setter (either
+     * of which may be null). As when JAXB reads the annotations of the property,
+     * the annotations of the getter take precedence.
+     */
+    private DerivedFacets derive(Method getter, Method setter) {
+        DerivedFacets result = new DerivedFacets();
+        if (getter != null) {
+            for (Annotation a : getter.getAnnotations()) {
+                Entry[] entries = table.get(a.annotationType());
+                if (entries != null) {
+                    apply(a, entries, result);
+                }
+            }
+        }
+        if (setter != null) {
+            for (Annotation a : setter.getAnnotations()) {
+                Entry[] entries = table.get(a.annotationType());
+                if (entries != null && (getter == null ||
+                        !getter.isAnnotationPresent(a.annotationType()))) {
+                    apply(a, entries, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void apply(Annotation a, Entry[] entries, DerivedFacets result) {
+        for (Entry e : entries) {
+            result.setPriority(e.priority);
+            try {
+                e.mapper.map(a, result);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Unable to map constraint " + a +
+                        " using " + e.mapper, ex);
+            }
+        }
+    }
+
+}
@@ -1,10 +1,9 @@
 package at.ac.tuwien.infosys.jaxb;
 
-import java.io.ByteArrayInputStream;
-import java.util.Arrays;
-import java.util.Stack;
-
-import javax.xml.namespace.QName;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -12,61 +11,120 @@ import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 import com.sun.xml.txw2.TypedXmlWriter;
 
 /**
- * Reads an XML element string and writes a copy of this 
- * element to a TXW TypedXmlWriter. 
- * 
- * This class is primarily used for writing XML content 
- * appearing in &lt;appinfo> and &lt;documentation> 
+ * Reads an XML element string and writes a copy of this
+ * element to a TXW TypedXmlWriter.
+ *
+ * This class is primarily used for writing XML content
+ * appearing in &lt;appinfo> and &lt;documentation>
  * elements in XSDs generated by JAXB-Facets.
- * 
+ *
+ * The string is parsed once (via SAX), and the events are recorded as a
+ * {@link SchemaFragmentCache.Fragment}, which is then replayed to the writer.
+ * Since the same snippets usually occur for many properties, the recorded
+ * fragments (and the strings which are not well-formed XML) are cached.
+ *
  * @author Waldemar Hummer
  */
 public class DOMtoTXW implements ContentHandler {
 
-    private Stack<TypedXmlWriter> elementWriters = new Stack<TypedXmlWriter>();
+    private static final Logger logger = Logger.getLogger(DOMtoTXW.class.getName());
+
+    public static final int MAX_CACHED_VALUES = 1000;
+
+    /** marks values which are not well-formed XML in {@link #FRAGMENTS} */
+    private static final Object NO_XML = new Object();
+
+    /** recorded fragments by value, in access order */
+    private static final Map<String, Object> FRAGMENTS = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_CACHED_VALUES;
+        }
+    };
+
+    private final TypedXmlWriter root;
+    private final SchemaFragmentCache.Recorder recorder = new SchemaFragmentCache.Recorder();
+    private final StringBuilder buffer = new StringBuilder();
 
     public DOMtoTXW(TypedXmlWriter root) {
-        elementWriters.push(root);
+        this.root = root;
+        /* the recorder records the content of the root element */
+        recorder.beginStartTag("", "", "");
     }
 
     public void convert(String value) throws Exception {
-        XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-        xmlReader.setContentHandler(this);
-        xmlReader.parse(new InputSource(new ByteArrayInputStream(value.getBytes())));
+        SchemaFragmentCache.Fragment fragment = parse(value);
+        if(fragment == null) {
+            throw new SAXException("Not a well-formed XML element: '" + value + "'");
+        }
+        fragment.replay(root);
     }
 
-    private TypedXmlWriter getWriter() {
-        return elementWriters.lastElement();
+    /**
+     * @return the events of the given XML element string, or null if the
+     * value is not a well-formed XML element.
+     */
+    public static SchemaFragmentCache.Fragment parse(String value) {
+        if(value == null || !value.trim().startsWith("<")) {
+            return null;
+        }
+        Object fragment;
+        synchronized (FRAGMENTS) {
+            fragment = FRAGMENTS.get(value);
+        }
+        if(fragment == null) {
+            try {
+                DOMtoTXW handler = new DOMtoTXW(null);
+                XMLReader xmlReader = XmlPools.getXMLReader();
+                try {
+                    xmlReader.setContentHandler(handler);
+                    xmlReader.parse(new InputSource(new StringReader(value)));
+                } finally {
+                    XmlPools.release(xmlReader);
+                }
+                fragment = handler.recorder.getFragment();
+                logger.fine("Treating string as valid XML: '" + value + "'");
+            } catch (Exception e) {
+                logger.fine("Cannot parse value as XML, treating as regular string: '" + value + "'");
+                fragment = NO_XML;
+            }
+            synchronized (FRAGMENTS) {
+                FRAGMENTS.put(value, fragment);
+            }
+        }
+        return fragment == NO_XML ? null : (SchemaFragmentCache.Fragment)fragment;
+    }
+
+    private void flushText() {
+        if(buffer.length() > 0) {
+            recorder.text(buffer);
+            buffer.setLength(0);
+        }
     }
 
     public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
-        TypedXmlWriter newElement = getWriter().
-                _element(new QName(uri, localName), TypedXmlWriter.class);
+        flushText();
+        recorder.beginStartTag(uri, localName, null);
         for(int i = 0; i < attrs.getLength(); i ++) {
             String n = attrs.getLocalName(i);
             String u = attrs.getURI(i);
             String v = attrs.getValue(i);
-            if(u == null) {
-                newElement._attribute(n, v);
-            } else {
-                newElement._attribute(u, n, v);
-            }
+            recorder.writeAttribute(u == null ? "" : u, n, null, new StringBuilder(v));
         }
-        elementWriters.push(newElement);
     }
 
     public void endElement(String arg0, String arg1, String arg2) throws SAXException {
-        elementWriters.pop();
+        flushText();
+        recorder.endTag();
     }
 
     public void characters(char[] ch, int start, int length) throws SAXException {
-        String data = new String(Arrays.copyOfRange(ch, start, start + length));
-        getWriter()._pcdata(data);
+        buffer.append(ch, start, length);
     }
 
 
@@ -84,7 +142,7 @@ public class DOMtoTXW implements ContentHandler {
     }
     public void ignorableWhitespace(char[] arg0, int arg1, int arg2) throws SAXException {
         /* swallow */
-    }  
+    }
     public void startPrefixMapping(String prefix, String uri) throws SAXException {
         /* swallow */
     }
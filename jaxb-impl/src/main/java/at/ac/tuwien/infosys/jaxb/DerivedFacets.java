@@ -0,0 +1,148 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.Facets.WhiteSpace;
+import javax.xml.bind.annotation.MinOccurs;
+
+/**
+ * Facets (and minOccurs) derived from the validation constraints of a
+ * property by {@link ConstraintFacetMapper}s. If several mappers derive
+ * the same facet, the value of the mapper with the highest priority
+ * (i.e., registered first) is used.
+ */
+public final class DerivedFacets {
+
+    private static final String MIN_OCCURS = "minOccurs";
+
+    /** derived values by name of the Facets member, and priority of the setting mapper */
+    private final Map<String, Object[]> values = new LinkedHashMap<String, Object[]>(4);
+
+    private int priority;
+
+    DerivedFacets() {
+    }
+
+    /** set the priority of the mapper which is currently invoked (lower value = higher priority) */
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public DerivedFacets enumeration(String ... enumeration) {
+        return set("enumeration", enumeration == null ? null : enumeration.clone());
+    }
+    public DerivedFacets fractionDigits(long value) {
+        return set("fractionDigits", value);
+    }
+    public DerivedFacets length(long value) {
+        return set("length", value);
+    }
+    public DerivedFacets maxExclusive(String value) {
+        return set("maxExclusive", value);
+    }
+    public DerivedFacets minExclusive(String value) {
+        return set("minExclusive", value);
+    }
+    public DerivedFacets maxLength(long value) {
+        return set("maxLength", value);
+    }
+    public DerivedFacets minLength(long value) {
+        return set("minLength", value);
+    }
+    public DerivedFacets maxInclusive(String value) {
+        return set("maxInclusive", value);
+    }
+    public DerivedFacets minInclusive(String value) {
+        return set("minInclusive", value);
+    }
+    public DerivedFacets pattern(String value) {
+        return set("pattern", value);
+    }
+    public DerivedFacets totalDigits(long value) {
+        return set("totalDigits", value);
+    }
+    public DerivedFacets whiteSpace(WhiteSpace value) {
+        return set("whiteSpace", value);
+    }
+    public DerivedFacets minOccurs(long value) {
+        return set(MIN_OCCURS, value);
+    }
+
+    /**
+     * @return the derived value of the given facet (or "minOccurs"), or null.
+     */
+    public Object get(String name) {
+        Object[] entry = values.get(name);
+        return entry == null ? null : entry[0];
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    private DerivedFacets set(String name, Object value) {
+        Object[] existing = values.get(name);
+        if (existing == null || (Integer) existing[1] > priority) {
+            values.put(name, new Object[] { value, priority });
+        }
+        return this;
+    }
+
+    /**
+     * Amend the given Facets annotation with the derived facets. Facets
+     * defined in the original annotation take precedence.
+     * @param original Existing Facets annotation or null.
+     * @return the amended annotation, or original if nothing was derived.
+     */
+    Facets applyTo(Facets original) {
+        FacetsImpl.Builder facets = null;
+        Facets current = null;
+        boolean override = false;
+        for (Map.Entry<String, Object[]> e : values.entrySet()) {
+            FacetDescriptor descriptor = FacetDescriptor.getDescriptor(e.getKey());
+            if (descriptor == null) {
+                continue;
+            }
+            if (facets == null) {
+                /* copy of the original values (unreadable values are left at their defaults) */
+                facets = FacetsImpl.builder(original);
+                current = facets.build();
+            }
+            Object currentValue = null;
+            try {
+                currentValue = descriptor.getValue(current);
+            } catch (Exception ex) {
+                /* cannot happen for FacetsImpl */
+            }
+            if (!descriptor.isDefined(currentValue)) {
+                facets.set(e.getKey(), e.getValue()[0]);
+                override = true;
+            }
+        }
+        return override ? facets.build() : original;
+    }
+
+    /**
+     * @param original Existing MinOccurs annotation or null.
+     * @return the original annotation if not null, otherwise the derived value (or null).
+     */
+    MinOccurs applyTo(MinOccurs original) {
+        Object min = get(MIN_OCCURS);
+        if (original == null && min != null) {
+            return MinOccursImpl.builder().value((Long) min).build();
+        }
+        return original;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("[DerivedFacets");
+        for (String name : values.keySet()) {
+            b.append(" ").append(name).append("=").append(get(name));
+        }
+        return b.append("]").toString();
+    }
+
+}
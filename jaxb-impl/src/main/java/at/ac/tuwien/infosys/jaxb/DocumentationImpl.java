@@ -0,0 +1,96 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.Documentation;
+
+/**
+ * Immutable implementation of {@link Documentation}.
+ */
+@SuppressWarnings("all")
+public final class DocumentationImpl extends AbstractAnnotationImpl implements Documentation {
+
+	private final String source;
+	private final String lang;
+	private final String value;
+
+	private DocumentationImpl(Builder b) {
+		this.source = b.source;
+		this.lang = b.lang;
+		this.value = b.value;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<Documentation> {
+		private String source = "";
+		private String lang = "";
+		private String value;
+
+		private Builder() {
+		}
+
+		public Builder source(String source) {
+			this.source = source;
+			return this;
+		}
+		public Builder lang(String lang) {
+			this.lang = lang;
+			return this;
+		}
+		public Builder value(String value) {
+			this.value = value;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("source".equals(name)) {
+				source(toStr(name, value));
+			} else if("lang".equals(name)) {
+				lang(toStr(name, value));
+			} else if("value".equals(name)) {
+				value(toStr(name, value));
+			} else {
+				throw unknownMember(Documentation.class, name);
+			}
+		}
+
+		public Documentation build() {
+			return new DocumentationImpl(this);
+		}
+	}
+
+	public String source() {
+		return source;
+	}
+	public String lang() {
+		return lang;
+	}
+	public String value() {
+		return value;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return Documentation.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return members(this);
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof Documentation && membersEqual(o instanceof AbstractAnnotationImpl ?
+				((AbstractAnnotationImpl)o).memberValues() : members((Documentation)o)));
+	}
+
+	private static Object[] members(Documentation d) {
+		return new Object[] {
+				"source", d.source(),
+				"lang", d.lang(),
+				"value", d.value()
+		};
+	}
+
+}
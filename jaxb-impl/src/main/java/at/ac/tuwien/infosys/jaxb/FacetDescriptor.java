@@ -0,0 +1,189 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.Facets.FacetDefinition;
+
+/**
+ * Describes a single facet of the {@link Facets} annotation, i.e., its XSD
+ * name, its default value and an accessor to read the facet value from a
+ * Facets instance. The table of descriptors ({@link #getDescriptors()}) is
+ * computed once from the {@link FacetDefinition} markers and is ordered by
+ * XSD name, which makes the schema generation deterministic.
+ */
+@SuppressWarnings("all")
+public final class FacetDescriptor {
+
+	/**
+	 * Reads the value of a facet from a Facets instance.
+	 */
+	private static interface Accessor {
+		Object get(Facets f);
+	}
+
+	private static final Map<String, Accessor> ACCESSORS = new HashMap<String, Accessor>();
+	static {
+		ACCESSORS.put("enumeration", new Accessor() {
+			public Object get(Facets f) { return f.enumeration(); }
+		});
+		ACCESSORS.put("fractionDigits", new Accessor() {
+			public Object get(Facets f) { return f.fractionDigits(); }
+		});
+		ACCESSORS.put("length", new Accessor() {
+			public Object get(Facets f) { return f.length(); }
+		});
+		ACCESSORS.put("maxExclusive", new Accessor() {
+			public Object get(Facets f) { return f.maxExclusive(); }
+		});
+		ACCESSORS.put("minExclusive", new Accessor() {
+			public Object get(Facets f) { return f.minExclusive(); }
+		});
+		ACCESSORS.put("maxLength", new Accessor() {
+			public Object get(Facets f) { return f.maxLength(); }
+		});
+		ACCESSORS.put("minLength", new Accessor() {
+			public Object get(Facets f) { return f.minLength(); }
+		});
+		ACCESSORS.put("maxInclusive", new Accessor() {
+			public Object get(Facets f) { return f.maxInclusive(); }
+		});
+		ACCESSORS.put("minInclusive", new Accessor() {
+			public Object get(Facets f) { return f.minInclusive(); }
+		});
+		ACCESSORS.put("pattern", new Accessor() {
+			public Object get(Facets f) { return f.pattern(); }
+		});
+		ACCESSORS.put("totalDigits", new Accessor() {
+			public Object get(Facets f) { return f.totalDigits(); }
+		});
+		ACCESSORS.put("whiteSpace", new Accessor() {
+			public Object get(Facets f) { return f.whiteSpace(); }
+		});
+	}
+
+	private static final List<FacetDescriptor> DESCRIPTORS = createDescriptors();
+	private static final Map<String, FacetDescriptor> DESCRIPTORS_BY_NAME = new HashMap<String, FacetDescriptor>();
+	static {
+		for(FacetDescriptor d : DESCRIPTORS) {
+			DESCRIPTORS_BY_NAME.put(d.getName(), d);
+		}
+	}
+
+	private final String xsdName;
+	private final Method method;
+	private final Object defaultValue;
+	private final Accessor accessor;
+
+	private FacetDescriptor(String xsdName, Method method, Accessor accessor) {
+		this.xsdName = xsdName;
+		this.method = method;
+		this.defaultValue = method.getDefaultValue();
+		this.accessor = accessor;
+	}
+
+	/**
+	 * @return all facets of the {@link Facets} annotation, ordered by XSD name.
+	 */
+	public static List<FacetDescriptor> getDescriptors() {
+		return DESCRIPTORS;
+	}
+
+	/**
+	 * @param name name of the member of the {@link Facets} annotation
+	 * @return the descriptor, or null if there is no such facet.
+	 */
+	public static FacetDescriptor getDescriptor(String name) {
+		return DESCRIPTORS_BY_NAME.get(name);
+	}
+
+	public String getXsdName() {
+		return xsdName;
+	}
+
+	/** the name of the annotation member of {@link Facets} */
+	public String getName() {
+		return method.getName();
+	}
+
+	public Object getDefaultValue() {
+		return defaultValue;
+	}
+
+	/**
+	 * Read the value of this facet from the given annotation.
+	 * @throws Exception if the value cannot be read, which sometimes happens
+	 *  due to our proxying mechanism, especially for javac/schemagen.
+	 */
+	public Object getValue(Facets facets) throws Exception {
+		if(accessor != null) {
+			return accessor.get(facets);
+		}
+		return method.invoke(facets);
+	}
+
+	/**
+	 * Determine whether the given facet value is defined, i.e.,
+	 * differs from the default value of this facet. Array values are
+	 * defined if they are not empty: the default enumeration {} is not
+	 * a defined facet (earlier versions reported an empty 'enumeration'
+	 * facet for each Facets annotation, which did not add any XSD facet).
+	 */
+	public boolean isDefined(Object value) {
+		if(value == null) {
+			return false;
+		}
+		if(value instanceof Object[]) {
+			return ((Object[])value).length > 0;
+		}
+		return !value.equals(defaultValue);
+	}
+
+	/**
+	 * Convert a defined facet value to the list of XSD facet values.
+	 */
+	public List<String> toXsdValues(Object value) {
+		if (value instanceof String[]) {
+			return new ArrayList<String>(Arrays.asList((String[])value));
+		}
+		List<String> result = new ArrayList<String>(1);
+		result.add("" + value);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "[FacetDescriptor " + xsdName + "]";
+	}
+
+	private static List<FacetDescriptor> createDescriptors() {
+		List<FacetDescriptor> result = new ArrayList<FacetDescriptor>();
+		for (Method m : Facets.class.getDeclaredMethods()) {
+			if (!m.isAnnotationPresent(FacetDefinition.class))
+				continue;
+			/* additional code suggested by Jason Pell (jason@pellcorp.com) */
+			FacetDefinition facetDefinition = m.getAnnotation(FacetDefinition.class);
+			String facetName = m.getName();
+			if (facetDefinition.xsdAttributeName() != null
+					&& facetDefinition.xsdAttributeName().length() > 0) {
+				facetName = facetDefinition.xsdAttributeName();
+			}
+			/* end additional code */
+			result.add(new FacetDescriptor(facetName, m, ACCESSORS.get(m.getName())));
+		}
+		Collections.sort(result, new Comparator<FacetDescriptor>() {
+			public int compare(FacetDescriptor d1, FacetDescriptor d2) {
+				return d1.xsdName.compareTo(d2.xsdName);
+			}
+		});
+		return Collections.unmodifiableList(result);
+	}
+
+}
@@ -0,0 +1,488 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the facet and XSD extension annotations (as well as the
+ * javax.validation constraints) of the fields and methods of classes,
+ * written at compile time by the jaxb-facets annotation processor.
+ * For indexed classes, the annotations are read from the index rather
+ * than via reflection.
+ *
+ * <p>
+ * The index is a binary file (see {@link #write(OutputStream, Map)}) located
+ * at {@link #RESOURCE}; all index files visible to a class loader are merged.
+ * Index data is a map from binary class name to member key (see
+ * {@link #getMemberKey(AccessibleObject)}) to annotation type name to annotation
+ * member values. Values are Strings, Integers, Longs, Booleans, {@link Ref}s (enum
+ * constants and classes), Lists (arrays) and Maps (nested annotations).
+ */
+public final class FacetIndex {
+
+    private static final Logger logger = Logger.getLogger(FacetIndex.class.getName());
+
+    /** location of the index files */
+    public static final String RESOURCE = "META-INF/jaxb-facets/facet-index.bin";
+
+    /** annotation packages of which the annotations are recorded in the index */
+    public static final List<String> INDEXED_PACKAGES = Collections.unmodifiableList(
+            Arrays.asList("javax.xml.bind.annotation", "javax.validation.constraints"));
+
+    private static final int MAGIC = 0x4A584649;
+    private static final int VERSION = 1;
+
+    private static final byte TAG_STRING = 's';
+    private static final byte TAG_LONG = 'j';
+    private static final byte TAG_INT = 'i';
+    private static final byte TAG_BOOLEAN = 'z';
+    private static final byte TAG_ENUM = 'e';
+    private static final byte TAG_CLASS = 'c';
+    private static final byte TAG_ARRAY = '[';
+    private static final byte TAG_ANNOTATION = '@';
+
+    private static final FacetIndex EMPTY = new FacetIndex(
+            Collections.<String, Map<String, Map<String, Map<String, Object>>>>emptyMap());
+
+    private static final Map<ClassLoader, FacetIndex> INDEXES =
+            Collections.synchronizedMap(new WeakHashMap<ClassLoader, FacetIndex>());
+
+    /**
+     * Reference to an enum constant or a class, by name.
+     */
+    public static final class Ref {
+        private final boolean classRef;
+        private final String name;
+
+        private Ref(boolean classRef, String name) {
+            this.classRef = classRef;
+            this.name = name;
+        }
+        public static Ref enumConstant(String name) {
+            return new Ref(false, name);
+        }
+        public static Ref type(String className) {
+            return new Ref(true, className);
+        }
+        public boolean isClass() {
+            return classRef;
+        }
+        public String getName() {
+            return name;
+        }
+        @Override
+        public String toString() {
+            return (classRef ? "class " : "") + name;
+        }
+    }
+
+    /** index data, which only consists of names and values (and hence does not reference the class loader) */
+    private final Map<String, Map<String, Map<String, Map<String, Object>>>> classes;
+    /** indexed elements by declaring class and member key; the elements only reference their class weakly */
+    private final Map<Class<?>, Map<String, IndexedElement>> elements =
+            new WeakHashMap<Class<?>, Map<String, IndexedElement>>();
+
+    private FacetIndex(Map<String, Map<String, Map<String, Map<String, Object>>>> classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Get the (merged) index of all index files visible to the given class loader.
+     * The index is loaded once per class loader.
+     */
+    public static FacetIndex forClassLoader(ClassLoader loader) {
+        if (loader == null) {
+            return EMPTY;
+        }
+        FacetIndex index = INDEXES.get(loader);
+        if (index == null) {
+            index = load(loader);
+            INDEXES.put(loader, index);
+        }
+        return index;
+    }
+
+    private static FacetIndex load(ClassLoader loader) {
+        Map<String, Map<String, Map<String, Map<String, Object>>>> classes =
+                new HashMap<String, Map<String, Map<String, Map<String, Object>>>>();
+        try {
+            Enumeration<URL> urls = loader.getResources(RESOURCE);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                InputStream in = url.openStream();
+                try {
+                    classes.putAll(read(in));
+                    logger.fine("Loaded facet index " + url);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to read facet index " + url, e);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to load facet indexes.", e);
+        }
+        return classes.isEmpty() ? EMPTY : new FacetIndex(classes);
+    }
+
+    /**
+     * @return whether the given constraint types are all recorded in the index.
+     */
+    public static boolean covers(Collection<Class<? extends Annotation>> annotationTypes) {
+        for (Class<? extends Annotation> type : annotationTypes) {
+            if (type.getPackage() == null ||
+                    !INDEXED_PACKAGES.contains(type.getPackage().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty();
+    }
+
+    public boolean isIndexed(Class<?> clazz) {
+        return classes.containsKey(clazz.getName());
+    }
+
+    /**
+     * @return the key of a field ("name") or method ("name/parameterCount").
+     */
+    public static String getMemberKey(AccessibleObject member) {
+        if (member instanceof Method) {
+            Method m = (Method) member;
+            return m.getName() + "/" + m.getParameterTypes().length;
+        }
+        return ((Field) member).getName();
+    }
+
+    /**
+     * @return the annotations of the given field or method as recorded in the
+     * index, or null if the declaring class is not indexed.
+     */
+    public AnnotatedElement getElement(AccessibleObject member) {
+        Class<?> declaring = member instanceof Method ?
+                ((Method) member).getDeclaringClass() : ((Field) member).getDeclaringClass();
+        Map<String, Map<String, Map<String, Object>>> members = classes.get(declaring.getName());
+        if (members == null) {
+            return null;
+        }
+        String memberKey = getMemberKey(member);
+        synchronized (elements) {
+            Map<String, IndexedElement> byKey = elements.get(declaring);
+            if (byKey == null) {
+                byKey = new HashMap<String, IndexedElement>();
+                elements.put(declaring, byKey);
+            }
+            IndexedElement result = byKey.get(memberKey);
+            if (result == null) {
+                Map<String, Map<String, Object>> annos = members.get(memberKey);
+                result = new IndexedElement(declaring, memberKey, annos != null ? annos
+                        : Collections.<String, Map<String, Object>>emptyMap());
+                byKey.put(memberKey, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Convert indexed annotation values into an annotation instance. For the
+     * jaxb-facets annotation types, the values are set on the builder of the
+     * respective implementation class (e.g., {@link FacetsImpl}); a proxy is
+     * only created for other annotation types.
+     */
+    private static <A extends Annotation> A toAnnotation(Class<A> annoClass,
+            Map<String, Object> values, ClassLoader cl) throws Exception {
+        AbstractAnnotationImpl.AbstractBuilder<?> builder = AnnotationUtils.builderFor(annoClass);
+        Map<String, Object> converted = builder == null ? new HashMap<String, Object>() : null;
+        for (Map.Entry<String, Object> e : values.entrySet()) {
+            Class<?> expected = annoClass.getMethod(e.getKey()).getReturnType();
+            Object value = convert(e.getValue(), expected, cl);
+            if (builder != null) {
+                builder.set(e.getKey(), value);
+            } else {
+                converted.put(e.getKey(), value);
+            }
+        }
+        if (builder != null) {
+            return annoClass.cast(builder.build());
+        }
+        return AnnotationUtils.createAnnotationProxy(annoClass, converted);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object convert(Object value, Class<?> expected, ClassLoader cl) throws Exception {
+        if (value instanceof Ref) {
+            Ref ref = (Ref) value;
+            if (ref.isClass()) {
+                return Class.forName(ref.getName(), false, cl);
+            }
+            return Enum.valueOf((Class<? extends Enum>) expected, ref.getName());
+        }
+        if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            Class<?> componentType = expected.getComponentType();
+            Object result = Array.newInstance(componentType, list.size());
+            for (int i = 0; i < list.size(); i ++) {
+                Array.set(result, i, convert(list.get(i), componentType, cl));
+            }
+            return result;
+        }
+        if (value instanceof Map<?, ?>) {
+            return toAnnotation(expected.asSubclass(Annotation.class),
+                    (Map<String, Object>) value, cl);
+        }
+        if (value instanceof Number) {
+            Number n = (Number) value;
+            if (expected == int.class || expected == Integer.class) {
+                return n.intValue();
+            }
+            return n.longValue();
+        }
+        return value;
+    }
+
+    /* READING AND WRITING */
+
+    /**
+     * Write index data (see class comment for the structure).
+     */
+    public static void write(OutputStream out,
+            Map<String, Map<String, Map<String, Map<String, Object>>>> classes) throws IOException {
+        DataOutputStream o = new DataOutputStream(out);
+        o.writeInt(MAGIC);
+        o.writeShort(VERSION);
+        o.writeInt(classes.size());
+        for (Map.Entry<String, Map<String, Map<String, Map<String, Object>>>> c : classes.entrySet()) {
+            o.writeUTF(c.getKey());
+            o.writeInt(c.getValue().size());
+            for (Map.Entry<String, Map<String, Map<String, Object>>> m : c.getValue().entrySet()) {
+                o.writeUTF(m.getKey());
+                o.writeInt(m.getValue().size());
+                for (Map.Entry<String, Map<String, Object>> a : m.getValue().entrySet()) {
+                    o.writeUTF(a.getKey());
+                    writeMembers(o, a.getValue());
+                }
+            }
+        }
+        o.flush();
+    }
+
+    private static void writeMembers(DataOutputStream o, Map<String, Object> values) throws IOException {
+        o.writeInt(values.size());
+        for (Map.Entry<String, Object> v : values.entrySet()) {
+            o.writeUTF(v.getKey());
+            writeValue(o, v.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(DataOutputStream o, Object value) throws IOException {
+        if (value instanceof String) {
+            o.writeByte(TAG_STRING);
+            o.writeUTF((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            o.writeByte(TAG_INT);
+            o.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            o.writeByte(TAG_LONG);
+            o.writeLong(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            o.writeByte(TAG_BOOLEAN);
+            o.writeBoolean((Boolean) value);
+        } else if (value instanceof Ref) {
+            o.writeByte(((Ref) value).isClass() ? TAG_CLASS : TAG_ENUM);
+            o.writeUTF(((Ref) value).getName());
+        } else if (value instanceof List<?>) {
+            o.writeByte(TAG_ARRAY);
+            o.writeInt(((List<?>) value).size());
+            for (Object v : (List<?>) value) {
+                writeValue(o, v);
+            }
+        } else if (value instanceof Map<?, ?>) {
+            o.writeByte(TAG_ANNOTATION);
+            writeMembers(o, (Map<String, Object>) value);
+        } else {
+            throw new IOException("Unsupported annotation value: " + value);
+        }
+    }
+
+    /**
+     * Read index data (see class comment for the structure).
+     */
+    public static Map<String, Map<String, Map<String, Map<String, Object>>>> read(
+            InputStream in) throws IOException {
+        DataInputStream i = new DataInputStream(new BufferedInputStream(in));
+        if (i.readInt() != MAGIC) {
+            throw new IOException("Not a facet index.");
+        }
+        int version = i.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported facet index version: " + version);
+        }
+        Map<String, Map<String, Map<String, Map<String, Object>>>> classes =
+                new LinkedHashMap<String, Map<String, Map<String, Map<String, Object>>>>();
+        for (int c = i.readInt(); c > 0; c --) {
+            String className = i.readUTF();
+            Map<String, Map<String, Map<String, Object>>> members =
+                    new HashMap<String, Map<String, Map<String, Object>>>();
+            for (int m = i.readInt(); m > 0; m --) {
+                String member = i.readUTF();
+                Map<String, Map<String, Object>> annos =
+                        new LinkedHashMap<String, Map<String, Object>>();
+                for (int a = i.readInt(); a > 0; a --) {
+                    String annoType = i.readUTF();
+                    annos.put(annoType, readMembers(i));
+                }
+                members.put(member, annos);
+            }
+            classes.put(className, members);
+        }
+        return classes;
+    }
+
+    private static Map<String, Object> readMembers(DataInputStream i) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (int v = i.readInt(); v > 0; v --) {
+            String name = i.readUTF();
+            values.put(name, readValue(i));
+        }
+        return values;
+    }
+
+    private static Object readValue(DataInputStream i) throws IOException {
+        byte tag = i.readByte();
+        switch (tag) {
+        case TAG_STRING:
+            return i.readUTF();
+        case TAG_INT:
+            return i.readInt();
+        case TAG_LONG:
+            return i.readLong();
+        case TAG_BOOLEAN:
+            return i.readBoolean();
+        case TAG_ENUM:
+            return Ref.enumConstant(i.readUTF());
+        case TAG_CLASS:
+            return Ref.type(i.readUTF());
+        case TAG_ARRAY:
+            int size = i.readInt();
+            List<Object> list = new ArrayList<Object>(size);
+            for (int n = 0; n < size; n ++) {
+                list.add(readValue(i));
+            }
+            return list;
+        case TAG_ANNOTATION:
+            return readMembers(i);
+        default:
+            throw new IOException("Illegal value tag in facet index: " + tag);
+        }
+    }
+
+    /**
+     * The annotations of a field or method, as recorded in the index. The
+     * annotations are converted from the index data on each access, so that
+     * the element (which is cached per declaring class) does not reference
+     * any classes of the class loader.
+     */
+    static final class IndexedElement implements AnnotatedElement {
+
+        private final Reference<Class<?>> declaring;
+        private final String memberKey;
+        private final Map<String, Map<String, Object>> annotations;
+
+        IndexedElement(Class<?> declaring, String memberKey,
+                Map<String, Map<String, Object>> annotations) {
+            this.declaring = new WeakReference<Class<?>>(declaring);
+            this.memberKey = memberKey;
+            this.annotations = annotations;
+        }
+
+        /**
+         * @return the declaring class, or null if it has been collected.
+         */
+        Class<?> getDeclaringClass() {
+            return declaring.get();
+        }
+
+        String getMemberKey() {
+            return memberKey;
+        }
+
+        private ClassLoader getClassLoader() {
+            Class<?> c = declaring.get();
+            return c == null ? null : c.getClassLoader();
+        }
+
+        public <T extends Annotation> T getAnnotation(Class<T> annotationClass) {
+            Map<String, Object> values = annotations.get(annotationClass.getName());
+            if (values == null) {
+                return null;
+            }
+            try {
+                return toAnnotation(annotationClass, values, getClassLoader());
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Unable to convert indexed annotation "
+                        + annotationClass.getName(), e);
+                return null;
+            }
+        }
+
+        public boolean isAnnotationPresent(Class<? extends Annotation> annotationClass) {
+            return annotations.containsKey(annotationClass.getName());
+        }
+
+        public Annotation[] getAnnotations() {
+            ClassLoader cl = getClassLoader();
+            List<Annotation> result = new ArrayList<Annotation>();
+            for (Map.Entry<String, Map<String, Object>> e : annotations.entrySet()) {
+                try {
+                    Class<? extends Annotation> annoClass =
+                            Class.forName(e.getKey(), false, cl).asSubclass(Annotation.class);
+                    result.add(toAnnotation(annoClass, e.getValue(), cl));
+                } catch (Exception ex) {
+                    /* e.g., constraint types which are not available at runtime */
+                    logger.log(Level.FINE, "Unable to load indexed annotation " + e.getKey(), ex);
+                }
+            }
+            return result.toArray(new Annotation[result.size()]);
+        }
+
+        public Annotation[] getDeclaredAnnotations() {
+            return getAnnotations();
+        }
+
+        @Override
+        public String toString() {
+            Class<?> c = declaring.get();
+            return "[indexed " + (c == null ? "?" : c.getName()) + "#" + memberKey + "]";
+        }
+    }
+
+}
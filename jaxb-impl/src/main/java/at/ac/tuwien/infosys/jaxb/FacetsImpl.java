@@ -0,0 +1,243 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.Facets.WhiteSpace;
+
+/**
+ * Immutable implementation of {@link Facets}, used for facets which
+ * are synthesized at runtime (e.g., derived from validation constraints).
+ */
+@SuppressWarnings("all")
+public final class FacetsImpl extends AbstractAnnotationImpl implements Facets {
+
+	private static final String[] NO_VALUES = new String[0];
+
+	private final String[] enumeration;
+	private final long fractionDigits;
+	private final long length;
+	private final String maxExclusive;
+	private final String minExclusive;
+	private final long maxLength;
+	private final long minLength;
+	private final String maxInclusive;
+	private final String minInclusive;
+	private final String pattern;
+	private final long totalDigits;
+	private final WhiteSpace whiteSpace;
+
+	private FacetsImpl(Builder b) {
+		this.enumeration = b.enumeration;
+		this.fractionDigits = b.fractionDigits;
+		this.length = b.length;
+		this.maxExclusive = b.maxExclusive;
+		this.minExclusive = b.minExclusive;
+		this.maxLength = b.maxLength;
+		this.minLength = b.minLength;
+		this.maxInclusive = b.maxInclusive;
+		this.minInclusive = b.minInclusive;
+		this.pattern = b.pattern;
+		this.totalDigits = b.totalDigits;
+		this.whiteSpace = b.whiteSpace;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Create a builder which is initialized with the values of the given
+	 * annotation. Values which cannot be read from the given instance
+	 * (which may happen for proxied annotations) are left at their defaults.
+	 * @param original existing annotation, or null
+	 */
+	public static Builder builder(Facets original) {
+		Builder b = new Builder();
+		if(original == null) {
+			return b;
+		}
+		try { b.enumeration(original.enumeration()); } catch (Exception e) { /* swallow */ }
+		try { b.fractionDigits(original.fractionDigits()); } catch (Exception e) { /* swallow */ }
+		try { b.length(original.length()); } catch (Exception e) { /* swallow */ }
+		try { b.maxExclusive(original.maxExclusive()); } catch (Exception e) { /* swallow */ }
+		try { b.minExclusive(original.minExclusive()); } catch (Exception e) { /* swallow */ }
+		try { b.maxLength(original.maxLength()); } catch (Exception e) { /* swallow */ }
+		try { b.minLength(original.minLength()); } catch (Exception e) { /* swallow */ }
+		try { b.maxInclusive(original.maxInclusive()); } catch (Exception e) { /* swallow */ }
+		try { b.minInclusive(original.minInclusive()); } catch (Exception e) { /* swallow */ }
+		try { b.pattern(original.pattern()); } catch (Exception e) { /* swallow */ }
+		try { b.totalDigits(original.totalDigits()); } catch (Exception e) { /* swallow */ }
+		try { b.whiteSpace(original.whiteSpace()); } catch (Exception e) { /* swallow */ }
+		return b;
+	}
+
+	public static final class Builder extends AbstractBuilder<Facets> {
+		private String[] enumeration = NO_VALUES;
+		private long fractionDigits = VOID_LONG;
+		private long length = VOID_LONG;
+		private String maxExclusive = VOID_STRING;
+		private String minExclusive = VOID_STRING;
+		private long maxLength = VOID_LONG;
+		private long minLength = VOID_LONG;
+		private String maxInclusive = VOID_STRING;
+		private String minInclusive = VOID_STRING;
+		private String pattern = VOID_STRING;
+		private long totalDigits = VOID_LONG;
+		private WhiteSpace whiteSpace = WhiteSpace.VOID;
+
+		private Builder() {
+		}
+
+		public Builder enumeration(String ... enumeration) {
+			this.enumeration = enumeration == null ? NO_VALUES : enumeration.clone();
+			return this;
+		}
+		public Builder fractionDigits(long fractionDigits) {
+			this.fractionDigits = fractionDigits;
+			return this;
+		}
+		public Builder length(long length) {
+			this.length = length;
+			return this;
+		}
+		public Builder maxExclusive(String maxExclusive) {
+			this.maxExclusive = maxExclusive;
+			return this;
+		}
+		public Builder minExclusive(String minExclusive) {
+			this.minExclusive = minExclusive;
+			return this;
+		}
+		public Builder maxLength(long maxLength) {
+			this.maxLength = maxLength;
+			return this;
+		}
+		public Builder minLength(long minLength) {
+			this.minLength = minLength;
+			return this;
+		}
+		public Builder maxInclusive(String maxInclusive) {
+			this.maxInclusive = maxInclusive;
+			return this;
+		}
+		public Builder minInclusive(String minInclusive) {
+			this.minInclusive = minInclusive;
+			return this;
+		}
+		public Builder pattern(String pattern) {
+			this.pattern = pattern;
+			return this;
+		}
+		public Builder totalDigits(long totalDigits) {
+			this.totalDigits = totalDigits;
+			return this;
+		}
+		public Builder whiteSpace(WhiteSpace whiteSpace) {
+			this.whiteSpace = whiteSpace;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("enumeration".equals(name)) {
+				enumeration(toArray(name, value, String.class));
+			} else if("fractionDigits".equals(name)) {
+				fractionDigits(toLong(name, value));
+			} else if("length".equals(name)) {
+				length(toLong(name, value));
+			} else if("maxExclusive".equals(name)) {
+				maxExclusive(toStr(name, value));
+			} else if("minExclusive".equals(name)) {
+				minExclusive(toStr(name, value));
+			} else if("maxLength".equals(name)) {
+				maxLength(toLong(name, value));
+			} else if("minLength".equals(name)) {
+				minLength(toLong(name, value));
+			} else if("maxInclusive".equals(name)) {
+				maxInclusive(toStr(name, value));
+			} else if("minInclusive".equals(name)) {
+				minInclusive(toStr(name, value));
+			} else if("pattern".equals(name)) {
+				pattern(toStr(name, value));
+			} else if("totalDigits".equals(name)) {
+				totalDigits(toLong(name, value));
+			} else if("whiteSpace".equals(name)) {
+				whiteSpace(toEnum(name, value, WhiteSpace.class));
+			} else {
+				throw unknownMember(Facets.class, name);
+			}
+		}
+
+		public Facets build() {
+			return new FacetsImpl(this);
+		}
+	}
+
+	public String[] enumeration() {
+		return enumeration.length == 0 ? enumeration : enumeration.clone();
+	}
+	public long fractionDigits() {
+		return fractionDigits;
+	}
+	public long length() {
+		return length;
+	}
+	public String maxExclusive() {
+		return maxExclusive;
+	}
+	public String minExclusive() {
+		return minExclusive;
+	}
+	public long maxLength() {
+		return maxLength;
+	}
+	public long minLength() {
+		return minLength;
+	}
+	public String maxInclusive() {
+		return maxInclusive;
+	}
+	public String minInclusive() {
+		return minInclusive;
+	}
+	public String pattern() {
+		return pattern;
+	}
+	public long totalDigits() {
+		return totalDigits;
+	}
+	public WhiteSpace whiteSpace() {
+		return whiteSpace;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return Facets.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return members(this);
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof Facets && membersEqual(o instanceof AbstractAnnotationImpl ?
+				((AbstractAnnotationImpl)o).memberValues() : members((Facets)o)));
+	}
+
+	private static Object[] members(Facets f) {
+		return new Object[] {
+				"enumeration", f.enumeration(),
+				"fractionDigits", f.fractionDigits(),
+				"length", f.length(),
+				"maxExclusive", f.maxExclusive(),
+				"minExclusive", f.minExclusive(),
+				"maxLength", f.maxLength(),
+				"minLength", f.minLength(),
+				"maxInclusive", f.maxInclusive(),
+				"minInclusive", f.minInclusive(),
+				"pattern", f.pattern(),
+				"totalDigits", f.totalDigits(),
+				"whiteSpace", f.whiteSpace()
+		};
+	}
+
+}
@@ -0,0 +1,149 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import com.sun.xml.fastinfoset.dom.DOMDocumentParser;
+import com.sun.xml.fastinfoset.sax.SAXDocumentParser;
+import com.sun.xml.fastinfoset.stax.StAXDocumentSerializer;
+import com.sun.xml.txw2.output.StaxSerializer;
+import com.sun.xml.txw2.output.XmlSerializer;
+
+/**
+ * Writes and reads schema documents in the binary Fast Infoset format (ITU-T
+ * X.891), see {@link SchemaOutputProfile#FAST_INFOSET}. Fast Infoset documents
+ * are smaller than the textual XML documents, and considerably faster to parse
+ * (e.g., by tools which load generated schemas).
+ *
+ * <p>
+ * This class requires the FastInfoset library (com.sun.xml.fastinfoset:FastInfoset),
+ * which is an optional dependency; it is only loaded if Fast Infoset output is used.
+ */
+public final class FastInfosetSchemas {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private FastInfosetSchemas() { }
+
+    /**
+     * @return a serializer which writes a Fast Infoset document to the given stream.
+     */
+    public static XmlSerializer createSerializer(OutputStream out) {
+        /* the encoder buffers the output itself. StaxSerializer flushes the
+         * writer at endDocument() */
+        StAXDocumentSerializer writer = new StAXDocumentSerializer(out);
+        return new InternedNames(new StaxSerializer(writer, false));
+    }
+
+    /**
+     * The Fast Infoset encoder compares names (in particular the empty namespace
+     * URI and prefix) by identity, whereas the names reported by TXW are not
+     * necessarily interned; e.g., unqualified attributes would otherwise be
+     * encoded with a bogus prefix. Hence the names are interned.
+     */
+    private static final class InternedNames implements XmlSerializer {
+        private final XmlSerializer target;
+
+        InternedNames(XmlSerializer target) {
+            this.target = target;
+        }
+
+        public void startDocument() {
+            target.startDocument();
+        }
+        public void beginStartTag(String uri, String localName, String prefix) {
+            target.beginStartTag(uri.intern(), localName.intern(), prefix == null ? null : prefix.intern());
+        }
+        public void writeAttribute(String uri, String localName, String prefix, StringBuilder value) {
+            target.writeAttribute(uri.intern(), localName.intern(), prefix == null ? null : prefix.intern(), value);
+        }
+        public void writeXmlns(String prefix, String uri) {
+            target.writeXmlns(prefix == null ? null : prefix.intern(), uri.intern());
+        }
+        public void endStartTag(String uri, String localName, String prefix) {
+            target.endStartTag(uri, localName, prefix);
+        }
+        public void endTag() {
+            target.endTag();
+        }
+        public void text(StringBuilder text) {
+            target.text(text);
+        }
+        public void cdata(StringBuilder text) {
+            target.cdata(text);
+        }
+        public void comment(StringBuilder comment) {
+            target.comment(comment);
+        }
+        public void endDocument() {
+            target.endDocument();
+        }
+        public void flush() {
+            target.flush();
+        }
+    }
+
+    /**
+     * @return whether the given stream (which must support mark/reset) starts
+     * with a Fast Infoset document.
+     */
+    public static boolean isFastInfoset(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            /* identification (0xE0 0x00) and version (0x00 0x01), X.891 clause 12 */
+            return in.read() == 0xE0 && in.read() == 0x00 && in.read() == 0x00 && in.read() == 0x01;
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * @return a source of the given Fast Infoset schema document, e.g., for
+     * SchemaFactory.newSchema(Source[]) or a Transformer.
+     */
+    public static Source createSource(InputStream in, String systemId) {
+        SAXDocumentParser parser = new SAXDocumentParser();
+        InputSource input = new InputSource(in);
+        input.setSystemId(systemId);
+        SAXSource source = new SAXSource(parser, input);
+        source.setSystemId(systemId);
+        return source;
+    }
+
+    /**
+     * Parses the given schema document, which may either be a Fast Infoset or
+     * a textual XML document.
+     */
+    public static Document parse(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            if (!isFastInfoset(in)) {
+                return factory.newDocumentBuilder().parse(in);
+            }
+            Document doc = factory.newDocumentBuilder().newDocument();
+            new DOMDocumentParser().parse(doc, in);
+            return doc;
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw (IOException) new IOException("Unable to parse schema document: " + e).initCause(e);
+        }
+    }
+
+}
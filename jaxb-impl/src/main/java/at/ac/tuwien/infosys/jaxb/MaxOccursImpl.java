@@ -0,0 +1,63 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.MaxOccurs;
+
+/**
+ * Immutable implementation of {@link MaxOccurs}.
+ */
+@SuppressWarnings("all")
+public final class MaxOccursImpl extends AbstractAnnotationImpl implements MaxOccurs {
+
+	private final long value;
+
+	private MaxOccursImpl(Builder b) {
+		this.value = b.value;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<MaxOccurs> {
+		private long value;
+
+		private Builder() {
+		}
+
+		public Builder value(long value) {
+			this.value = value;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("value".equals(name)) {
+				value(toLong(name, value));
+			} else {
+				throw unknownMember(MaxOccurs.class, name);
+			}
+		}
+
+		public MaxOccurs build() {
+			return new MaxOccursImpl(this);
+		}
+	}
+
+	public long value() {
+		return value;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return MaxOccurs.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return new Object[] { "value", value };
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof MaxOccurs && ((MaxOccurs)o).value() == value);
+	}
+
+}
@@ -0,0 +1,161 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.beans.Introspector;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Index of the members (fields and accessor methods) of a class, including
+ * the members inherited from superclasses, by Java property name and XML name.
+ * Used to resolve the annotations of a JAXB property, given the
+ * name of the property and the class which declares it.
+ *
+ * <p>
+ * The members are resolved once per class, and the same Field and Method
+ * instances are returned by each lookup. As these reference the class, the
+ * cache (weakly keyed by class) holds the index via a soft reference, i.e.,
+ * the class stays collectable, and the index is only rebuilt after the soft
+ * references have been cleared.
+ */
+public final class MemberIndex {
+
+    private static final String DEFAULT_NAME = "##default";
+
+    private static final Map<Class<?>, SoftReference<MemberIndex>> INDEXES =
+            new WeakHashMap<Class<?>, SoftReference<MemberIndex>>();
+
+    /** members by name, ordered by precedence (subclass before superclass, fields before methods) */
+    private final Map<String, List<AccessibleObject>> members;
+
+    private MemberIndex(Map<String, List<AccessibleObject>> members) {
+        this.members = members;
+    }
+
+    /**
+     * Get the member index of the given class (the index is cached).
+     */
+    public static MemberIndex forClass(Class<?> clazz) {
+        synchronized (INDEXES) {
+            SoftReference<MemberIndex> ref = INDEXES.get(clazz);
+            MemberIndex index = ref == null ? null : ref.get();
+            if (index != null) {
+                return index;
+            }
+        }
+        MemberIndex index = new MemberIndex(index(clazz));
+        synchronized (INDEXES) {
+            INDEXES.put(clazz, new SoftReference<MemberIndex>(index));
+        }
+        return index;
+    }
+
+    /**
+     * Clears the soft references to the cached indexes (as the garbage
+     * collector does when memory runs low); for tests.
+     */
+    static void clearSoftReferences() {
+        synchronized (INDEXES) {
+            for (SoftReference<MemberIndex> ref : INDEXES.values()) {
+                ref.clear();
+            }
+        }
+    }
+
+    private static Map<String, List<AccessibleObject>> index(Class<?> clazz) {
+        Map<String, List<AccessibleObject>> members = new HashMap<String, List<AccessibleObject>>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            /* fields first, in declaration order */
+            for (Field f : c.getDeclaredFields()) {
+                if (f.isSynthetic()) {
+                    continue;
+                }
+                add(members, f.getName(), f);
+                addXmlName(members, f);
+            }
+            for (Method m : c.getDeclaredMethods()) {
+                if (m.isSynthetic() || m.isBridge() || Modifier.isStatic(m.getModifiers())) {
+                    continue;
+                }
+                String name = getPropertyName(m);
+                if (name != null) {
+                    add(members, name, m);
+                    addXmlName(members, m);
+                }
+            }
+        }
+        for (Map.Entry<String, List<AccessibleObject>> e : members.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return members;
+    }
+
+    /**
+     * Get the members with the given Java property name or XML name.
+     * @return the members, ordered by precedence, or an empty list.
+     */
+    public List<AccessibleObject> getMembers(String name) {
+        List<AccessibleObject> list = members.get(name);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    private static void addXmlName(Map<String, List<AccessibleObject>> members,
+            AccessibleObject member) {
+        XmlElement e = XmlSchemaEnhancer.getAnnotation(member, XmlElement.class);
+        if (e != null && !DEFAULT_NAME.equals(e.name())) {
+            add(members, e.name(), member);
+        }
+        XmlAttribute a = XmlSchemaEnhancer.getAnnotation(member, XmlAttribute.class);
+        if (a != null && !DEFAULT_NAME.equals(a.name())) {
+            add(members, a.name(), member);
+        }
+    }
+
+    private static void add(Map<String, List<AccessibleObject>> members, String name,
+            AccessibleObject member) {
+        List<AccessibleObject> list = members.get(name);
+        if (list == null) {
+            list = new ArrayList<AccessibleObject>(1);
+            members.put(name, list);
+        }
+        if (!list.contains(member)) {
+            list.add(member);
+        }
+    }
+
+    /**
+     * Derive the bean property name of a getter (getX/isX) or setter (setX) method.
+     * @return the property name, or null if the method is not an accessor.
+     */
+    private static String getPropertyName(Method m) {
+        String name = m.getName();
+        int params = m.getParameterTypes().length;
+        if (params == 0 && name.startsWith("get") && name.length() > 3
+                && m.getReturnType() != void.class) {
+            return Introspector.decapitalize(name.substring(3));
+        }
+        if (params == 0 && name.startsWith("is") && name.length() > 2
+                && (m.getReturnType() == boolean.class || m.getReturnType() == Boolean.class)) {
+            return Introspector.decapitalize(name.substring(2));
+        }
+        if (params == 1 && name.startsWith("set") && name.length() > 3) {
+            return Introspector.decapitalize(name.substring(3));
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,63 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+
+import javax.xml.bind.annotation.MinOccurs;
+
+/**
+ * Immutable implementation of {@link MinOccurs}.
+ */
+@SuppressWarnings("all")
+public final class MinOccursImpl extends AbstractAnnotationImpl implements MinOccurs {
+
+	private final long value;
+
+	private MinOccursImpl(Builder b) {
+		this.value = b.value;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder extends AbstractBuilder<MinOccurs> {
+		private long value;
+
+		private Builder() {
+		}
+
+		public Builder value(long value) {
+			this.value = value;
+			return this;
+		}
+
+		void set(String name, Object value) {
+			if("value".equals(name)) {
+				value(toLong(name, value));
+			} else {
+				throw unknownMember(MinOccurs.class, name);
+			}
+		}
+
+		public MinOccurs build() {
+			return new MinOccursImpl(this);
+		}
+	}
+
+	public long value() {
+		return value;
+	}
+
+	public Class<? extends Annotation> annotationType() {
+		return MinOccurs.class;
+	}
+
+	protected Object[] computeMemberValues() {
+		return new Object[] { "value", value };
+	}
+
+	public boolean equals(Object o) {
+		return o == this || (o instanceof MinOccurs && ((MinOccurs)o).value() == value);
+	}
+
+}
@@ -0,0 +1,278 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Schema documents which are generated at build time (e.g., by the
+ * jaxb-facets-maven-plugin) and packaged with the application. The documents
+ * are stored as class path resources below {@link #DIRECTORY}, and listed in
+ * the manifest {@link #MANIFEST} with the {@link SchemaCache.Fingerprint} of
+ * the generation and a content digest over the bytecode of the bound classes
+ * and the jaxb-facets implementation.
+ *
+ * <p>
+ * At runtime, the schema generator looks up the fingerprint of a generation in
+ * the manifests visible to the class loader of the bound classes (and the
+ * context class loader). If the content digest matches, the prebuilt documents
+ * are written; otherwise (e.g., if the classes have been changed after the
+ * build, or another jaxb-facets version is used), the documents are generated.
+ * The lookup can be disabled via {@link XmlSchemaEnhancer#PRECOMPILED_SCHEMAS_ENABLED}.
+ *
+ * <p>
+ * Like the {@link SchemaCache}, prebuilt documents are only used for results
+ * with an output stream or a writer. The documents are generated with the
+ * suggested file names as system ids; when they are written, the schemaLocation
+ * of their imports is rewritten to the system ids of the results, hence they are
+ * used regardless of the system ids which the {@link SchemaOutputResolver}
+ * assigns (except for Fast Infoset documents, whose fingerprint covers them).
+ */
+public final class PrecompiledSchemas {
+
+    private static final Logger LOGGER = Logger.getLogger(PrecompiledSchemas.class.getName());
+
+    public static final String MANIFEST = "META-INF/jaxb-facets/schemas.properties";
+    public static final String DIRECTORY = "META-INF/jaxb-facets/schemas/";
+
+    /** merged manifests by class loader */
+    private static final Map<ClassLoader, Properties> MANIFESTS =
+            new WeakHashMap<ClassLoader, Properties>();
+
+    /** documents recorded by {@link #precompile(JAXBContext, File)} */
+    private static final ThreadLocal<Map<SchemaCache.Fingerprint, Map<String, byte[]>>> RECORDED =
+            new ThreadLocal<Map<SchemaCache.Fingerprint, Map<String, byte[]>>>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong mismatches = new AtomicLong();
+
+    private PrecompiledSchemas() { }
+
+    /* RUNTIME */
+
+    /**
+     * @return whether any prebuilt schema documents are visible to the given
+     * class loader (which may be null) or the context class loader.
+     */
+    public static boolean isAvailable(ClassLoader loader) {
+        return !isRecording() && (!getManifest(loader).isEmpty() ||
+                !getManifest(Thread.currentThread().getContextClassLoader()).isEmpty());
+    }
+
+    /**
+     * @return the prebuilt schema documents (by namespace URI) for the given
+     * fingerprint, or null if there are none or if they do not match the
+     * current classes.
+     */
+    public static Map<String, byte[]> load(ClassLoader loader, SchemaCache.Fingerprint fingerprint) {
+        Map<String, byte[]> documents = load(loader, fingerprint, true);
+        if (documents == null) {
+            documents = load(Thread.currentThread().getContextClassLoader(), fingerprint, false);
+        }
+        return documents;
+    }
+
+    private static Map<String, byte[]> load(ClassLoader loader, SchemaCache.Fingerprint fingerprint,
+            boolean first) {
+        String key = fingerprint.getDigest();
+        Properties manifest = getManifest(loader);
+        String expected = manifest.getProperty(key + ".content");
+        if (expected == null) {
+            return null;
+        }
+        try {
+            if (!expected.equals(SchemaStore.getContentDigest(fingerprint, false))) {
+                mismatches.incrementAndGet();
+                LOGGER.fine("Prebuilt schema documents " + key + " do not match the bound classes.");
+                return null;
+            }
+            int count = Integer.parseInt(manifest.getProperty(key + ".count"));
+            Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < count; i++) {
+                String resource = manifest.getProperty(key + "." + i + ".file");
+                InputStream in = loader == null ? ClassLoader.getSystemResourceAsStream(resource) :
+                        loader.getResourceAsStream(resource);
+                if (in == null) {
+                    throw new IOException("Missing prebuilt schema document " + resource);
+                }
+                try {
+                    documents.put(manifest.getProperty(key + "." + i + ".namespace"), readFully(in));
+                } finally {
+                    in.close();
+                }
+            }
+            hits.incrementAndGet();
+            return documents;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to read prebuilt schema documents " + key, e);
+            return null;
+        }
+    }
+
+    private static Properties getManifest(ClassLoader loader) {
+        if (loader == null) {
+            loader = ClassLoader.getSystemClassLoader();
+        }
+        synchronized (MANIFESTS) {
+            Properties manifest = MANIFESTS.get(loader);
+            if (manifest == null) {
+                manifest = new Properties();
+                try {
+                    Enumeration<URL> urls = loader.getResources(MANIFEST);
+                    while (urls.hasMoreElements()) {
+                        URL url = urls.nextElement();
+                        InputStream in = url.openStream();
+                        try {
+                            manifest.load(in);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to read " + MANIFEST, e);
+                }
+                MANIFESTS.put(loader, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    /** @return number of generations which have been served from prebuilt documents */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /** @return number of prebuilt documents which did not match the bound classes */
+    public static long getMismatches() {
+        return mismatches.get();
+    }
+
+    /* BUILD TIME */
+
+    /**
+     * @return whether the schema generator should report the generated
+     * documents via {@link #record(SchemaCache.Fingerprint, Map)}.
+     */
+    public static boolean isRecording() {
+        return RECORDED.get() != null;
+    }
+
+    /**
+     * Called by the schema generator with the documents which it has generated
+     * during {@link #precompile(JAXBContext, File)}.
+     */
+    public static void record(SchemaCache.Fingerprint fingerprint, Map<String, byte[]> documents) {
+        Map<SchemaCache.Fingerprint, Map<String, byte[]>> recorded = RECORDED.get();
+        if (recorded != null) {
+            recorded.put(fingerprint, documents);
+        }
+    }
+
+    /**
+     * Generates the schema documents of the given context (for output streams
+     * as well as writers) and writes them, together with the manifest, to the
+     * given class output directory. Entries of an existing manifest are retained.
+     *
+     * @return the number of written schema documents.
+     */
+    public static int precompile(JAXBContext context, File outputDirectory) throws IOException {
+        Map<SchemaCache.Fingerprint, Map<String, byte[]>> recorded =
+                new LinkedHashMap<SchemaCache.Fingerprint, Map<String, byte[]>>();
+        RECORDED.set(recorded);
+        try {
+            for (final boolean stream : new boolean[] { true, false }) {
+                context.generateSchema(new SchemaOutputResolver() {
+                    public Result createOutput(String namespaceUri, String suggestedFileName) {
+                        StreamResult result = stream ? new StreamResult(new ByteArrayOutputStream()) :
+                                new StreamResult(new StringWriter());
+                        result.setSystemId(suggestedFileName);
+                        return result;
+                    }
+                });
+            }
+        } finally {
+            RECORDED.remove();
+        }
+
+        File manifestFile = new File(outputDirectory, MANIFEST);
+        Properties manifest = new Properties();
+        if (manifestFile.isFile()) {
+            InputStream in = new FileInputStream(manifestFile);
+            try {
+                manifest.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        int written = 0;
+        for (Map.Entry<SchemaCache.Fingerprint, Map<String, byte[]>> e : recorded.entrySet()) {
+            String key = e.getKey().getDigest();
+            String contentDigest = SchemaStore.getContentDigest(e.getKey(), false);
+            if (contentDigest == null) {
+                LOGGER.warning("Not precompiling schema documents of types without class files.");
+                continue;
+            }
+            List<String> namespaces = new ArrayList<String>(e.getValue().keySet());
+            Collections.sort(namespaces);
+            manifest.setProperty(key + ".content", contentDigest);
+            manifest.setProperty(key + ".count", String.valueOf(namespaces.size()));
+            for (int i = 0; i < namespaces.size(); i++) {
+                String resource = DIRECTORY + key + "/schema" + (i + 1) + ".xsd";
+                write(new File(outputDirectory, resource), e.getValue().get(namespaces.get(i)));
+                manifest.setProperty(key + "." + i + ".namespace", namespaces.get(i));
+                manifest.setProperty(key + "." + i + ".file", resource);
+                written++;
+            }
+        }
+        manifestFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(manifestFile);
+        try {
+            manifest.store(out, "jaxb-facets precompiled schema documents");
+        } finally {
+            out.close();
+        }
+        return written;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int len; (len = in.read(buffer)) > 0;) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+}
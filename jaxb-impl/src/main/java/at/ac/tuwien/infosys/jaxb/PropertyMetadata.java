@@ -0,0 +1,104 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.bind.annotation.AppInfo;
+import javax.xml.bind.annotation.Assert;
+import javax.xml.bind.annotation.Documentation;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.MaxOccurs;
+import javax.xml.bind.annotation.MinOccurs;
+
+/**
+ * Resolved jaxb-facets metadata of a single JAXB property. The effective
+ * annotations (including those derived from javax.validation constraints
+ * by {@link ValidationFacetsFilter}) are looked up once per property and
+ * then shared by all {@link XmlSchemaEnhancer} call sites.
+ *
+ * Note that the simple type checks (e.g., facets are only written for
+ * simple types or IDREFs) are still performed by the call sites, since
+ * they depend on the respective TypeRef or attribute and not on the
+ * property itself.
+ */
+@SuppressWarnings("all")
+public final class PropertyMetadata {
+
+    private static final SortedMap<String, List<String>> NO_FACETS =
+            Collections.unmodifiableSortedMap(new TreeMap<String, List<String>>());
+
+    private final Facets facets;
+    private final SortedMap<String, List<String>> definedFacets;
+    private final MinOccurs minOccurs;
+    private final MaxOccurs maxOccurs;
+    private final Documentation documentation;
+    private final AppInfo appInfo;
+    private final javax.xml.bind.annotation.Annotation xsdAnnotation;
+    private final Assert xsdAssert;
+
+    PropertyMetadata(Facets facets, SortedMap<String, List<String>> definedFacets,
+            MinOccurs minOccurs, MaxOccurs maxOccurs, Documentation documentation,
+            AppInfo appInfo, javax.xml.bind.annotation.Annotation xsdAnnotation,
+            Assert xsdAssert) {
+        this.facets = facets;
+        this.definedFacets = definedFacets == null ? NO_FACETS :
+                Collections.unmodifiableSortedMap(definedFacets);
+        this.minOccurs = minOccurs;
+        this.maxOccurs = maxOccurs;
+        this.documentation = documentation;
+        this.appInfo = appInfo;
+        this.xsdAnnotation = xsdAnnotation;
+        this.xsdAssert = xsdAssert;
+    }
+
+    /** the effective @Facets annotation, or null */
+    public Facets getFacets() {
+        return facets;
+    }
+
+    /** the facets defined by {@link #getFacets()}, keyed by XSD facet name (never null) */
+    public SortedMap<String, List<String>> getDefinedFacets() {
+        return definedFacets;
+    }
+
+    public boolean hasFacets() {
+        return !definedFacets.isEmpty();
+    }
+
+    public MinOccurs getMinOccurs() {
+        return minOccurs;
+    }
+
+    public MaxOccurs getMaxOccurs() {
+        return maxOccurs;
+    }
+
+    public Documentation getDocumentation() {
+        return documentation;
+    }
+
+    public AppInfo getAppInfo() {
+        return appInfo;
+    }
+
+    /**
+     * the merged @Annotation of this property, i.e., including
+     * separately declared @AppInfo and @Documentation, or null
+     */
+    public javax.xml.bind.annotation.Annotation getXsdAnnotation() {
+        return xsdAnnotation;
+    }
+
+    public Assert getXsdAssert() {
+        return xsdAssert;
+    }
+
+    @Override
+    public String toString() {
+        return "[PropertyMetadata facets=" + definedFacets + ", minOccurs=" + minOccurs +
+                ", maxOccurs=" + maxOccurs + ", annotation=" + xsdAnnotation +
+                ", assert=" + xsdAssert + "]";
+    }
+}
@@ -0,0 +1,318 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of generated schema documents (the bytes of the schema
+ * document per namespace URI), keyed by a {@link Fingerprint} of the schema
+ * generator's input. If several threads request the documents of the same
+ * fingerprint concurrently, the documents are generated only once and the
+ * other threads wait for the result.
+ *
+ * <p>
+ * The cache is used by the schema generator if it is set as
+ * {@link XmlSchemaEnhancer#SCHEMA_CACHE}. Note that the fingerprint only covers
+ * the bound types (by name and identity), the system IDs of the schema
+ * documents and the settings of {@link XmlSchemaEnhancer}; changes of other
+ * global state (e.g., registering constraint mappers at runtime) require
+ * {@link #clear()}.
+ *
+ * <p>
+ * Optionally, the cache is backed by a {@link SchemaStore}, which keeps the
+ * generated documents across JVM restarts.
+ */
+public final class SchemaCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final int maxEntries;
+    /** optional persistent second-level store, or null */
+    private final SchemaStore store;
+
+    /** cached entries by fingerprint digest, in access order */
+    private final Map<String, CachedDocuments> entries;
+    /** generations in progress, by fingerprint digest */
+    private final ConcurrentMap<String, FutureTask<CachedDocuments>> pending =
+            new ConcurrentHashMap<String, FutureTask<CachedDocuments>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Fingerprint of the input of a schema generation, consisting of a digest of
+     * all added values, and the identities of the added types (which are only
+     * weakly referenced, i.e., the cache does not keep class loaders alive).
+     */
+    public static final class Fingerprint {
+        private final MessageDigest digest;
+        private final List<WeakReference<Object>> types = new ArrayList<WeakReference<Object>>();
+        private String value;
+
+        public Fingerprint() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Adds a named value (which may be null) to the fingerprint.
+         */
+        public Fingerprint add(String name, String value) {
+            update(name);
+            update(value == null ? "\u0000" : value);
+            return this;
+        }
+
+        /**
+         * Adds a type, given by its name and the object which identifies it
+         * (e.g., the Class object), to the fingerprint.
+         */
+        public Fingerprint addType(String name, Object identity) {
+            add("type", name);
+            types.add(new WeakReference<Object>(identity));
+            return this;
+        }
+
+        private void update(String s) {
+            if (value != null) {
+                throw new IllegalStateException("Fingerprint has already been computed.");
+            }
+            try {
+                digest.update(s.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return the hex encoded SHA-256 digest of the added values.
+         */
+        public String getDigest() {
+            if (value == null) {
+                StringBuilder b = new StringBuilder();
+                for (byte x : digest.digest()) {
+                    b.append(Character.forDigit((x >> 4) & 0xF, 16));
+                    b.append(Character.forDigit(x & 0xF, 16));
+                }
+                value = b.toString();
+            }
+            return value;
+        }
+
+        /**
+         * @return the added types, in the order of addition (null for types
+         * which have been garbage collected).
+         */
+        List<Object> getTypes() {
+            List<Object> result = new ArrayList<Object>(types.size());
+            for (WeakReference<Object> ref : types) {
+                result.add(ref.get());
+            }
+            return result;
+        }
+
+        /**
+         * @return whether the types of both fingerprints are identical.
+         */
+        boolean sameTypes(Fingerprint other) {
+            if (types.size() != other.types.size()) {
+                return false;
+            }
+            for (int i = 0; i < types.size(); i++) {
+                Object type = types.get(i).get();
+                if (type == null || type != other.types.get(i).get()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return getDigest();
+        }
+    }
+
+    private static final class CachedDocuments {
+        final Fingerprint fingerprint;
+        final Map<String, byte[]> documents;
+
+        CachedDocuments(Fingerprint fingerprint, Map<String, byte[]> documents) {
+            this.fingerprint = fingerprint;
+            this.documents = Collections.unmodifiableMap(
+                    new LinkedHashMap<String, byte[]>(documents));
+        }
+    }
+
+    public SchemaCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached generation results (each
+     * of which holds the schema documents of all namespaces of a model).
+     */
+    public SchemaCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached generation results (each
+     * of which holds the schema documents of all namespaces of a model).
+     * @param store persistent store which is consulted before generating
+     * schema documents, and which receives the generated documents (may be null).
+     */
+    public SchemaCache(int maxEntries, SchemaStore store) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.store = store;
+        this.entries = new LinkedHashMap<String, CachedDocuments>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDocuments> eldest) {
+                if (size() > SchemaCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the schema documents for the given fingerprint, generating them
+     * with the given generator if they are not cached. The returned byte arrays
+     * must not be modified.
+     *
+     * @return the schema documents, by namespace URI.
+     */
+    public Map<String, byte[]> get(final Fingerprint fingerprint,
+            final Callable<Map<String, byte[]>> generator) throws IOException {
+        String key = fingerprint.getDigest();
+        CachedDocuments entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.fingerprint.sameTypes(fingerprint)) {
+            hits.incrementAndGet();
+            return entry.documents;
+        }
+
+        Callable<CachedDocuments> load = new Callable<CachedDocuments>() {
+            public CachedDocuments call() throws Exception {
+                Map<String, byte[]> documents = store == null ? null : store.load(fingerprint);
+                if (documents == null) {
+                    documents = generator.call();
+                    if (store != null) {
+                        store.save(fingerprint, documents);
+                    }
+                }
+                return new CachedDocuments(fingerprint, documents);
+            }
+        };
+        FutureTask<CachedDocuments> task = new FutureTask<CachedDocuments>(load);
+        FutureTask<CachedDocuments> inFlight = pending.putIfAbsent(key, task);
+        if (inFlight == null) {
+            misses.incrementAndGet();
+            try {
+                task.run();
+                entry = getResult(task);
+                synchronized (entries) {
+                    entries.put(key, entry);
+                }
+            } finally {
+                pending.remove(key, task);
+            }
+            return entry.documents;
+        }
+
+        entry = getResult(inFlight);
+        if (entry.fingerprint.sameTypes(fingerprint)) {
+            hits.incrementAndGet();
+            return entry.documents;
+        }
+        /* same names, but different types (e.g., other class loader) */
+        misses.incrementAndGet();
+        task.run();
+        return getResult(task).documents;
+    }
+
+    private static CachedDocuments getResult(FutureTask<CachedDocuments> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException(
+                    "Interrupted while waiting for schema generation").initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException(String.valueOf(cause)).initCause(cause);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public SchemaStore getStore() {
+        return store;
+    }
+
+    /** @return number of requests answered from the cache (or by a concurrent generation) */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return number of requests which were not answered from memory (i.e., which
+     * required a schema generation or a lookup in the {@link SchemaStore}) */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return number of entries removed because the cache was full */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+}
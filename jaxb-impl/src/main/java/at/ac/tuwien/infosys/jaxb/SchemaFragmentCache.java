@@ -0,0 +1,331 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.xml.txw2.TypedXmlWriter;
+import com.sun.xml.txw2.output.XmlSerializer;
+
+/**
+ * Bounded LRU cache of the schema fragments (the top-level complex and simple
+ * type definitions) which the schema generator writes for classes and enums.
+ * The fragments are keyed by a content fingerprint of the type, i.e., the
+ * bytecode of the class (and its super classes and package-info), the XML names
+ * of the types it refers to, and the namespace context of the schema document.
+ * When the schema of a changed set of classes is generated (e.g., after a
+ * redeployment), only the types which have changed are written again; the
+ * fragments of the other types are replayed from the cache.
+ *
+ * <p>
+ * The cache is used by the schema generator if it is set as
+ * {@link XmlSchemaEnhancer#FRAGMENT_CACHE}. Fragments are recorded via
+ * {@link Recorder} as the events of a separate TXW document and replayed into
+ * the actual schema document via {@link Fragment#replay(TypedXmlWriter)}.
+ * Note that annotations which are not visible in the bytecode of the classes
+ * (e.g., provided by a custom annotation reader) are not covered by the
+ * fingerprint; neither are changes of global state such as constraint mappers
+ * registered at runtime, which require {@link #clear()}.
+ */
+public final class SchemaFragmentCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** combined bytecode digests of classes, their super classes and packages */
+    private static final Map<Class<?>, String> CLASS_DIGESTS =
+            Collections.synchronizedMap(new WeakHashMap<Class<?>, String>());
+    /** digests of package-info classes by class loader and package ("" if there is none) */
+    private static final Map<ClassLoader, Map<String, String>> PACKAGE_DIGESTS =
+            new WeakHashMap<ClassLoader, Map<String, String>>();
+
+    private final int maxEntries;
+    private final Map<String, Fragment> fragments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A recorded schema fragment, i.e., a sequence of XML events.
+     */
+    public static final class Fragment {
+        private static final byte START = 0;
+        private static final byte ATTRIBUTE = 1;
+        private static final byte XMLNS = 2;
+        private static final byte END = 3;
+        private static final byte TEXT = 4;
+        private static final byte CDATA = 5;
+        private static final byte COMMENT = 6;
+
+        private final byte[] ops;
+        /** two arguments per START and XMLNS, three per ATTRIBUTE, one per TEXT/CDATA/COMMENT */
+        private final String[] args;
+
+        private Fragment(byte[] ops, String[] args) {
+            this.ops = ops;
+            this.args = args;
+        }
+
+        /**
+         * Writes the events of this fragment as children of the given writer.
+         */
+        public void replay(TypedXmlWriter parent) {
+            List<TypedXmlWriter> stack = new ArrayList<TypedXmlWriter>();
+            TypedXmlWriter current = parent;
+            int a = 0;
+            for (byte op : ops) {
+                switch (op) {
+                case START:
+                    stack.add(current);
+                    current = current._element(args[a], args[a + 1], TypedXmlWriter.class);
+                    a += 2;
+                    break;
+                case ATTRIBUTE:
+                    current._attribute(args[a], args[a + 1], args[a + 2]);
+                    a += 3;
+                    break;
+                case XMLNS:
+                    current._namespace(args[a], args[a + 1]);
+                    a += 2;
+                    break;
+                case END:
+                    current.commit(false);
+                    current = stack.remove(stack.size() - 1);
+                    break;
+                case TEXT:
+                    current._pcdata(args[a++]);
+                    break;
+                case CDATA:
+                    current._cdata(args[a++]);
+                    break;
+                case COMMENT:
+                    current._comment(args[a++]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown fragment event " + op);
+                }
+            }
+        }
+
+        /** @return the number of recorded events */
+        public int size() {
+            return ops.length;
+        }
+    }
+
+    /**
+     * {@link XmlSerializer} which records the events below the root element
+     * of a TXW document as a {@link Fragment}.
+     */
+    public static final class Recorder implements XmlSerializer {
+        private final List<Byte> ops = new ArrayList<Byte>();
+        private final List<String> args = new ArrayList<String>();
+        /** number of open elements, including the one whose start tag is being written */
+        private int depth;
+
+        public void startDocument() { }
+
+        public void beginStartTag(String uri, String localName, String prefix) {
+            depth++;
+            if (depth > 1) {
+                ops.add(Fragment.START);
+                args.add(uri);
+                args.add(localName);
+            }
+        }
+
+        public void writeAttribute(String uri, String localName, String prefix, StringBuilder value) {
+            if (depth > 1) {
+                ops.add(Fragment.ATTRIBUTE);
+                args.add(uri);
+                args.add(localName);
+                args.add(value.toString());
+            }
+        }
+
+        public void writeXmlns(String prefix, String uri) {
+            if (depth > 1) {
+                ops.add(Fragment.XMLNS);
+                args.add(uri);
+                args.add(prefix);
+            }
+        }
+
+        public void endStartTag(String uri, String localName, String prefix) { }
+
+        public void endTag() {
+            if (depth > 1) {
+                ops.add(Fragment.END);
+            }
+            depth--;
+        }
+
+        public void text(StringBuilder text) {
+            add(Fragment.TEXT, text);
+        }
+
+        public void cdata(StringBuilder text) {
+            add(Fragment.CDATA, text);
+        }
+
+        public void comment(StringBuilder comment) {
+            add(Fragment.COMMENT, comment);
+        }
+
+        private void add(byte op, StringBuilder text) {
+            if (depth > 0) {
+                ops.add(op);
+                args.add(text.toString());
+            }
+        }
+
+        public void endDocument() { }
+
+        public void flush() { }
+
+        /** @return the recorded fragment */
+        public Fragment getFragment() {
+            byte[] o = new byte[ops.size()];
+            for (int i = 0; i < o.length; i++) {
+                o[i] = ops.get(i);
+            }
+            return new Fragment(o, args.toArray(new String[args.size()]));
+        }
+    }
+
+    public SchemaFragmentCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached fragments.
+     */
+    public SchemaFragmentCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+                if (size() > SchemaFragmentCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the fragment with the given key, or null.
+     */
+    public Fragment get(String key) {
+        Fragment fragment;
+        synchronized (fragments) {
+            fragment = fragments.get(key);
+        }
+        if (fragment == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return fragment;
+    }
+
+    public void put(String key, Fragment fragment) {
+        synchronized (fragments) {
+            fragments.put(key, fragment);
+        }
+    }
+
+    public void clear() {
+        synchronized (fragments) {
+            fragments.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (fragments) {
+            return fragments.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the digest of the bytecode of the given class, its super classes
+     * and their package-info classes; or null if the given type is not a class
+     * loaded from a class file.
+     */
+    public static String getClassDigest(Object type) {
+        if (!(type instanceof Class<?>)) {
+            return null;
+        }
+        Class<?> clazz = (Class<?>) type;
+        String digest = CLASS_DIGESTS.get(clazz);
+        if (digest != null) {
+            return digest;
+        }
+        try {
+            MessageDigest d = SchemaStore.newDigest();
+            for (Class<?> c = clazz; c != null && c.getClassLoader() != null; c = c.getSuperclass()) {
+                String classDigest = SchemaStore.getBytecodeDigest(c);
+                if (classDigest == null) {
+                    return null;
+                }
+                SchemaStore.update(d, classDigest);
+                SchemaStore.update(d, getPackageDigest(c));
+            }
+            digest = SchemaStore.toHex(d.digest());
+        } catch (IOException e) {
+            return null;
+        }
+        CLASS_DIGESTS.put(clazz, digest);
+        return digest;
+    }
+
+    private static String getPackageDigest(Class<?> c) throws IOException {
+        String name = c.getName();
+        int dot = name.lastIndexOf('.');
+        String pkg = dot < 0 ? "" : name.substring(0, dot + 1).replace('.', '/');
+        Map<String, String> digests;
+        synchronized (PACKAGE_DIGESTS) {
+            digests = PACKAGE_DIGESTS.get(c.getClassLoader());
+            if (digests == null) {
+                digests = new HashMap<String, String>();
+                PACKAGE_DIGESTS.put(c.getClassLoader(), digests);
+            }
+            String digest = digests.get(pkg);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        /* resource lookups which fail are expensive, as they ask all parent loaders */
+        String digest = SchemaStore.getResourceDigest(c.getClassLoader(), pkg + "package-info.class");
+        digest = digest == null ? "" : digest;
+        synchronized (PACKAGE_DIGESTS) {
+            digests.put(pkg, digest);
+        }
+        return digest;
+    }
+
+}
@@ -0,0 +1,89 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.IOException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.SchemaOutputResolver;
+
+/**
+ * Output profiles of the generated schema documents. The default profile is
+ * {@link XmlSchemaEnhancer#OUTPUT_PROFILE}; a different profile can be used for
+ * a single schema generation via {@link #generateSchema(JAXBContext, SchemaOutputResolver)}.
+ *
+ * <p>
+ * The compact profiles omit all formatting whitespace (indentation and the
+ * blank lines between the top-level components), i.e., the documents contain
+ * the same components, annotations and text content as with {@link #PRETTY}.
+ * {@link #COMPACT_GZIP} additionally compresses the documents which are written
+ * to an output stream (results with a writer are written uncompressed).
+ * {@link #FAST_INFOSET} writes binary Fast Infoset documents to output streams
+ * (and compact documents to writers), which can be read via {@link FastInfosetSchemas}.
+ */
+public enum SchemaOutputProfile {
+
+    /** indented output, as generated by the JAXB RI (the default) */
+    PRETTY(true, false, false),
+    /** output without formatting whitespace */
+    COMPACT(false, false, false),
+    /** output without formatting whitespace, gzip compressed */
+    COMPACT_GZIP(false, true, false),
+    /** Fast Infoset output (requires the FastInfoset library) */
+    FAST_INFOSET(false, false, true);
+
+    /** profile of the schema generation of the current thread, if selected per call */
+    private static final ThreadLocal<SchemaOutputProfile> SELECTED = new ThreadLocal<SchemaOutputProfile>();
+
+    private final boolean indented;
+    private final boolean gzip;
+    private final boolean fastInfoset;
+
+    private SchemaOutputProfile(boolean indented, boolean gzip, boolean fastInfoset) {
+        this.indented = indented;
+        this.gzip = gzip;
+        this.fastInfoset = fastInfoset;
+    }
+
+    /** @return whether the documents are indented */
+    public boolean isIndented() {
+        return indented;
+    }
+
+    /** @return whether documents written to output streams are gzip compressed */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /** @return whether documents written to output streams are Fast Infoset documents */
+    public boolean isFastInfoset() {
+        return fastInfoset;
+    }
+
+    /**
+     * Generates the schema documents of the given context with this profile.
+     */
+    public void generateSchema(JAXBContext context, SchemaOutputResolver resolver) throws IOException {
+        SchemaOutputProfile before = SELECTED.get();
+        SELECTED.set(this);
+        try {
+            context.generateSchema(resolver);
+        } finally {
+            if (before == null) {
+                SELECTED.remove();
+            } else {
+                SELECTED.set(before);
+            }
+        }
+    }
+
+    /**
+     * @return the profile of the schema generation of the current thread.
+     */
+    public static SchemaOutputProfile current() {
+        SchemaOutputProfile profile = SELECTED.get();
+        if (profile == null) {
+            profile = XmlSchemaEnhancer.OUTPUT_PROFILE.get();
+        }
+        return profile == null ? PRETTY : profile;
+    }
+
+}
@@ -0,0 +1,189 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+import com.sun.xml.txw2.TxwException;
+import com.sun.xml.txw2.output.ResultFactory;
+import com.sun.xml.txw2.output.StaxSerializer;
+import com.sun.xml.txw2.output.XmlSerializer;
+
+/**
+ * Creates the {@link XmlSerializer}s which the schema generator uses as output
+ * backend of its TXW writers.
+ *
+ * <p>
+ * By default, the serializer is chosen by TXW's {@link ResultFactory}, which
+ * writes stream results through an identity transformer. If
+ * {@link XmlSchemaEnhancer#STAX_OUTPUT_ENABLED} is set, stream results are instead written
+ * directly to an {@link XMLStreamWriter} over a buffered stream. The schema
+ * components (and all hooks of {@link XmlSchemaEnhancer}) are written in the same
+ * way in both cases; only the serialization of the resulting events differs.
+ * The same holds for the Fast Infoset output of {@link SchemaOutputProfile#FAST_INFOSET}.
+ */
+public final class SchemaSerializers {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String ENCODING = "UTF-8";
+
+    /** shared output factories by context class loader (see {@link #getOutputFactory()}) */
+    private static final Map<ClassLoader, XMLOutputFactory> OUTPUT_FACTORIES =
+            new WeakHashMap<ClassLoader, XMLOutputFactory>();
+
+    private SchemaSerializers() { }
+
+    /**
+     * The StAX output factory of a schema generator, resolved on first use.
+     */
+    public static final class OutputFactory {
+        private XMLOutputFactory factory;
+
+        public synchronized XMLOutputFactory get() {
+            if (factory == null) {
+                factory = getOutputFactory();
+            }
+            return factory;
+        }
+    }
+
+    /**
+     * @return the output factory of the context class loader of the current thread.
+     * The factory is cached per class loader if its implementation class is visible
+     * to the class loader of jaxb-facets, hence the cached factories do not reference
+     * the class loaders by which they are keyed. Other factories (e.g., provided by
+     * a web application) are resolved once per schema generator.
+     */
+    static XMLOutputFactory getOutputFactory() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        synchronized (OUTPUT_FACTORIES) {
+            XMLOutputFactory factory = OUTPUT_FACTORIES.get(cl);
+            if (factory == null) {
+                /* XMLOutputFactory is not guaranteed to be thread-safe for configuration,
+                 * but creating writers from a configured factory is */
+                factory = XMLOutputFactory.newInstance();
+                if (isVisible(factory.getClass().getClassLoader())) {
+                    OUTPUT_FACTORIES.put(cl, factory);
+                }
+            }
+            return factory;
+        }
+    }
+
+    /**
+     * @return whether the classes of the given loader are visible to the class loader
+     * of jaxb-facets, i.e., the loader is the same or one of its ancestors.
+     */
+    static boolean isVisible(ClassLoader loader) {
+        if (loader == null) {
+            return true;
+        }
+        for (ClassLoader l = SchemaSerializers.class.getClassLoader(); l != null; l = l.getParent()) {
+            if (l == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the serializer to be used for writing a schema document to the
+     * given result.
+     */
+    public static XmlSerializer createSerializer(Result result) {
+        return createSerializer(result, true);
+    }
+
+    /**
+     * @return the serializer to be used for writing a schema document with the
+     * given output profile to the given result.
+     */
+    public static XmlSerializer createSerializer(Result result, SchemaOutputProfile profile) {
+        return createSerializer(result, profile, new OutputFactory());
+    }
+
+    /**
+     * @param factory the StAX output factory of the schema generator.
+     * @return the serializer to be used for writing a schema document with the
+     * given output profile to the given result.
+     */
+    public static XmlSerializer createSerializer(Result result, SchemaOutputProfile profile,
+            OutputFactory factory) {
+        if (profile.isFastInfoset() && result instanceof StreamResult
+                && ((StreamResult) result).getOutputStream() != null) {
+            return FastInfosetSchemas.createSerializer(((StreamResult) result).getOutputStream());
+        }
+        return createSerializer(result, profile.isIndented(), factory);
+    }
+
+    /**
+     * @param indented whether the document is to be indented; TXW's default
+     * serializer always indents stream results, hence non-indented stream
+     * results are written via StAX.
+     * @return the serializer to be used for writing a schema document to the
+     * given result.
+     */
+    public static XmlSerializer createSerializer(Result result, boolean indented) {
+        return createSerializer(result, indented, new OutputFactory());
+    }
+
+    private static XmlSerializer createSerializer(Result result, boolean indented, OutputFactory factory) {
+        if ((XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.get() || !indented) && result instanceof StreamResult) {
+            XmlSerializer serializer = createStaxSerializer((StreamResult) result, indented, factory);
+            if (serializer != null) {
+                return serializer;
+            }
+        }
+        return ResultFactory.createSerializer(result);
+    }
+
+    /**
+     * @return a StAX based serializer for the given result, or null if the
+     * result has neither an output stream nor a writer.
+     */
+    public static XmlSerializer createStaxSerializer(StreamResult result) {
+        return createStaxSerializer(result, true);
+    }
+
+    /**
+     * @return a StAX based serializer for the given result (indented or not),
+     * or null if the result has neither an output stream nor a writer.
+     */
+    public static XmlSerializer createStaxSerializer(StreamResult result, boolean indented) {
+        return createStaxSerializer(result, indented, new OutputFactory());
+    }
+
+    private static XmlSerializer createStaxSerializer(StreamResult result, boolean indented,
+            OutputFactory factory) {
+        OutputStream out = result.getOutputStream();
+        Writer writer = result.getWriter();
+        try {
+            XMLStreamWriter xsw;
+            if (out != null) {
+                xsw = factory.get().createXMLStreamWriter(
+                        new BufferedOutputStream(out, BUFFER_SIZE), ENCODING);
+            } else if (writer != null) {
+                xsw = factory.get().createXMLStreamWriter(
+                        new BufferedWriter(writer, BUFFER_SIZE));
+            } else {
+                return null;
+            }
+            /* indented like the output of the default serializer, unless a compact
+             * output is requested. StaxSerializer flushes the stream writer (and 
+             * hence the buffer) at endDocument(). */
+            return new StaxSerializer(xsw, indented);
+        } catch (XMLStreamException e) {
+            throw new TxwException(e);
+        }
+    }
+
+}
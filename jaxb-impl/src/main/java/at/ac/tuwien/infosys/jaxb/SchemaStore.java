@@ -0,0 +1,376 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.xml.bind.v2.schemagen.XmlSchemaGenerator;
+
+/**
+ * Persistent store of generated schema documents in a directory, which
+ * keeps the documents across JVM restarts. It is used as second level of a
+ * {@link SchemaCache} (see {@link SchemaCache#SchemaCache(int, SchemaStore)}).
+ *
+ * <p>
+ * Each generation result is stored in a file named by the digest of the
+ * {@link SchemaCache.Fingerprint}. The file additionally records a content
+ * digest over the bytecode of all bound classes and XML adapters (including
+ * their super classes and package-info classes), the constraint mappers of
+ * the context class loader, the jaxb-facets version (and the bytecode of its
+ * schema generator) and the Java version. An entry
+ * whose content digest does not match the current classes is deleted and
+ * regenerated. Results which involve types that are not loaded from class
+ * files (e.g., generated classes) are not stored.
+ *
+ * <p>
+ * Files are read completely (rather than memory mapped, which would lock them
+ * on some platforms), and written atomically (via a temporary file which is
+ * then renamed), i.e., a store directory may be shared by
+ * several JVMs. Errors when reading or writing the store are logged, and
+ * lead to (re-)generation of the schema documents.
+ */
+public final class SchemaStore {
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaStore.class.getName());
+
+    private static final int MAGIC = 0x4A585344;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".xsds";
+
+    /** Maven metadata of this artifact, which provides the jaxb-facets version */
+    private static final String POM_PROPERTIES = "/META-INF/maven/com.sun.xml.bind/jaxb-impl/pom.properties";
+
+    /** digests of the bytecode of classes */
+    private static final Map<Class<?>, String> BYTECODE_DIGESTS =
+            Collections.synchronizedMap(new WeakHashMap<Class<?>, String>());
+
+    private static String implementationDigest;
+
+    private final File directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param directory the directory of the store, which is created if required.
+     */
+    public SchemaStore(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Store directory must not be null.");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return the stored schema documents (by namespace URI) for the given
+     * fingerprint, or null if there are none or if they are outdated.
+     */
+    public Map<String, byte[]> load(SchemaCache.Fingerprint fingerprint) {
+        File file = getFile(fingerprint);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String contentDigest = getContentDigest(fingerprint);
+            if (contentDigest == null) {
+                return null;
+            }
+            Map<String, byte[]> documents = read(file, contentDigest);
+            if (documents == null) {
+                invalidations.incrementAndGet();
+                LOGGER.fine("Deleting outdated schema store entry " + file);
+                file.delete();
+                return null;
+            }
+            hits.incrementAndGet();
+            return documents;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read schema store entry " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given schema documents (by namespace URI) for the given fingerprint.
+     */
+    public void save(SchemaCache.Fingerprint fingerprint, Map<String, byte[]> documents) {
+        File file = getFile(fingerprint);
+        File tmp = null;
+        try {
+            String contentDigest = getContentDigest(fingerprint);
+            if (contentDigest == null) {
+                LOGGER.fine("Not storing schema documents which involve types without class files.");
+                return;
+            }
+            directory.mkdirs();
+            tmp = File.createTempFile(file.getName(), ".tmp", directory);
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                o.writeInt(MAGIC);
+                o.writeShort(VERSION);
+                writeBytes(o, contentDigest.getBytes("UTF-8"));
+                o.writeInt(documents.size());
+                for (Map.Entry<String, byte[]> e : documents.entrySet()) {
+                    writeBytes(o, e.getKey().getBytes("UTF-8"));
+                    writeBytes(o, e.getValue());
+                }
+            } finally {
+                o.close();
+            }
+            if (!tmp.renameTo(file)) {
+                /* some platforms do not replace existing files */
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            }
+            tmp = null;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write schema store entry " + file, e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes all entries of this store.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(SUFFIX)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** @return number of lookups answered from this store */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** @return number of entries deleted because the bound classes have changed */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private File getFile(SchemaCache.Fingerprint fingerprint) {
+        return new File(directory, fingerprint.getDigest() + SUFFIX);
+    }
+
+    private static void writeBytes(DataOutputStream o, byte[] bytes) throws IOException {
+        o.writeInt(bytes.length);
+        o.write(bytes);
+    }
+
+    /**
+     * @return the documents of the given file, or null if the content
+     * digest of the file does not match the given one.
+     */
+    private static Map<String, byte[]> read(File file, String contentDigest) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                return null;
+            }
+            if (!contentDigest.equals(new String(readBytes(buffer), "UTF-8"))) {
+                return null;
+            }
+            int count = buffer.getInt();
+            Map<String, byte[]> documents = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < count; i++) {
+                String namespace = new String(readBytes(buffer), "UTF-8");
+                documents.put(namespace, readBytes(buffer));
+            }
+            return documents;
+        } catch (RuntimeException e) {
+            /* BufferUnderflowException etc. for truncated files */
+            throw (IOException) new IOException("Invalid schema store entry " + file).initCause(e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /* DIGESTS */
+
+    /**
+     * @return the digest over the fingerprint, the bytecode of all classes of the
+     * fingerprint (see {@link SchemaFragmentCache#getClassDigest(Object)}), the
+     * constraint mappers, the jaxb-facets implementation and the Java version; or
+     * null if the fingerprint contains types which are not loaded from class files.
+     */
+    static String getContentDigest(SchemaCache.Fingerprint fingerprint) throws IOException {
+        return getContentDigest(fingerprint, true);
+    }
+
+    /**
+     * @param javaVersion whether the digest covers the Java version; documents
+     * which are generated at build time are not bound to the Java version of the build.
+     */
+    static String getContentDigest(SchemaCache.Fingerprint fingerprint, boolean javaVersion) throws IOException {
+        MessageDigest d = newDigest();
+        update(d, fingerprint.getDigest());
+        update(d, getImplementationDigest());
+        if (javaVersion) {
+            update(d, System.getProperty("java.version"));
+        }
+        update(d, getMapperDigest(ConstraintMapperRegistry.getDefault()));
+        for (Object type : fingerprint.getTypes()) {
+            if (!(type instanceof Class<?>)) {
+                return null;
+            }
+            Class<?> c = (Class<?>) type;
+            while (c.isArray()) {
+                c = c.getComponentType();
+            }
+            if (c.getClassLoader() == null) {
+                /* JDK classes */
+                continue;
+            }
+            String digest = SchemaFragmentCache.getClassDigest(c);
+            if (digest == null) {
+                return null;
+            }
+            update(d, digest);
+        }
+        return toHex(d.digest());
+    }
+
+    /**
+     * @return the digest of the names and the bytecode of the constraint mappers
+     * of the given registry, which derive the facets of constrained properties.
+     */
+    static String getMapperDigest(ConstraintMapperRegistry registry) throws IOException {
+        MessageDigest d = newDigest();
+        for (ConstraintFacetMapper mapper : registry.getMappers()) {
+            Class<?> c = mapper.getClass();
+            update(d, c.getName());
+            update(d, String.valueOf(c.getClassLoader() == null ? null : getBytecodeDigest(c)));
+        }
+        return toHex(d.digest());
+    }
+
+    /**
+     * @return the digest of the jaxb-facets version and the bytecode of the
+     * schema generator classes (which covers development builds).
+     */
+    static synchronized String getImplementationDigest() throws IOException {
+        if (implementationDigest == null) {
+            MessageDigest d = newDigest();
+            Properties pom = new Properties();
+            InputStream in = SchemaStore.class.getResourceAsStream(POM_PROPERTIES);
+            if (in != null) {
+                try {
+                    pom.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+            update(d, String.valueOf(pom.getProperty("version")));
+            for (Class<?> c : new Class<?>[] { XmlSchemaGenerator.class, XmlSchemaEnhancer.class,
+                    ValidationFacetsFilter.class, SchemaStore.class }) {
+                update(d, String.valueOf(getBytecodeDigest(c)));
+            }
+            implementationDigest = toHex(d.digest());
+        }
+        return implementationDigest;
+    }
+
+    /**
+     * @return the digest of the class file of the given class, or null if
+     * there is no class file.
+     */
+    static String getBytecodeDigest(Class<?> c) throws IOException {
+        String digest = BYTECODE_DIGESTS.get(c);
+        if (digest != null) {
+            return digest;
+        }
+        digest = getResourceDigest(c.getClassLoader(), c.getName().replace('.', '/') + ".class");
+        if (digest != null) {
+            BYTECODE_DIGESTS.put(c, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * @return the digest of the given resource of the given class loader
+     * (null for the system class loader), or null if there is no such resource.
+     */
+    static String getResourceDigest(ClassLoader loader, String resource) throws IOException {
+        InputStream in = loader == null ?
+                ClassLoader.getSystemResourceAsStream(resource) :
+                loader.getResourceAsStream(resource);
+        if (in == null) {
+            return null;
+        }
+        MessageDigest d = newDigest();
+        try {
+            byte[] buffer = new byte[8192];
+            for (int len; (len = in.read(buffer)) > 0;) {
+                d.update(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(d.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void update(MessageDigest d, String s) throws UnsupportedEncodingException {
+        d.update(s.getBytes("UTF-8"));
+        d.update((byte) '\n');
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder();
+        for (byte x : bytes) {
+            b.append(Character.forDigit((x >> 4) & 0xF, 16));
+            b.append(Character.forDigit(x & 0xF, 16));
+        }
+        return b.toString();
+    }
+
+}
@@ -1,13 +1,22 @@
 package at.ac.tuwien.infosys.jaxb;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+
 import com.sun.tools.javac.code.Attribute;
 import com.sun.tools.javac.code.Attribute.Compound;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
@@ -19,6 +28,11 @@ import com.sun.tools.javac.util.Pair;
  * require a way to extract the information from the com.sun.sun.tools.javac.**
  * model classes, which is provided by this class.
  * 
+ * The annotations are read via the public javax.lang.model API (implemented
+ * by the javac symbols), and converted into annotation instances on demand.
+ * Reading the javac internals via reflection is only a fallback for types 
+ * which do not implement javax.lang.model.
+ * 
  * @author Waldemar Hummer
  */
 public class SchemagenUtil {
@@ -26,6 +40,46 @@ public class SchemagenUtil {
 	public static final Logger logger = Logger
 			.getLogger(SchemagenUtil.class.getName());
 
+	/**
+	 * Extracted annotations per type symbol (keys are weak, i.e., entries 
+	 * are dropped along with the compiler model of a schemagen run).
+	 */
+	private static final Map<Object, SymbolAnnotations> ANNOTATIONS = 
+			Collections.synchronizedMap(new WeakHashMap<Object, SymbolAnnotations>());
+
+	/** fields and methods of the javac internals, by class and name */
+	private static final Map<String, Member> MEMBERS = 
+			Collections.synchronizedMap(new HashMap<String, Member>());
+
+	/** marker for annotations which are not present */
+	private static final Object NONE = new Object();
+
+	/**
+	 * The annotations of a type symbol. Annotation mirrors are
+	 * converted into annotation instances on first access.
+	 */
+	private static class SymbolAnnotations {
+		/** annotation mirrors by type name, or null if read via reflection */
+		final Map<String, AnnotationMirror> mirrors;
+		final Map<Class<?>, Object> annotations = 
+				Collections.synchronizedMap(new HashMap<Class<?>, Object>());
+
+		SymbolAnnotations(Map<String, AnnotationMirror> mirrors) {
+			this.mirrors = mirrors;
+		}
+
+		Annotation get(Class<? extends Annotation> annoClass) {
+			Object result = annotations.get(annoClass);
+			if(result == null) {
+				AnnotationMirror m = mirrors == null ? null : 
+					mirrors.get(annoClass.getCanonicalName());
+				result = m == null ? NONE : AnnotationMirrors.toAnnotation(m, annoClass);
+				annotations.put(annoClass, result);
+			}
+			return result == NONE ? null : (Annotation)result;
+		}
+	}
+
 	/**
 	 * Extract the list of annotations from a given parameterized type.
 	 *
@@ -36,26 +90,98 @@ public class SchemagenUtil {
 	 * @return
 	 * @throws Exception
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@SuppressWarnings("unchecked")
 	public static <T> List<? extends Annotation> extractAnnotations(T type) throws Exception {
+		SymbolAnnotations annos = getAnnotations(type);
+		if(annos.mirrors == null) {
+			List<Annotation> result = new ArrayList<Annotation>();
+			for(Object a : annos.annotations.values()) {
+				result.add((Annotation)a);
+			}
+			return result;
+		}
 		List<Annotation> result = new LinkedList<Annotation>();
-		List<?> annos = null;
-		Object tsym = type;
-		if(type.getClass().getName().endsWith("ClassType")) {
-			tsym = type.getClass().getField("tsym").get(type);
+		for(String annoType : annos.mirrors.keySet()) {
+			result.add(annos.get((Class<? extends Annotation>)Class.forName(annoType)));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the annotations of a given parameterized type. The annotation 
+	 * mirrors are read once per type symbol and cached.
+	 *
+	 * @param type  see {@link #extractAnnotations(Object)}
+	 * @throws Exception
+	 */
+	private static <T> SymbolAnnotations getAnnotations(T type) throws Exception {
+		Element element = AnnotationMirrors.asElement(type);
+		Object tsym = element;
+		if(tsym == null) {
+			tsym = type.getClass().getName().endsWith("ClassType") ? 
+					getField(type, "tsym").get(type) : type;
+		}
+		SymbolAnnotations result = ANNOTATIONS.get(tsym);
+		if(result == null) {
+			if(element != null) {
+				result = new SymbolAnnotations(AnnotationMirrors.getMirrors(element));
+			} else {
+				result = new SymbolAnnotations(null);
+				for(Annotation a : doExtractAnnotations(tsym)) {
+					result.annotations.put(a.annotationType(), a);
+				}
+			}
+			ANNOTATIONS.put(tsym, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Clear the cache of extracted annotations.
+	 */
+	public static void clearCache() {
+		ANNOTATIONS.clear();
+	}
+
+	private static Field getField(Object o, String name) throws Exception {
+		String key = o.getClass().getName() + "#" + name;
+		Field f = (Field)MEMBERS.get(key);
+		if(f == null) {
+			f = o.getClass().getField(name);
+			MEMBERS.put(key, f);
 		}
-		annos = (List<?>) tsym.getClass().getMethod("getAnnotationMirrors").invoke(tsym);
+		return f;
+	}
+
+	private static Method getMethod(Object o, String name) throws Exception {
+		String key = o.getClass().getName() + "#" + name + "()";
+		Method m = (Method)MEMBERS.get(key);
+		if(m == null) {
+			m = o.getClass().getMethod(name);
+			MEMBERS.put(key, m);
+		}
+		return m;
+	}
+
+	/**
+	 * Read the annotations of a type symbol from the javac internals.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static List<Annotation> doExtractAnnotations(Object tsym) throws Exception {
+		List<Annotation> result = new LinkedList<Annotation>();
+		List<?> annos = null;
+		annos = (List<?>) getMethod(tsym, "getAnnotationMirrors").invoke(tsym);
 
 		for (Object anno : annos) {
-			String annoType = anno.getClass().getField("type").get(anno).toString();
+			String annoType = getField(anno, "type").get(anno).toString();
 			Class<? extends Annotation> annoClass = (Class<? extends Annotation>)Class.forName(annoType);
-			List<?> values = (List<?>)anno.getClass().getField("values").get(anno);
+			List<?> values = (List<?>)getField(anno, "values").get(anno);
 			Map<String,Object> annoValues = new HashMap<String,Object>();
 			for (Object value : values) {
-				Object fst = value.getClass().getField("fst").get(value);
-				Object snd = value.getClass().getField("snd").get(value);
-				String attrName = fst.getClass().getField("name").get(fst).toString();
-				Object attrValue = snd.getClass().getMethod("getValue").invoke(snd);
+				Object fst = getField(value, "fst").get(value);
+				Object snd = getField(value, "snd").get(value);
+				String attrName = getField(fst, "name").get(fst).toString();
+				Object attrValue = getMethod(snd, "getValue").invoke(snd);
 				if(attrValue instanceof List<?>) {
 					List<?> list = (List<?>)attrValue;
 					List newList = new LinkedList();
@@ -74,7 +200,7 @@ public class SchemagenUtil {
 				}
 				annoValues.put(attrName, attrValue);
 			}
-			Annotation annoInst = AnnotationUtils.createAnnotationProxy(annoClass, annoValues);
+			Annotation annoInst = AnnotationUtils.createAnnotation(annoClass, annoValues);
 			result.add(annoInst);
 		}
 		return result;
@@ -87,7 +213,7 @@ public class SchemagenUtil {
 		for(Pair<MethodSymbol, Attribute> pair: o.values) {
 			annoValues.put(pair.fst.getQualifiedName().toString(), pair.snd.getValue());
 		}
-		Object result = AnnotationUtils.createAnnotationProxy(annoClass, annoValues);
+		Object result = AnnotationUtils.createAnnotation(annoClass, annoValues);
 		return result;
 	}
 
@@ -109,11 +235,7 @@ public class SchemagenUtil {
 	@SuppressWarnings("all")
 	public static <T, A extends Annotation> A extractAnnotation(T type, Class<A> annoType) {
 		try {
-			for(Annotation a : extractAnnotations(type)) {
-				if(annoType.isAssignableFrom(a.getClass())) {
-					return (A)a;
-				}
-			}
+			return (A)getAnnotations(type).get(annoType);
 		} catch (Exception e) {
 			logger.log(Level.WARNING, "Unable to extract annotation '" + 
 					annoType + "' from type '" + type.getClass() + "'", e);
@@ -0,0 +1,223 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.xml.namespace.QName;
+
+import com.sun.xml.bind.v2.model.core.AttributePropertyInfo;
+import com.sun.xml.bind.v2.model.core.TypeRef;
+import com.sun.xml.bind.v2.schemagen.xmlschema.SimpleRestriction;
+import com.sun.xml.bind.v2.schemagen.xmlschema.SimpleType;
+
+/**
+ * The facet restrictions of the elements and attributes of one schema document
+ * which are identical (same base type and same facets), see
+ * {@link XmlSchemaEnhancer#SHARED_FACET_TYPES_ENABLED}. By default, each element
+ * or attribute with facets contains its own anonymous simpleType; if enabled,
+ * a restriction which is used at least twice is written once as a named top-level
+ * simpleType (named after its base type, e.g., "stringRestriction1"), which the
+ * elements and attributes refer to. This reduces the size of schemas in which
+ * the same restriction (e.g., a pattern for identifiers) is used by many properties.
+ *
+ * <p>
+ * The restrictions are registered via the add methods before the schema
+ * document is written, then named via {@link #assignNames(String, Set)}.
+ */
+public final class SharedFacetTypes {
+
+    private static final String NAME_SUFFIX = "Restriction";
+
+    /** restrictions in the order in which they were added */
+    private final Map<Key, Restriction> restrictions = new LinkedHashMap<Key, Restriction>();
+    private final List<Restriction> named = new ArrayList<Restriction>();
+
+    /**
+     * Identity of a restriction: base type and facets.
+     */
+    private static final class Key {
+        final QName base;
+        final SortedMap<String, List<String>> facets;
+
+        Key(QName base, SortedMap<String, List<String>> facets) {
+            this.base = base;
+            this.facets = facets;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return base.equals(k.base) && facets.equals(k.facets);
+        }
+
+        @Override
+        public int hashCode() {
+            return base.hashCode() * 31 + facets.hashCode();
+        }
+    }
+
+    private static final class Restriction {
+        final Key key;
+        /** Java type against which the facets are checked, if known */
+        final Class<?> baseClass;
+        int uses;
+        QName name;
+
+        Restriction(Key key, Class<?> baseClass) {
+            this.key = key;
+            this.baseClass = baseClass;
+        }
+    }
+
+    /**
+     * Registers the facet restriction of the given element, if it has facets.
+     */
+    public <T, C> void add(TypeRef<T, C> t) {
+        Key key = getKey(t);
+        if (key != null) {
+            add(key, XmlSchemaEnhancer.getFacetBaseClass(t));
+        }
+    }
+
+    /**
+     * Registers the facet restriction of the given attribute, if it has facets.
+     */
+    public <T, C> void add(AttributePropertyInfo<T, C> info) {
+        Key key = getKey(info);
+        if (key != null) {
+            add(key, XmlSchemaEnhancer.getFacetBaseClass(info));
+        }
+    }
+
+    private void add(Key key, Class<?> baseClass) {
+        Restriction r = restrictions.get(key);
+        if (r == null) {
+            r = new Restriction(key, baseClass);
+            restrictions.put(key, r);
+        }
+        r.uses++;
+    }
+
+    /**
+     * Names the restrictions which are used more than once.
+     *
+     * @param namespaceUri the target namespace of the schema document
+     * @param reservedNames the names of the other types of the schema document
+     */
+    public void assignNames(String namespaceUri, Set<String> reservedNames) {
+        Map<String, Integer> counters = new LinkedHashMap<String, Integer>();
+        for (Restriction r : restrictions.values()) {
+            if (r.uses < 2 || r.name != null) {
+                continue;
+            }
+            String prefix = r.key.base.getLocalPart() + NAME_SUFFIX;
+            Integer counter = counters.get(prefix);
+            String name;
+            do {
+                counter = counter == null ? 1 : counter + 1;
+                name = prefix + counter;
+            } while (reservedNames.contains(name));
+            counters.put(prefix, counter);
+            r.name = new QName(namespaceUri, name);
+            named.add(r);
+        }
+    }
+
+    /**
+     * @return whether there are named restrictions.
+     */
+    public boolean isEmpty() {
+        return named.isEmpty();
+    }
+
+    /**
+     * @return the name of the shared simpleType of the given element, or null
+     * if the element has no facets or its restriction is not shared.
+     */
+    public <T, C> QName getTypeName(TypeRef<T, C> t) {
+        return getTypeName(getKey(t));
+    }
+
+    /**
+     * @return the name of the shared simpleType of the given attribute, or null
+     * if the attribute has no facets or its restriction is not shared.
+     */
+    public <T, C> QName getTypeName(AttributePropertyInfo<T, C> info) {
+        return getTypeName(getKey(info));
+    }
+
+    private QName getTypeName(Key key) {
+        Restriction r = key == null ? null : restrictions.get(key);
+        return r == null ? null : r.name;
+    }
+
+    /**
+     * @return the names of the shared simpleTypes, in the order of their first use.
+     */
+    public List<QName> getTypeNames() {
+        List<QName> names = new ArrayList<QName>(named.size());
+        for (Restriction r : named) {
+            names.add(r.name);
+        }
+        return names;
+    }
+
+    /**
+     * Writes the definition of the shared simpleType with the given name.
+     */
+    public void writeType(QName name, SimpleType type) {
+        for (Restriction r : named) {
+            if (r.name.equals(name)) {
+                type.name(name.getLocalPart());
+                SimpleRestriction restriction = type.restriction();
+                restriction.base(r.key.base);
+                XmlSchemaEnhancer.addDefinedFacets(r.key.facets, restriction, r.baseClass);
+                type.commit();
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown shared simpleType: " + name);
+    }
+
+    private static <T, C> Key getKey(TypeRef<T, C> t) {
+        /* same condition as XmlSchemaEnhancer.addFacets(TypeRef, LocalElement) */
+        if (!XmlSchemaEnhancer.hasFacets(t) || !XmlSchemaEnhancer.hasFacetTarget(t)) {
+            return null;
+        }
+        QName base = XmlSchemaEnhancer.getFacetBaseType(t);
+        return base == null ? null : new Key(base,
+                XmlSchemaEnhancer.getPropertyMetadata(t.getSource()).getDefinedFacets());
+    }
+
+    private static <T, C> Key getKey(AttributePropertyInfo<T, C> info) {
+        /* the facets of list attributes restrict the items */
+        if (info.isCollection() || !XmlSchemaEnhancer.hasFacets(info)) {
+            return null;
+        }
+        QName base = XmlSchemaEnhancer.getFacetBaseType(info);
+        return base == null ? null : new Key(base,
+                XmlSchemaEnhancer.getPropertyMetadata(info.getSource()).getDefinedFacets());
+    }
+
+    /**
+     * @return a description of the shared simpleTypes, which identifies them
+     * in the keys of cached schema fragments.
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Restriction r : named) {
+            b.append(r.name.getLocalPart()).append('=').append(r.key.base)
+                    .append(r.key.facets).append(';');
+        }
+        return b.toString();
+    }
+
+}
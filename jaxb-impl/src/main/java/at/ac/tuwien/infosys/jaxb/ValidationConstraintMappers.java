@@ -0,0 +1,120 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.validation.constraints.AssertFalse;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Digits;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+
+/**
+ * The built-in {@link ConstraintFacetMapper}s for the javax.validation
+ * constraints (see {@link ValidationFacetsFilter} for the list of supported
+ * constraints). The order of {@link #getMappers()} defines the precedence,
+ * e.g., DecimalMax takes precedence over Max.
+ */
+final class ValidationConstraintMappers {
+
+    /**
+     * Base class for mappers which handle a single constraint type.
+     */
+    static abstract class SingleTypeMapper<A extends Annotation> implements ConstraintFacetMapper {
+        private final List<Class<? extends Annotation>> types;
+
+        SingleTypeMapper(Class<A> type) {
+            this.types = Collections.<Class<? extends Annotation>>singletonList(type);
+        }
+
+        public List<Class<? extends Annotation>> getConstraintTypes() {
+            return types;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void map(Annotation constraint, DerivedFacets facets) {
+            doMap((A) constraint, facets);
+        }
+
+        abstract void doMap(A constraint, DerivedFacets facets);
+
+        @Override
+        public String toString() {
+            return "[" + getClass().getSimpleName() + " " + types + "]";
+        }
+    }
+
+    private static final List<ConstraintFacetMapper> MAPPERS = Collections.unmodifiableList(
+            Arrays.<ConstraintFacetMapper>asList(
+        new SingleTypeMapper<AssertFalse>(AssertFalse.class) {
+            void doMap(AssertFalse c, DerivedFacets facets) {
+                facets.enumeration("false", "0");
+            }
+        },
+        new SingleTypeMapper<AssertTrue>(AssertTrue.class) {
+            void doMap(AssertTrue c, DerivedFacets facets) {
+                facets.enumeration("true", "1");
+            }
+        },
+        new SingleTypeMapper<Digits>(Digits.class) {
+            void doMap(Digits c, DerivedFacets facets) {
+                facets.fractionDigits(c.fraction());
+                facets.totalDigits(c.integer() + c.fraction());
+            }
+        },
+        new SingleTypeMapper<Size>(Size.class) {
+            void doMap(Size c, DerivedFacets facets) {
+                if (c.max() == c.min()) {
+                    facets.length(c.max());
+                }
+                facets.maxLength(c.max());
+                facets.minLength(c.min());
+            }
+        },
+        new SingleTypeMapper<DecimalMax>(DecimalMax.class) {
+            void doMap(DecimalMax c, DerivedFacets facets) {
+                facets.maxInclusive(c.value());
+            }
+        },
+        new SingleTypeMapper<Max>(Max.class) {
+            void doMap(Max c, DerivedFacets facets) {
+                facets.maxInclusive(Long.toString(c.value()));
+            }
+        },
+        new SingleTypeMapper<DecimalMin>(DecimalMin.class) {
+            void doMap(DecimalMin c, DerivedFacets facets) {
+                facets.minInclusive(c.value());
+            }
+        },
+        new SingleTypeMapper<Min>(Min.class) {
+            void doMap(Min c, DerivedFacets facets) {
+                facets.minInclusive(Long.toString(c.value()));
+            }
+        },
+        new SingleTypeMapper<Pattern>(Pattern.class) {
+            void doMap(Pattern c, DerivedFacets facets) {
+                facets.pattern(c.regexp());
+            }
+        },
+        new SingleTypeMapper<NotNull>(NotNull.class) {
+            void doMap(NotNull c, DerivedFacets facets) {
+                facets.minOccurs(1L);
+            }
+        }
+    ));
+
+    private ValidationConstraintMappers() {
+    }
+
+    static List<ConstraintFacetMapper> getMappers() {
+        return MAPPERS;
+    }
+
+}
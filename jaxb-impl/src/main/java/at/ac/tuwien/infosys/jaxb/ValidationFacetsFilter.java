@@ -3,19 +3,14 @@ package at.ac.tuwien.infosys.jaxb;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
-import javax.validation.constraints.AssertFalse;
-import javax.validation.constraints.AssertTrue;
-import javax.validation.constraints.DecimalMax;
-import javax.validation.constraints.DecimalMin;
-import javax.validation.constraints.Digits;
-import javax.validation.constraints.Max;
-import javax.validation.constraints.Min;
-import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Pattern;
-import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.Facets;
 import javax.xml.bind.annotation.MinOccurs;
 
@@ -54,15 +49,60 @@ import com.sun.xml.bind.v2.model.annotation.AnnotationSource;
  * <b>minOccurs</b> property will be set to 1 if
  *   {@link javax.validation.constraints.NotNull } is present.<br>
  * 
+ * <p>
+ * Further constraints (e.g., Hibernate Validator's Length or Range, or
+ * custom constraints) can be mapped to facets by registering a
+ * {@link ConstraintFacetMapper} (see {@link ConstraintMapperRegistry}).
+ * 
  * @author Varga Bence (vbence@czentral.org)
  * @author Waldemar Hummer (whummer@hummer.io)
  * @since  JAXB-Facets 1.3.0
  */
 public class ValidationFacetsFilter {
+
+    /** marker for cached null results */
+    private static final Object NONE = new Object();
+
+    /**
+     * Filtered annotations per declaring class, member (see {@link #getMemberKey(AnnotatedElement)})
+     * and annotation class. Each entry holds the original annotation and the result.
+     * The cache is keyed by the declaring class rather than by the Field or
+     * Method objects, of which reflection may hand out new copies on each call.
+     */
+    private final Map<Class<?>, Map<String, Object[]>> cache = 
+            new WeakHashMap<Class<?>, Map<String, Object[]>>();
+
+    /** the mappers used to derive facets from validation constraints */
+    private final ConstraintMapperRegistry registry;
+
+    /**
+     * Create a filter which uses the built-in mappers, as well as the
+     * mappers registered via {@link java.util.ServiceLoader} (of the
+     * context class loader of the current thread).
+     */
+    public ValidationFacetsFilter() {
+        this(ConstraintMapperRegistry.getDefault());
+    }
+
+    /**
+     * Create a filter which uses the mappers of the given registry.
+     * @param registry the constraint mapper registry.
+     */
+    public ValidationFacetsFilter(ConstraintMapperRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the registry of the mappers used by this filter.
+     */
+    public ConstraintMapperRegistry getRegistry() {
+        return registry;
+    }
     
     /**
      * Amends an annotation with defaults taken from the AnnotatedElement given.
-     * given.
+     * The results are cached per member (field, method or indexed member) and
+     * original annotation.
      * @param cls Expected Annotation class.
      * @param original Original annotation to amend (null is a valid value).
      * @param elem Element to check for validation constraints to be used as
@@ -70,7 +110,70 @@ public class ValidationFacetsFilter {
      * @return Processed annotation object or null.
      */
     public Annotation filterAnnotation(Class<? extends Annotation> cls, Annotation original, AnnotatedElement elem) {
-        return filterAnnotation(cls, original, new AnnotatedElementWrapper(elem));
+        if (cls != Facets.class && cls != MinOccurs.class) {
+            return original;
+        }
+
+        Class<?> declaring = getDeclaringClass(elem);
+        if (declaring == null) {
+            return filterAnnotation(cls, original, new AnnotatedElementWrapper(elem));
+        }
+        String key = getMemberKey(elem) + "@" + cls.getName();
+        synchronized (cache) {
+            Map<String, Object[]> results = cache.get(declaring);
+            Object[] entry = results == null ? null : results.get(key);
+            /* annotations of indexed members are equal, but not identical */
+            if (entry != null && (entry[0] == original || 
+                    (original != null && original.equals(entry[0])))) {
+                return entry[1] == NONE ? null : (Annotation) entry[1];
+            }
+        }
+
+        Annotation result = filterAnnotation(cls, original, new AnnotatedElementWrapper(elem));
+
+        synchronized (cache) {
+            Map<String, Object[]> results = cache.get(declaring);
+            if (results == null) {
+                results = new HashMap<String, Object[]>();
+                cache.put(declaring, results);
+            }
+            results.put(key, new Object[] { original, result == null ? NONE : result });
+        }
+        return result;
+    }
+
+    /**
+     * @return the class which declares the given member, or null if the
+     * results for the element are not cached.
+     */
+    private static Class<?> getDeclaringClass(AnnotatedElement elem) {
+        if (elem instanceof Member) {
+            return ((Member) elem).getDeclaringClass();
+        }
+        if (elem instanceof FacetIndex.IndexedElement) {
+            return ((FacetIndex.IndexedElement) elem).getDeclaringClass();
+        }
+        return null;
+    }
+
+    /**
+     * @return the key of the given member within its declaring class: the name
+     * of a field, or the name and parameter types of a method or constructor.
+     */
+    private static String getMemberKey(AnnotatedElement elem) {
+        if (elem instanceof FacetIndex.IndexedElement) {
+            return "indexed:" + ((FacetIndex.IndexedElement) elem).getMemberKey();
+        }
+        if (elem instanceof Field) {
+            return ((Field) elem).getName();
+        }
+        Class<?>[] types = elem instanceof Method ? ((Method) elem).getParameterTypes() :
+                ((Constructor<?>) elem).getParameterTypes();
+        StringBuilder b = new StringBuilder(((Member) elem).getName()).append('(');
+        for (int i = 0; i < types.length; i++) {
+            b.append(i > 0 ? "," : "").append(types[i].getName());
+        }
+        return b.append(')').toString();
     }
 
     /**
@@ -84,9 +187,9 @@ public class ValidationFacetsFilter {
     public Annotation filterAnnotation(Class<? extends Annotation> cls, Annotation original, AnnotationSource info) {
         
         if (cls == Facets.class) {
-            return filterFacets((Facets)original, info);
+            return filterFacets((Facets)original, registry.derive(info));
         } else if (cls == MinOccurs.class) {
-            return filterMinOccurs((MinOccurs)original, info);
+            return filterMinOccurs((MinOccurs)original, registry.derive(info));
         } else {
             return original;
         }
@@ -95,187 +198,24 @@ public class ValidationFacetsFilter {
     /**
      * Process a Facets annotation.
      * @param original Existing Facets annotation or null.
-     * @param info Source for validation constraints.
+     * @param derived Facets derived from the validation constraints of the property.
      * @return Processed Annotation or null if no information available.
      */
-    private Facets filterFacets(Facets original, AnnotationSource info) {
-
-    	Map<String, Object> annoValues = new HashMap<String, Object>(
-    			AnnotationUtils.getAnnotationValues(Facets.class, original));
-
-        boolean override = false;
-
-        String[] enums = new String[0];
-        try {
-    		enums = original.enumeration();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (enums.length <= 0) {
-            if (info.readAnnotation(AssertFalse.class) != null) {
-                override = true;
-                annoValues.put("enumeration", new String[] { "false", "0" });
-
-            } else if (info.readAnnotation(AssertTrue.class) != null) {
-                override = true;
-                annoValues.put("enumeration", new String[] { "true", "1" });
-            }
-        }
-
-        long fractions = Facets.VOID_LONG;
-        try {
-        	fractions = original.fractionDigits();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (fractions == Facets.VOID_LONG) {
-
-            if (info.readAnnotation(Digits.class) != null) {
-                override = true;
-                annoValues.put("fractionDigits", (Long)(long)info.readAnnotation(Digits.class).fraction());
-            }
-        }
-
-        long length = Facets.VOID_LONG;
-        try {
-        	length = original.length();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (length == Facets.VOID_LONG) {
-            
-            if (info.readAnnotation(Size.class) != null) {
-                Size size = info.readAnnotation(Size.class);
-                if (size.max() == size.min()) {
-                    override = true;
-                    annoValues.put("length", (Long)(long)size.max());
-                }
-            }
-        }
-
-        long maxLength = Facets.VOID_LONG;
-        try {
-        	maxLength = original.maxLength();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (maxLength == Facets.VOID_LONG) {
-            
-            if (info.readAnnotation(Size.class) != null) {
-                override = true;
-                annoValues.put("maxLength", (Long)(long)info.readAnnotation(Size.class).max());
-            }
-        }
-
-        long minLength = Facets.VOID_LONG;
-        try {
-        	minLength = original.minLength();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (minLength == Facets.VOID_LONG) {
-            
-            if (info.readAnnotation(Size.class) != null) {
-                override = true;
-                annoValues.put("minLength", (Long)(long)info.readAnnotation(Size.class).min());
-            }
-        }
-
-        String maxInclusive = Facets.VOID_STRING;
-        try {
-        	maxInclusive = original.maxInclusive();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (Facets.VOID_STRING.equals(maxInclusive)) {
-            
-            if (info.readAnnotation(DecimalMax.class) != null) {
-                override = true;
-                annoValues.put("maxInclusive", info.readAnnotation(DecimalMax.class).value());
-            } else if (info.readAnnotation(Max.class) != null) {
-                override = true;
-                annoValues.put("maxInclusive", Long.toString(info.readAnnotation(Max.class).value()));
-            }
-                
-        }
-
-        String minInclusive = Facets.VOID_STRING;
-        try {
-        	minInclusive = original.minInclusive();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (Facets.VOID_STRING.equals(minInclusive)) {
-            
-            if (info.readAnnotation(DecimalMin.class) != null) {
-                override = true;
-                annoValues.put("minInclusive", info.readAnnotation(DecimalMin.class).value());
-            } else if (info.readAnnotation(Min.class) != null) {
-                override = true;
-                annoValues.put("minInclusive", Long.toString(info.readAnnotation(Min.class).value()));
-            }
-                
-        }
-
-        String pattern = Facets.VOID_STRING;
-        try {
-        	pattern = original.pattern();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (Facets.VOID_STRING.equals(pattern)) {
-
-            if (info.readAnnotation(Pattern.class) != null) {
-                override = true;
-                annoValues.put("pattern", info.readAnnotation(Pattern.class).regexp());
-            }
-            
-        }
-
-        long totalDigits = Facets.VOID_LONG;
-        try {
-        	totalDigits = original.totalDigits();
-		} catch (Exception e) {
-			/* swallow */
-		}
-
-        if (totalDigits == Facets.VOID_LONG) {
-
-            if (info.readAnnotation(Digits.class) != null) {
-                override = true;
-                annoValues.put("totalDigits", (Long)(long)(info.readAnnotation(Digits.class).integer() + 
-                        info.readAnnotation(Digits.class).fraction()));
-            }
+    private Facets filterFacets(Facets original, DerivedFacets derived) {
+        if (derived.isEmpty()) {
+            return original;
         }
-        
-        return override ? AnnotationUtils.createAnnotationProxy(Facets.class, annoValues) : original;
+        return derived.applyTo(original);
     }
     
     /**
      * Process a MinOccurs annotation.
      * @param original Existing MinOccurs annotation or null.
-     * @param info Source for validation constraints.
+     * @param derived Facets derived from the validation constraints of the property.
      * @return Processed Annotation or null if no information available.
      */
-    private MinOccurs filterMinOccurs(MinOccurs original, AnnotationSource info) {
-
-    	Map<String, Object> annoValues = new HashMap<String, Object>(
-    			AnnotationUtils.getAnnotationValues(MinOccurs.class, original));
-
-        if (original == null && info.readAnnotation(NotNull.class) != null) {
-            annoValues.put("value", 1L);
-            return AnnotationUtils.createAnnotationProxy(MinOccurs.class, annoValues);
-        } else {
-            return original;
-        }
+    private MinOccurs filterMinOccurs(MinOccurs original, DerivedFacets derived) {
+        return derived.applyTo(original);
     }
 
     /**
@@ -290,6 +230,10 @@ public class ValidationFacetsFilter {
             this.element = element;
         }
 
+        AnnotatedElement getElement() {
+            return element;
+        }
+
         @Override
         public <A extends Annotation> A readAnnotation(Class<A> type) {
             return element.getAnnotation(type);
@@ -303,4 +247,3 @@ public class ValidationFacetsFilter {
     }
 
 }
-
@@ -0,0 +1,159 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Per-thread pools of the XML readers and transformers which are used while
+ * generating schemas (e.g., in {@link DOMtoTXW}) and in the wsimport plugin
+ * (via {@link XmlUtil}), such that the factory lookup and the construction of
+ * these objects is done once per thread rather than per use.
+ *
+ * <p>
+ * Each thread keeps one idle instance of each kind. An instance is taken via
+ * get..() and handed back via release(..), which resets it; a nested get..()
+ * of the same thread (before the release) creates a new instance. Call
+ * {@link #clear()} to drop the instances of the current thread, e.g., before
+ * a pooled thread of an application server is returned.
+ */
+public final class XmlPools {
+
+    private static final ThreadLocal<XMLReader> READERS = new ThreadLocal<XMLReader>();
+    private static final ThreadLocal<PooledTransformer> TRANSFORMERS = new ThreadLocal<PooledTransformer>();
+
+    /** handler of idle readers, which does not keep the last handler alive */
+    private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+
+    /** guards the transformer factories; a lock rather than a monitor, since
+     * the factory lookup reads from the class path (which would pin virtual threads) */
+    private static final Lock FACTORY_LOCK = new ReentrantLock();
+    /** transformer factories by context class loader (see {@link #newTransformer()}) */
+    private static final Map<ClassLoader, TransformerFactory> TRANSFORMER_FACTORIES =
+            new WeakHashMap<ClassLoader, TransformerFactory>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong creations = new AtomicLong();
+
+    private XmlPools() { }
+
+    /**
+     * Idle transformer, with the context class loader for which it has been created.
+     */
+    private static final class PooledTransformer {
+        final Reference<ClassLoader> loader;
+        final Transformer transformer;
+
+        PooledTransformer(ClassLoader loader, Transformer transformer) {
+            this.loader = new WeakReference<ClassLoader>(loader);
+            this.transformer = transformer;
+        }
+    }
+
+    /**
+     * @return a namespace aware SAX reader of the current thread.
+     */
+    public static XMLReader getXMLReader() throws SAXException {
+        XMLReader reader = READERS.get();
+        if (reader != null) {
+            READERS.remove();
+            hits.incrementAndGet();
+            return reader;
+        }
+        creations.incrementAndGet();
+        return XMLReaderFactory.createXMLReader();
+    }
+
+    /**
+     * Hands back a reader of {@link #getXMLReader()}, which must not have
+     * been configured other than by setting its content handler.
+     */
+    public static void release(XMLReader reader) {
+        reader.setContentHandler(NO_HANDLER);
+        READERS.set(reader);
+    }
+
+    /**
+     * @return a transformer (without stylesheet, i.e., an identity transformer)
+     * of the current thread, without output properties. The transformer is
+     * created by the transformer factory of the context class loader.
+     */
+    public static Transformer getTransformer() throws TransformerConfigurationException {
+        PooledTransformer pooled = TRANSFORMERS.get();
+        if (pooled != null) {
+            TRANSFORMERS.remove();
+            if (pooled.loader.get() == Thread.currentThread().getContextClassLoader()) {
+                hits.incrementAndGet();
+                return pooled.transformer;
+            }
+        }
+        creations.incrementAndGet();
+        return newTransformer();
+    }
+
+    /**
+     * Hands back a transformer of {@link #getTransformer()}.
+     */
+    public static void release(Transformer transformer) {
+        transformer.reset();
+        TRANSFORMERS.set(new PooledTransformer(Thread.currentThread().getContextClassLoader(), transformer));
+    }
+
+    /**
+     * @return a new transformer of the factory of the context class loader of the
+     * current thread. The factory is cached per class loader if its implementation
+     * class is visible to the class loader of jaxb-facets, hence the cached factories
+     * do not reference the class loaders by which they are keyed (as in
+     * {@link SchemaSerializers}). Other factories (e.g., provided by a web
+     * application) are looked up for each new transformer.
+     */
+    private static Transformer newTransformer() throws TransformerConfigurationException {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        /* the factory lookup is expensive, and factories are not thread-safe */
+        FACTORY_LOCK.lock();
+        try {
+            TransformerFactory factory = TRANSFORMER_FACTORIES.get(cl);
+            if (factory == null) {
+                factory = TransformerFactory.newInstance();
+                if (SchemaSerializers.isVisible(factory.getClass().getClassLoader())) {
+                    TRANSFORMER_FACTORIES.put(cl, factory);
+                }
+            }
+            return factory.newTransformer();
+        } finally {
+            FACTORY_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Drops the pooled instances of the current thread.
+     */
+    public static void clear() {
+        READERS.remove();
+        TRANSFORMERS.remove();
+    }
+
+    /** @return number of instances which have been reused */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /** @return number of instances which have been created */
+    public static long getCreations() {
+        return creations.get();
+    }
+
+}
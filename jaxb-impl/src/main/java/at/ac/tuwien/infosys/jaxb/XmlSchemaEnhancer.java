@@ -1,24 +1,30 @@
 package at.ac.tuwien.infosys.jaxb;
 
-import java.io.ByteArrayInputStream;
 import java.lang.annotation.Annotation;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,17 +34,10 @@ import javax.xml.bind.annotation.Assert;
 import javax.xml.bind.annotation.Attribute;
 import javax.xml.bind.annotation.Documentation;
 import javax.xml.bind.annotation.Facets;
-import javax.xml.bind.annotation.Facets.FacetDefinition;
 import javax.xml.bind.annotation.Facets.WhiteSpace;
 import javax.xml.bind.annotation.MaxOccurs;
 import javax.xml.bind.annotation.MinOccurs;
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
 
 import at.ac.tuwien.infosys.jaxb.AnnotationUtils.AnnotationInvocationHandler;
 
@@ -60,9 +59,6 @@ import com.sun.xml.bind.v2.schemagen.xmlschema.LocalElement;
 import com.sun.xml.bind.v2.schemagen.xmlschema.Particle;
 import com.sun.xml.bind.v2.schemagen.xmlschema.SimpleRestrictionModel;
 import com.sun.xml.txw2.TypedXmlWriter;
-import com.sun.xml.txw2.output.ResultFactory;
-import com.sun.xml.txw2.output.TXWResult;
-import com.sun.xml.txw2.output.TXWSerializer;
 
 /**
  * @author Waldemar Hummer (hummer@infosys.tuwien.ac.at)
@@ -75,9 +71,10 @@ public class XmlSchemaEnhancer {
     public static final String NS_XSD = "http://www.w3.org/2001/XMLSchema";
     public static final String NS_XML = "http://www.w3.org/XML/1998/namespace";
     
-    private static ValidationFacetsFilter facetFilter = new ValidationFacetsFilter();
-
-    private static final DocumentBuilderFactory XML_FACTORY = DocumentBuilderFactory.newInstance();
+    /** facet filters by context class loader, see {@link #getFacetFilter()}. The filters are
+     * referenced softly, since the mappers of their registries may reference the class loader. */
+    private static final Map<ClassLoader, SoftReference<ValidationFacetsFilter>> FACET_FILTERS = 
+            new WeakHashMap<ClassLoader, SoftReference<ValidationFacetsFilter>>();
 
 	private static final List<Class<? extends Annotation>> EXT_ANNO_CLASSES_AT_START = 
 			new ArrayList<Class<? extends Annotation>>();
@@ -90,6 +87,56 @@ public class XmlSchemaEnhancer {
 
 	public static final AtomicBoolean XSD_11_ENABLED = new AtomicBoolean(true);
 
+	/** executor used to write the schema documents of different namespaces
+	 * concurrently (null, the default, means sequential writing) */
+	public static final AtomicReference<Executor> SCHEMA_WRITER_EXECUTOR = 
+			new AtomicReference<Executor>();
+
+	/** whether to read the annotations of indexed classes from the 
+	 * compile-time facet index (see {@link FacetIndex}) */
+	public static final AtomicBoolean FACET_INDEX_ENABLED = new AtomicBoolean(true);
+
+	/** whether to write schema documents to stream results directly via StAX, 
+	 * rather than via TXW's default serializer (see {@link SchemaSerializers}) */
+	public static final AtomicBoolean STAX_OUTPUT_ENABLED = new AtomicBoolean(false);
+
+	/** cache of generated schema documents (null, the default, means no caching) */
+	public static final AtomicReference<SchemaCache> SCHEMA_CACHE = 
+			new AtomicReference<SchemaCache>();
+
+	/** cache of the schema fragments of classes and enums (null, the default, means no caching) */
+	public static final AtomicReference<SchemaFragmentCache> FRAGMENT_CACHE = 
+			new AtomicReference<SchemaFragmentCache>();
+
+	/** whether to write prebuilt schema documents packaged with the bound 
+	 * classes, if they match (see {@link PrecompiledSchemas}) */
+	public static final AtomicBoolean PRECOMPILED_SCHEMAS_ENABLED = new AtomicBoolean(true);
+
+	/** default output profile of the schema documents, e.g., without formatting 
+	 * whitespace (see {@link SchemaOutputProfile}) */
+	public static final AtomicReference<SchemaOutputProfile> OUTPUT_PROFILE = 
+			new AtomicReference<SchemaOutputProfile>(SchemaOutputProfile.PRETTY);
+
+	/** whether to write identical facet restrictions of several elements/attributes 
+	 * of a namespace as one named simpleType (see {@link SharedFacetTypes}) */
+	public static final AtomicBoolean SHARED_FACET_TYPES_ENABLED = new AtomicBoolean(false);
+
+	/** whether to write the schema documents in a canonical order, and to compute 
+	 * their digests (see {@link CanonicalSchemas}) */
+	public static final AtomicBoolean CANONICAL_OUTPUT_ENABLED = new AtomicBoolean(false);
+
+	/** receives the digests of the schema documents written in canonical mode (may be null) */
+	public static final AtomicReference<CanonicalSchemas.Listener> SCHEMA_DIGEST_LISTENER = 
+			new AtomicReference<CanonicalSchemas.Listener>();
+
+	/** returned by {@link #getDefinedFacets(Facets)} if no facets are defined */
+	private static final SortedMap<String, List<String>> NO_FACETS = 
+			Collections.unmodifiableSortedMap(new TreeMap<String, List<String>>());
+
+	/** resolved metadata per JAXB property; weak keys, so that we do not keep JAXB models alive */
+	private static final Map<PropertyInfo<?, ?>, ResolvedMetadata> PROPERTY_METADATA = 
+			new WeakHashMap<PropertyInfo<?, ?>, ResolvedMetadata>();
+
     public static final Logger logger = Logger
             .getLogger(XmlSchemaEnhancer.class.getName());
 
@@ -107,8 +154,10 @@ public class XmlSchemaEnhancer {
         if (!hasFacets(vp))
             return;
 
-        Facets facetsAnno = getFacetsAnnotation(vp);
-        addFacets(facetsAnno, restriction, vp.getSource().getSchemaType());
+        PropertyMetadata meta = getPropertyMetadata(vp.getSource());
+        QName baseType = vp.getSource().getSchemaType();
+        addDefinedFacets(meta.getDefinedFacets(), restriction, baseType == null ? null :
+                Constants.FACET_TYPES.get(baseType.getLocalPart()));
     }
 
     public static <T, C> void addFacets(EnumLeafInfo<T, C> e,
@@ -127,24 +176,70 @@ public class XmlSchemaEnhancer {
         if (!hasFacets(t))
             return;
 
-        Facets facetsAnno = getFacetsAnnotation(t);
+        PropertyMetadata meta = getPropertyMetadata(t.getSource());
         TypedXmlWriter restriction = getRestriction(t, e, null);
-        if(t.getTarget().getType() instanceof Class<?>) {
-            addFacets(facetsAnno, restriction, (Class<?>)t.getTarget().getType());
-        } else if(t.getTarget().getType() instanceof ClassType) {
-        	ClassType ct = (ClassType)t.getTarget().getType();
-            addFacets(facetsAnno, restriction, (Class<?>)null);
+        if(hasFacetTarget(t)) {
+            addDefinedFacets(meta.getDefinedFacets(), restriction, getFacetBaseClass(t));
         }
     }
 
+    /**
+     * @return whether the facets of the given element are written, i.e., 
+     * whether its target type is a class (or a javac ClassType in schemagen).
+     */
+    public static <T, C> boolean hasFacetTarget(TypeRef<T, C> t) {
+        return t.getTarget().getType() instanceof Class<?> || t.getTarget().getType() instanceof ClassType;
+    }
+
     public static <T, C> void addFacets(AttributePropertyInfo<T, C> info,
             LocalAttribute attr) {
         if (!hasFacets(info))
             return;
 
-        Facets facetsAnno = getFacetsAnnotation(info);
+        PropertyMetadata meta = getPropertyMetadata(info.getSource());
         TypedXmlWriter restriction = getRestriction(info, attr, null);
-        addFacets(facetsAnno, restriction, info.getSource().getSchemaType());
+        addDefinedFacets(meta.getDefinedFacets(), restriction, getFacetBaseClass(info));
+    }
+
+    /**
+     * @return the base type of the facet restriction of the given element.
+     */
+    static <T, C> QName getFacetBaseType(TypeRef<T, C> t) {
+        QName schemaType = t.getSource() == null ? null : t.getSource()
+                .getSchemaType();
+        if (schemaType == null)
+            schemaType = t.getTarget().getTypeName();
+        return schemaType;
+    }
+
+    /**
+     * @return the base type of the facet restriction of the given attribute.
+     */
+    static <T, C> QName getFacetBaseType(AttributePropertyInfo<T, C> info) {
+    	if(info.getSource().id() == ID.ID) {
+    		return new QName(NS_XSD, "ID");
+    	} else if(info.getSource().id() == ID.IDREF) {
+    		return new QName(NS_XSD, "IDREF");
+        }
+        return info.getTarget().getTypeName();
+    }
+
+    /**
+     * @return the Java type against which the facets of the given element 
+     * are checked, or null if unknown.
+     */
+    static <T, C> Class<?> getFacetBaseClass(TypeRef<T, C> t) {
+        Object type = t.getTarget().getType();
+        return type instanceof Class<?> ? (Class<?>)type : null;
+    }
+
+    /**
+     * @return the Java type against which the facets of the given attribute 
+     * are checked, or null if unknown.
+     */
+    static <T, C> Class<?> getFacetBaseClass(AttributePropertyInfo<T, C> info) {
+        QName baseType = info.getSource().getSchemaType();
+        return baseType == null ? null : Constants.FACET_TYPES.get(baseType.getLocalPart());
     }
 
     public static <T, C> void addFacets(Facets facetsAnno,
@@ -163,6 +258,11 @@ public class XmlSchemaEnhancer {
                     "Unable to add XSD Facets in Schema generated by JAXB.", ex);
             return;
         }
+        addDefinedFacets(facets, restriction, baseType);
+    }
+
+    static void addDefinedFacets(Map<String, List<String>> facets,
+            TypedXmlWriter restriction, Class<?> baseType) {
 
         /* check if we have invalid facets, e.g., minExclusive on xs:string is not allowed */
         checkFacetsValidity(baseType, facets);
@@ -181,10 +281,7 @@ public class XmlSchemaEnhancer {
 			Map<String, List<String>> facets) {
 		if(baseType == null)
 			return;
-		Set<String> allowed = Constants.FACETS_BY_TYPE.get(baseType);
-		if(allowed == null && Enum.class.isAssignableFrom(baseType)) {
-			allowed = Constants.FACETS_BY_TYPE.get(Enum.class);
-		}
+		Set<String> allowed = Constants.getAllowedFacets(baseType);
 		if(allowed == null) {
     		logger.fine("Cannot determine allowed facets for base type " + baseType);
 		} else {
@@ -198,18 +295,21 @@ public class XmlSchemaEnhancer {
 	}
 
 	public static <T, C> boolean hasFacets(ValuePropertyInfo<T, C> vp) {
-        Facets facets = getFacetsAnnotation(vp);
-        return hasFacets(facets);
+        if (!vp.getTarget().isSimpleType())
+            return false;
+        return getPropertyMetadata(vp.getSource()).hasFacets();
     }
 
     public static <T, C> boolean hasFacets(TypeRef<T, C> t) {
-        Facets facets = getFacetsAnnotation(t);
-        return hasFacets(facets);
+        if (!t.getTarget().isSimpleType())
+            return false;
+        return getPropertyMetadata(t.getSource()).hasFacets();
     }
 
     public static <T, C> boolean hasFacets(AttributePropertyInfo<T, C> ap) {
-        Facets facets = getFacetsAnnotation(ap);
-        return hasFacets(facets);
+        if (!isSimpleTypeOrIDREF(ap))
+            return false;
+        return getPropertyMetadata(ap.getSource()).hasFacets();
     }
 
     public static <T, C> boolean hasFacets(Facets facets) {
@@ -228,7 +328,8 @@ public class XmlSchemaEnhancer {
     public static <T, C> void addXsdExtensions(Set<ClassInfo<T, C>> classes,
             Set<EnumLeafInfo<T, C>> enums, Set<ArrayInfo<T, C>> arrays,
             TypedXmlWriter w) {
-        Set<Package> annotatedPackages = new HashSet<Package>();
+        /* in the order of the types, as package-level annotations are written in this order */
+        Set<Package> annotatedPackages = new LinkedHashSet<Package>();
         for (ClassInfo<T, C> c : classes) {
             annotatedPackages.addAll(extractPackage(c.getType()));
         }
@@ -263,16 +364,16 @@ public class XmlSchemaEnhancer {
     public static <T, C> void addXsdExtensionsAtStart(
             AttributePropertyInfo<T, C> _info, LocalAttribute _attr) {
     	for(Class<? extends Annotation> c : EXT_ANNO_CLASSES_AT_START) {
-    		if(hasXsdExtension(_info, c)) {
-    	        Annotation anno = getXsdExtensionAnnotation(_info, c);
+    	    Annotation anno = getXsdExtensionAnnotation(_info, c);
+    		if(anno != null) {
     	        addXsdExtensionInsideElement(anno, _attr);
     		}
     	}
     }
     public static <T, C> void addXsdExtensionsAtStart(TypeRef<T, C> t, LocalElement e) {
     	for(Class<? extends Annotation> c : EXT_ANNO_CLASSES_AT_START) {
-    		if(hasXsdExtension(t, c)) {
-    	        Annotation anno = getXsdExtensionAnnotation(t, c);
+    	    Annotation anno = getXsdExtensionAnnotation(t, c);
+    		if(anno != null) {
     	        addXsdExtensionInsideElement(anno, e);
     		}
     	}
@@ -389,28 +490,6 @@ public class XmlSchemaEnhancer {
     	}
     }
 
-	/**
-     * Try parsing a value as an XML root element. Returns a corresponding XML Document 
-     * if the string value is a valid XML root element, otherwise null.
-     * @param value
-     * @return
-     */
-    private static Document parseValueAsXML(String value) {
-        try {
-            if(value == null || !value.trim().startsWith("<")) {
-                return null;
-            }
-            DocumentBuilder dBuilder = XML_FACTORY.newDocumentBuilder();
-            Document doc = dBuilder.parse(new ByteArrayInputStream(value.getBytes()));
-            doc.getDocumentElement().normalize();
-            logger.fine("Treating string as valid XML: '" + value + "'");
-            return doc;
-        } catch (Exception e) {
-            logger.fine("Cannot parse value as XML, treating as regular string: '" + value + "'");
-            return null;
-        }
-    }
-
     /**
      * If the passed value is a valid XML root element, then we parse it and
      * write the XML element to the given TypedXmlWriter. Otherwise, the 
@@ -420,22 +499,12 @@ public class XmlSchemaEnhancer {
      * @param value
      */
     private static void writeXMLOrPCData(TypedXmlWriter w, String value) {
-        Document doc = parseValueAsXML(value);
-        if(doc == null) {
+        SchemaFragmentCache.Fragment xml = DOMtoTXW.parse(value);
+        if(xml == null) {
             w._pcdata(value);
             return;
         }
-        try {
-            writeXML(w, value);
-        } catch (Exception e) {
-            logger.info("Unable to write XML data to TXW2 serializer: " + e);
-            w._pcdata(value);
-        }
-    }
-
-    private static void writeXML(final TypedXmlWriter w, String value) throws Exception {
-        TXWSerializer ser = (TXWSerializer)ResultFactory.createSerializer(new TXWResult(w));
-        new DOMtoTXW(w).convert(value);
+        xml.replay(w);
     }
 
     public static <T, C> boolean hasXsdExtensions(ClassInfo<T, C> ci) {
@@ -486,22 +555,9 @@ public class XmlSchemaEnhancer {
 
     public static <T, C> boolean writeCustomOccurs(TypeRef<T, C> t,
             LocalElement e, boolean isOptional, boolean repeated) {
-        MaxOccurs max = null;
-        MinOccurs min = null;
-        try {
-            max = (MaxOccurs) getAnnotationOfProperty(t.getSource(),
-                    MaxOccurs.class);
-        } catch (Exception e2) {
-            logger.log(Level.WARNING,
-                    "Unable to get @MaxOccurs annotation from type " + t, e2);
-        }
-        try {
-            min = (MinOccurs) getAnnotationOfProperty(t.getSource(),
-                    MinOccurs.class);
-        } catch (Exception e2) {
-            logger.log(Level.WARNING,
-                    "Unable to get @MinOccurs annotation from type " + t, e2);
-        }
+        PropertyMetadata meta = getPropertyMetadata(t.getSource());
+        MaxOccurs max = meta.getMaxOccurs();
+        MinOccurs min = meta.getMinOccurs();
 
         if (min == null && max == null)
             return false;
@@ -579,15 +635,11 @@ public class XmlSchemaEnhancer {
     	if(annoInst == null) {
     		return false;
     	}
-		/* if we deal with a java.lang.reflect.Proxy instance,
-		 * things get a bit nasty... 
-		 * FIXME find better approach, and check if needed at all!! */
-		if(Proxy.isProxyClass(annoInst.getClass())) {
-			AnnotationInvocationHandler h = (AnnotationInvocationHandler)
-					AnnotationUtils.PROXY_HANDLERS.get(annoInst);
-			if(h != null) {
-				return isAssignableFrom(clazz, h.annoClass);
-			}
+		/* if we deal with one of our java.lang.reflect.Proxy instances,
+		 * we use the annotation class of the proxy's handler */
+		AnnotationInvocationHandler h = AnnotationUtils.getInvocationHandler(annoInst);
+		if(h != null) {
+			return isAssignableFrom(clazz, h.annoClass);
 		}
 		return isAssignableFrom(clazz, annoInst.getClass());
 	}
@@ -683,7 +735,7 @@ public class XmlSchemaEnhancer {
 	            return (AnnoT)getXsdAnnotationAnnotation(
 	            		(javax.xml.bind.annotation.Annotation)anno, doc, appinfo);
             } else if(isAssignableFrom(Assert.class, annoClass)) {
-            	return (AnnoT)SchemagenUtil.extractAnnotation(type, Assert.class);
+            	return anno;
             } else {
             	throw new IllegalArgumentException("" + annoClass);
             }
@@ -707,94 +759,160 @@ public class XmlSchemaEnhancer {
             PropertyInfo<T, C> propInfo, Class<AnnoT> annoClass) {
 
         if(isAssignableFrom(javax.xml.bind.annotation.Annotation.class, annoClass)) {
-	        javax.xml.bind.annotation.Annotation anno = null;
-	        AppInfo appinfo = null;
-	        Documentation doc = null;
-	
-	        try {
-	            Object value = getAnnotationOfProperty(propInfo,
-	                    javax.xml.bind.annotation.Annotation.class);
-	            if (value instanceof javax.xml.bind.annotation.Annotation) {
-	                anno = (javax.xml.bind.annotation.Annotation) value;
-	            }
-	        } catch (Exception e2) {
-	            logger.log(Level.WARNING,
-	                    "Unable to get XSD Annotation annotation from type " + propInfo,
-	                    e2);
-	        }
-	
-	        try {
-	            Object value = getAnnotationOfProperty(propInfo, AppInfo.class);
-	            if (value instanceof AppInfo) {
-	                appinfo = (AppInfo) value;
-	            }
-	        } catch (Exception e2) {
-	            logger.log(Level.WARNING,
-	                    "Unable to get XSD AppInfo annotation from type " + propInfo, e2);
-	        }
-	
-	        try {
-	            Object value = getAnnotationOfProperty(propInfo, Documentation.class);
-	            if (value instanceof Documentation) {
-	                doc = (Documentation) value;
-	            }
-	        } catch (Exception e2) {
-	            logger.log(
-	                    Level.WARNING,
-	                    "Unable to get XSD Documentation annotation from type " + propInfo,
-	                    e2);
-	        }
-
-	        AnnoT result = (AnnoT)getXsdAnnotationAnnotation(anno, doc, appinfo);
-	        return result;
-
+            return (AnnoT)getPropertyMetadata(propInfo).getXsdAnnotation();
         } else if(isAssignableFrom(Assert.class, annoClass)) {
-        	try {
-				return (AnnoT)getAnnotationOfProperty(propInfo, Assert.class);
-			} catch (Exception e) {
-	            logger.log(
-	                    Level.WARNING,
-	                    "Unable to get @javax.xml.bind.annotation.Assert annotation from type " + propInfo,
-	                    e);
-			}
+            return (AnnoT)getPropertyMetadata(propInfo).getXsdAssert();
         }
         throw new IllegalArgumentException("" + annoClass);
 
     }
 
-    private static ClassLoader selectClassLoader(Object ... objects) {
-    	ClassLoader cl = null;
-    	for(Object o : objects) {
-    		if(o != null) {
-    			cl = o.getClass().getClassLoader();
-    			break;
-    		}
-    	}
-        // Java7 users have encountered problems here.
-        // Fallback to system classloader is necessary for compatibility
-        // with Java7 JAXB bootstrapping/overriding mechanism.
-        if (cl == null) {
-            cl = ClassLoader.getSystemClassLoader();
+    /**
+     * Metadata of a property, along with the settings with which it has been resolved.
+     */
+    private static final class ResolvedMetadata {
+        final PropertyMetadata metadata;
+        final ValidationFacetsFilter filter;
+        final boolean indexEnabled;
+
+        ResolvedMetadata(PropertyMetadata metadata, AnnotationLookup lookup) {
+            this.metadata = metadata;
+            this.filter = lookup.filter;
+            this.indexEnabled = lookup.indexEnabled;
         }
-        return cl;
     }
 
-    
-    protected static <T, C> Assert getXsdAssertAnnotation(String id, String test,
-    		String xpathDefaultNamespace, Attribute[] attributes, Annotation[] annotation) {
+    /**
+     * The settings with which the annotations of a property are resolved,
+     * determined once per property: the facet filter (and hence the constraint
+     * mappers) of the context class loader, and whether the facet index is used.
+     */
+    private static final class AnnotationLookup {
+        final ValidationFacetsFilter filter;
+        final boolean indexEnabled;
+        /** whether the index covers all constraint types handled by the mappers of the filter */
+        final boolean useIndex;
+
+        AnnotationLookup(ValidationFacetsFilter filter, boolean indexEnabled) {
+            this.filter = filter;
+            this.indexEnabled = indexEnabled;
+            this.useIndex = indexEnabled && FacetIndex.covers(
+                    filter.getRegistry().getConstraintTypes());
+        }
+    }
+
+    /**
+     * Get the resolved metadata (facets, occurrence constraints, XSD annotations)
+     * of the given property. The metadata is computed on first access and then 
+     * cached for as long as the property (i.e., the JAXB model) is alive. It is
+     * resolved again if the constraint mappers (i.e., the context class loader)
+     * or {@link #FACET_INDEX_ENABLED} have changed.
+     */
+    protected static <T, C> PropertyMetadata getPropertyMetadata(PropertyInfo<T, C> info) {
+        if(info == null) {
+            return new PropertyMetadata(null, null, null, null, null, null, null, null);
+        }
+        ValidationFacetsFilter filter = getFacetFilter();
+        boolean indexEnabled = FACET_INDEX_ENABLED.get();
+        synchronized (PROPERTY_METADATA) {
+            ResolvedMetadata resolved = PROPERTY_METADATA.get(info);
+            if(resolved == null || resolved.filter != filter || resolved.indexEnabled != indexEnabled) {
+                AnnotationLookup lookup = new AnnotationLookup(filter, indexEnabled);
+                resolved = new ResolvedMetadata(resolvePropertyMetadata(info, lookup), lookup);
+                PROPERTY_METADATA.put(info, resolved);
+            }
+            return resolved.metadata;
+        }
+    }
+
+    private static <T, C> PropertyMetadata resolvePropertyMetadata(PropertyInfo<T, C> propInfo,
+            AnnotationLookup lookup) {
+        Facets facets = null;
+        SortedMap<String, List<String>> definedFacets = null;
+        MinOccurs min = null;
+        MaxOccurs max = null;
+        javax.xml.bind.annotation.Annotation anno = null;
+        AppInfo appinfo = null;
+        Documentation doc = null;
+        Assert ass = null;
 
-        final Map<String, Object> annoValues = new HashMap<String, Object>();
-        annoValues.put("id", id);
-        annoValues.put("test", test);
-        annoValues.put("xpathDefaultNamespace", xpathDefaultNamespace);
-        annoValues.put("attributes", attributes);
-        annoValues.put("annotation", annotation);
-        annoValues.put("xpathDefaultNamespace", xpathDefaultNamespace);
+        try {
+            Object value = getAnnotationOfProperty(propInfo, Facets.class, lookup);
+            if (value instanceof Facets) {
+                facets = (Facets) value;
+                definedFacets = getDefinedFacets(facets);
+            }
+        } catch (Exception e2) {
+            logger.log(Level.WARNING,
+                    "Unable to get Facets annotation from type " + propInfo, e2);
+        }
+
+        try {
+            max = (MaxOccurs) getAnnotationOfProperty(propInfo, MaxOccurs.class, lookup);
+        } catch (Exception e2) {
+            logger.log(Level.WARNING,
+                    "Unable to get @MaxOccurs annotation from type " + propInfo, e2);
+        }
+        try {
+            min = (MinOccurs) getAnnotationOfProperty(propInfo, MinOccurs.class, lookup);
+        } catch (Exception e2) {
+            logger.log(Level.WARNING,
+                    "Unable to get @MinOccurs annotation from type " + propInfo, e2);
+        }
 
-        ClassLoader cl = selectClassLoader();
+        try {
+            Object value = getAnnotationOfProperty(propInfo,
+                    javax.xml.bind.annotation.Annotation.class, lookup);
+            if (value instanceof javax.xml.bind.annotation.Annotation) {
+                anno = (javax.xml.bind.annotation.Annotation) value;
+            }
+        } catch (Exception e2) {
+            logger.log(Level.WARNING,
+                    "Unable to get XSD Annotation annotation from type " + propInfo,
+                    e2);
+        }
+
+        try {
+            Object value = getAnnotationOfProperty(propInfo, AppInfo.class, lookup);
+            if (value instanceof AppInfo) {
+                appinfo = (AppInfo) value;
+            }
+        } catch (Exception e2) {
+            logger.log(Level.WARNING,
+                    "Unable to get XSD AppInfo annotation from type " + propInfo, e2);
+        }
 
-        Assert anno = AnnotationUtils.createAnnotationProxy(Assert.class, annoValues, cl);
-    	return anno;
+        try {
+            Object value = getAnnotationOfProperty(propInfo, Documentation.class, lookup);
+            if (value instanceof Documentation) {
+                doc = (Documentation) value;
+            }
+        } catch (Exception e2) {
+            logger.log(
+                    Level.WARNING,
+                    "Unable to get XSD Documentation annotation from type " + propInfo,
+                    e2);
+        }
+
+        try {
+            ass = (Assert) getAnnotationOfProperty(propInfo, Assert.class, lookup);
+        } catch (Exception e) {
+            logger.log(
+                    Level.WARNING,
+                    "Unable to get @javax.xml.bind.annotation.Assert annotation from type " + propInfo,
+                    e);
+        }
+
+        return new PropertyMetadata(facets, definedFacets, min, max, doc, appinfo,
+                getXsdAnnotationAnnotation(anno, doc, appinfo), ass);
+    }
+
+    protected static <T, C> Assert getXsdAssertAnnotation(String id, String test,
+    		String xpathDefaultNamespace, Attribute[] attributes, Annotation[] annotation) {
+    	return AssertImpl.builder().id(id).test(test).
+    			xpathDefaultNamespace(xpathDefaultNamespace).attributes(attributes).
+    			annotation(AbstractAnnotationImpl.toArray("annotation", annotation, 
+    					javax.xml.bind.annotation.Annotation.class)).build();
     }
 
     protected static <T, C> javax.xml.bind.annotation.Annotation getXsdAnnotationAnnotation(
@@ -804,25 +922,20 @@ public class XmlSchemaEnhancer {
     	if (_anno == null && _doc == null && _appinfo == null) {
     		return null;
     	}
-    	
-        ClassLoader cl = selectClassLoader(_anno, _doc,_appinfo);
 
-        final Map<String, Object> annoValues = new HashMap<String, Object>();
-        annoValues.put("id", "");
-        annoValues.put("appinfo", new AppInfo[] {});
-        annoValues.put("attributes", new Attribute[] {});
-        annoValues.put("documentation", new Documentation[] {});
-        annoValues.put("location", AnnotationLocation.INSIDE_ELEMENT);
+        AnnotationImpl.Builder builder = AnnotationImpl.builder();
+        AppInfo[] appinfos = new AppInfo[] {};
+        Documentation[] docs = new Documentation[] {};
 
         boolean hasAnno = false;
 
         try {
             if (_anno instanceof javax.xml.bind.annotation.Annotation) {
-                annoValues.put("id", _anno.id());
-                annoValues.put("appinfo", _anno.appinfo());
-                annoValues.put("attributes", _anno.attributes());
-                annoValues.put("documentation", _anno.documentation());
-                annoValues.put("location", _anno.location());
+                builder.id(_anno.id());
+                builder.attributes(_anno.attributes());
+                builder.location(_anno.location());
+                appinfos = _anno.appinfo();
+                docs = _anno.documentation();
                 hasAnno = true;
             }
         } catch (Exception e2) {
@@ -833,8 +946,7 @@ public class XmlSchemaEnhancer {
 
         try {
             if (_appinfo instanceof AppInfo) {
-                AppInfo[] appinfos = (AppInfo[]) annoValues.get("appinfo");
-                annoValues.put("appinfo", concat(appinfos, _appinfo));
+                appinfos = concat(appinfos, _appinfo);
                 hasAnno = true;
             }
         } catch (Exception e2) {
@@ -845,9 +957,7 @@ public class XmlSchemaEnhancer {
 
         try {
             if (_doc instanceof Documentation) {
-                Documentation[] docs = (Documentation[]) annoValues
-                        .get("documentation");
-                annoValues.put("documentation", concat(docs, _doc));
+                docs = concat(docs, _doc);
                 hasAnno = true;
             }
         } catch (Exception e2) {
@@ -856,74 +966,29 @@ public class XmlSchemaEnhancer {
                             + _doc, e2);
         }
 
-        javax.xml.bind.annotation.Annotation anno = AnnotationUtils.
-                createAnnotationProxy(javax.xml.bind.annotation.Annotation.class, annoValues, cl);
-
-        return hasAnno ? anno : null;
+        return hasAnno ? builder.appinfo(appinfos).documentation(docs).build() : null;
     }
 
-    private static <T, C> Facets getFacetsAnnotation(TypeRef<T, C> t) {
-        if (!t.getTarget().isSimpleType())
-            return null;
-
-        try {
-            Object value = getAnnotationOfProperty(t.getSource(), Facets.class);
-            if (value instanceof Facets)
-                return (Facets) value;
-        } catch (Exception e2) {
-            logger.log(Level.WARNING,
-                    "Unable to get Facets annotation from type " + t, e2);
-        }
-        return null;
-    }
-
-    private static <T, C> Facets getFacetsAnnotation(ValuePropertyInfo<T, C> vp) {
-        if (!vp.getTarget().isSimpleType())
-            return null;
-
-        try {
-            Object value = getAnnotationOfProperty(vp.getSource(), Facets.class);
-            if (value instanceof Facets)
-                return (Facets) value;
-        } catch (Exception e2) {
-            logger.log(Level.WARNING,
-                    "Unable to get Facets annotation from type " + vp, e2);
-        }
-        return null;
-    }
-
-    private static <T, C> Facets getFacetsAnnotation(
-            AttributePropertyInfo<T, C> t) {
+    private static <T, C> boolean isSimpleTypeOrIDREF(AttributePropertyInfo<T, C> t) {
     	/* make sure this is either
     	 *  - a simple type like string, or
     	 *  - an IDREF, which is also considered a simple type
     	 */
-        if (!t.getTarget().isSimpleType() && t.getSource().id() != ID.IDREF)
-            return null;
-
-        try {
-            Object value = getAnnotationOfProperty(t.getSource(), Facets.class);
-            if (value instanceof Facets)
-                return (Facets) value;
-        } catch (Exception e2) {
-            logger.log(Level.WARNING,
-                    "Unable to get Facets annotation from type " + t, e2);
-        }
-        return null;
+        return t.getTarget().isSimpleType() || t.getSource().id() == ID.IDREF;
     }
 
     private static <T, C> Object getAnnotationOfProperty(
-            PropertyInfo<T, C> info, Class<? extends Annotation> annoClass)
+            PropertyInfo<T, C> info, Class<? extends Annotation> annoClass, AnnotationLookup lookup)
             throws Exception {
         if (annoClass == Facets.class) {
-            Object result = facetFilter.filterAnnotation(annoClass, info.readAnnotation(Facets.class), info);
+            Object result = lookup.filter.filterAnnotation(annoClass, info.readAnnotation(Facets.class), info);
         	if (result != null) {
                 return result;
             }
         } else if (annoClass == MaxOccurs.class && info.hasAnnotation(MaxOccurs.class)) {
             return info.readAnnotation(MaxOccurs.class);
         } else if (annoClass == MinOccurs.class) {
-            Object result = facetFilter.filterAnnotation(annoClass, info.readAnnotation(MinOccurs.class), info);
+            Object result = lookup.filter.filterAnnotation(annoClass, info.readAnnotation(MinOccurs.class), info);
             if (result != null) {
                 return result;
             }
@@ -949,7 +1014,7 @@ public class XmlSchemaEnhancer {
 
         if(type instanceof Class<?>) {
 	        Class<?> parent = (Class<?>) info.parent().getType();
-	        return getAnnotationOfProperty(parent, name, annoClass);
+	        return getAnnotationOfProperty(parent, name, annoClass, lookup);
         } else {
         	throw new RuntimeException("Unexpected type of property parent: " + info.parent().getType());
         }
@@ -958,12 +1023,25 @@ public class XmlSchemaEnhancer {
 	protected static <T extends Annotation> T getAnnotationOfProperty(
             Class<?> parent, String fieldName, Class<T> annoClass)
             throws Exception {
+        return getAnnotationOfProperty(parent, fieldName, annoClass, 
+                new AnnotationLookup(getFacetFilter(), FACET_INDEX_ENABLED.get()));
+    }
+
+    private static <T extends Annotation> T getAnnotationOfProperty(
+            Class<?> parent, String fieldName, Class<T> annoClass, AnnotationLookup lookup)
+            throws Exception {
         try {
-            Field field = findAnnotatedField(parent, fieldName);
-            if (field == null)
-                return null;
-            Object a = facetFilter.filterAnnotation(annoClass, getAnnotation(field, annoClass), field);
-            return (T) a;
+            /* fields and accessor methods (including inherited ones) matching 
+             * the Java name or XML name of the property, in order of precedence */
+            for (AccessibleObject member : MemberIndex.forClass(parent).getMembers(fieldName)) {
+                AnnotatedElement element = lookup.useIndex ? getIndexedElement(member) : member;
+                Object a = lookup.filter.filterAnnotation(annoClass, 
+                        getAnnotation(element, annoClass), element);
+                if (a != null) {
+                    return (T) a;
+                }
+            }
+            return null;
         } catch (Exception e) {
             throw new RuntimeException("Could not get annotation '"
                     + annoClass.getSimpleName() + "' of field " + fieldName
@@ -971,37 +1049,52 @@ public class XmlSchemaEnhancer {
         }
     }
 
-    private static Field findAnnotatedField(Class<?> parent, String fieldName) {
-        Field field = null;
-        for (Field f : parent.getDeclaredFields()) {
-            if (f.getName().equals(fieldName)) {
-                field = f;
-                break;
-            } else {
-                if (getAnnotation(f, XmlElement.class) != null) {
-                    XmlElement e = (XmlElement) getAnnotation(f,
-                            XmlElement.class);
-                    if (fieldName.equals(e.name())) {
-                        field = f;
-                        break;
-                    }
-                }
-                if (getAnnotation(f, XmlAttribute.class) != null) {
-                    XmlAttribute a = (XmlAttribute) getAnnotation(f,
-                            XmlAttribute.class);
-                    if (fieldName.equals(a.name())) {
-                        field = f;
-                        break;
-                    }
-                }
+    /**
+     * @return the facet filter which uses the default constraint mappers of the
+     * context class loader of the current thread (one filter, and hence one 
+     * filter cache, per class loader).
+     */
+    private static ValidationFacetsFilter getFacetFilter() {
+        ClassLoader cl = ConstraintMapperRegistry.getContextClassLoader();
+        synchronized (FACET_FILTERS) {
+            SoftReference<ValidationFacetsFilter> ref = FACET_FILTERS.get(cl);
+            ValidationFacetsFilter filter = ref == null ? null : ref.get();
+            if (filter == null) {
+                filter = new ValidationFacetsFilter(ConstraintMapperRegistry.getDefault(cl));
+                FACET_FILTERS.put(cl, new SoftReference<ValidationFacetsFilter>(filter));
             }
+            return filter;
         }
-        return field;
+    }
+
+    /**
+     * @return the annotations of the given member as recorded in the facet index,
+     * or the member itself if its class is not indexed.
+     */
+    private static AnnotatedElement getIndexedElement(AccessibleObject member) {
+        Class<?> declaring = ((Member) member).getDeclaringClass();
+        AnnotatedElement indexed = FacetIndex.forClassLoader(
+                declaring.getClassLoader()).getElement(member);
+        return indexed != null ? indexed : member;
     }
 
     protected static <T extends Annotation> T getAnnotation(AccessibleObject field,
             Class<T> annoClass) {
+        return getAnnotation((AnnotatedElement) field, annoClass);
+    }
+
+    private static <T extends Annotation> T getAnnotation(AnnotatedElement field,
+            Class<T> annoClass) {
+        T result = field.getAnnotation(annoClass);
+        if (result != null) {
+            return result;
+        }
+        /* the annotation class may have been loaded by a different classloader
+         * (e.g., in JBoss), hence we need to compare the class names here */
         for (Annotation anno : field.getAnnotations()) {
+            if (!anno.annotationType().getName().equals(annoClass.getName())) {
+                continue;
+            }
             try {
                 return annoClass.cast(anno);
             } catch (Exception e) {
@@ -1100,13 +1193,7 @@ public class XmlSchemaEnhancer {
     private static <T, C> TypedXmlWriter getRestriction(
             AttributePropertyInfo<T, C> info, TypedXmlWriter obj,
             TypedXmlWriter w) {
-    	QName restrName = info.getTarget().getTypeName();
-    	if(info.getSource().id() == ID.ID) {
-    		restrName = new QName(NS_XSD, "ID");
-    	} else if(info.getSource().id() == ID.IDREF) {
-    		restrName = new QName(NS_XSD, "IDREF");
-        }
-        return getRestriction(restrName, obj, w);
+        return getRestriction(getFacetBaseType(info), obj, w);
     }
     private static <T, C> TypedXmlWriter getRestriction(
             ValuePropertyInfo<T, C> info, TypedXmlWriter obj, TypedXmlWriter w) {
@@ -1117,11 +1204,7 @@ public class XmlSchemaEnhancer {
         if (w != null) {
             return w;
         }
-        QName schemaType = t.getSource() == null ? null : t.getSource()
-                .getSchemaType();
-        if (schemaType == null)
-            schemaType = t.getTarget().getTypeName();
-        return getRestriction(schemaType, obj, w);
+        return getRestriction(getFacetBaseType(t), obj, w);
     }
 
     private static  <T, C> TypedXmlWriter getRestriction(
@@ -1183,56 +1266,36 @@ public class XmlSchemaEnhancer {
      * nodes) in the old version where we still used a regular HashMap, 
      * which does not preserve the order of items...
      * 
+     * Facets with an empty array value (e.g., the default enumeration {}) are 
+     * not defined, see {@link FacetDescriptor#isDefined(Object)}.
+     * 
      * @param facetsAnnotation
-     * @return
+     * @return the defined facets (an unmodifiable empty map if there are none)
      * @throws Exception
      */
     protected static SortedMap<String, List<String>> getDefinedFacets(
     		Facets facetsAnnotation) throws Exception {
-        List<Method> annoMethods = new LinkedList<Method>();
-        SortedMap<String, List<String>> result = new TreeMap<String, List<String>>();
-
         if (facetsAnnotation == null)
-            return result;
+            return NO_FACETS;
 
-        for (Method m : Facets.class.getDeclaredMethods()) {
-            if (m.isAnnotationPresent(FacetDefinition.class))
-                annoMethods.add(m);
-        }
-
-        for (Method m : annoMethods) {
-            /* additional code suggested by Jason Pell (jason@pellcorp.com) */
-            FacetDefinition facetDefinition = m
-                    .getAnnotation(FacetDefinition.class);
-            String facetName = m.getName();
-            if (facetDefinition.xsdAttributeName() != null
-                    && facetDefinition.xsdAttributeName().length() > 0) {
-                facetName = facetDefinition.xsdAttributeName();
-            }
-            /* end additional code */
+        SortedMap<String, List<String>> result = null;
 
+        /* the descriptors are ordered by XSD name and computed only once */
+        for (FacetDescriptor facet : FacetDescriptor.getDescriptors()) {
             Object value = null;
             try {
-				value = m.invoke(facetsAnnotation);
+				value = facet.getValue(facetsAnnotation);
 			} catch (Exception e) {
 				// sometimes happens due to our proxying mechanism, especially for javac/schemagen.
 			}
-            Object defaultValue = m.getDefaultValue();
-            if (value != null && !value.equals(defaultValue)) {
-
-                if (!result.containsKey(facetName)) {
-                    result.put(facetName, new LinkedList<String>());
-                }
-                if (value instanceof String[]) {
-                    for (String s : (String[]) value)
-                        result.get(facetName).add(s);
-                } else {
-                    result.get(facetName).add("" + value);
-                }
+            if (facet.isDefined(value)) {
+                if (result == null)
+                    result = new TreeMap<String, List<String>>();
+                result.put(facet.getXsdName(), facet.toXsdValues(value));
             }
         }
 
-        return result;
+        return result == null ? NO_FACETS : result;
     }
 
     /**
@@ -1,13 +1,12 @@
 package at.ac.tuwien.infosys.jaxb;
 
-import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -28,39 +27,36 @@ public class XmlUtil {
 		return toString(element, false);
 	}
 
-	@SuppressWarnings("all")
-	/** 
-	 * This method needs to be synchronized, because of possible 
-	 * bug/synchronization issue:
-	 * https://issues.apache.org/jira/browse/CXF-1560
-	 * */
-	public static synchronized String toString(Element element, boolean indent) {
+	/**
+	 * Serializes the given element (without XML declaration). The element is
+	 * written via a transformer of the current thread (see {@link XmlPools}),
+	 * i.e., concurrent calls do not interfere, which is why this method no 
+	 * longer needs to be synchronized (cf. 
+	 * https://issues.apache.org/jira/browse/CXF-1560).
+	 */
+	public static String toString(Element element, boolean indent) {
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		StringWriter writer = new StringWriter();
 		try {
-			Transformer tr = TransformerFactory.newInstance().newTransformer();
-			tr.setOutputProperty(OutputKeys.METHOD, "xml");
-			if(indent) {
-				tr.setOutputProperty(
-						"{http://xml.apache.org/xslt}indent-amount", "2");
-				tr.setOutputProperty(OutputKeys.INDENT, "yes");
-			} else {
-				tr.setOutputProperty(OutputKeys.INDENT, "no");
+			Transformer tr = XmlPools.getTransformer();
+			try {
+				tr.setOutputProperty(OutputKeys.METHOD, "xml");
+				tr.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+				if(indent) {
+					tr.setOutputProperty(
+							"{http://xml.apache.org/xslt}indent-amount", "2");
+					tr.setOutputProperty(OutputKeys.INDENT, "yes");
+				} else {
+					tr.setOutputProperty(OutputKeys.INDENT, "no");
+				}
+				tr.transform(new DOMSource(element), new StreamResult(writer));
+			} finally {
+				XmlPools.release(tr);
 			}
-			tr.transform(new DOMSource(element), new StreamResult(baos));
 		} catch(Exception e) {
 			throw new RuntimeException(e);
 		}
-
-		String string = null;
-		byte[] bytes = baos.toByteArray();
-		string = new String(bytes);
-		bytes = null;
-		string = string
-				.replaceAll(
-						"<\\?xml version=\"1\\.0\" (encoding=\".*\")?( )*\\?>(\n)*",
-						"");
-		return string;
+		return writer.toString();
 	}
 
 	public static String toStringWithStrippedNamespaces(Element e) {
@@ -20,12 +20,51 @@ import com.sun.xml.bind.v2.schemagen.xmlschema.Particle;
  */
 public class TreeWrapper<T,C> extends Tree {
 
+    /* Tree$Group and its fields are private; they are resolved once, 
+     * and read once per wrapper (rather than on every write). */
+    private static final Class<?> GROUP_CLASS;
+    private static final Field GROUP_KIND;
+    private static final Field GROUP_CHILDREN;
+
+    static {
+        try {
+            GROUP_CLASS = Class.forName(Tree.class.getName() + "$Group");
+            GROUP_KIND = GROUP_CLASS.getDeclaredField("kind");
+            GROUP_KIND.setAccessible(true);
+            GROUP_CHILDREN = GROUP_CLASS.getDeclaredField("children");
+            GROUP_CHILDREN.setAccessible(true);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private Tree wrapped;
     private PropertyInfo<T,C> elementInfo;
+    /** kind and children of the wrapped CHOICE group, or null */
+    private GroupKind choice;
+    private Tree[] children;
 
     private TreeWrapper(Tree t, PropertyInfo<T,C> elementInfo) {
         this.wrapped = t;
         this.elementInfo = elementInfo;
+
+        if(t.getClass() == GROUP_CLASS) {
+            try {
+                GroupKind kind = (GroupKind)GROUP_KIND.get(t);
+                /*
+                 * Note: For <annotation>, we only consider CHOICE groups, because 
+                 * for SEQUENCE groups we might run into the situation that
+                 * multiple <annotation> elements are generated (for multiple 
+                 * child elements in the <sequence>), which is invalid.
+                 */
+                if(kind == GroupKind.CHOICE) {
+                    this.choice = kind;
+                    this.children = (Tree[])GROUP_CHILDREN.get(t);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
     public static <T,C> TreeWrapper<T,C> wrap(Tree t, PropertyInfo<T,C> elementInfo) {
         return new TreeWrapper<T,C>(t, elementInfo);
@@ -34,7 +73,6 @@ public class TreeWrapper<T,C> extends Tree {
     @Override
     protected void write(ContentModelContainer parent, boolean isOptional,
             boolean repeated) {
-        Class<?> clazz = wrapped.getClass();
 
         /* special treatment for Groups, in particular CHOICE groups.
          * If @Annotation.location() == AnnotationLocation.OUTSIDE_ELEMENT, 
@@ -42,50 +80,23 @@ public class TreeWrapper<T,C> extends Tree {
          * into the <xsd:choice> element directly, instead of writing
          * <xsd:annotation> into the child elements of the <xsd:choice> */
 
-        if(wrapped.getClass().getName().endsWith("Group")) {
+        if(choice != null) {
 
-            try {
-                Field fieldKind = clazz.getDeclaredField("kind");
-                fieldKind.setAccessible(true);
-                Object kind = fieldKind.get(wrapped);
+            /* code below is taken from Tree$Group class! */
+            Particle c = choice.write(parent);
+            wrapped.writeOccurs(c,isOptional,repeated);
 
-                if(kind == GroupKind.CHOICE) {
-
-                    /*
-                     * Note: For <annotation>, we only consider CHOICE groups, because 
-                     * for SEQUENCE groups we might run into the situation that
-                     * multiple <annotation> elements are generated (for multiple 
-                     * child elements in the <sequence>), which is invalid.
-                     */
-
-                    /* code below is taken from Tree$Group class! */
-                    Particle c = (Particle)kind.getClass().getDeclaredMethod(
-                            "write", ContentModelContainer.class).invoke(kind, parent);
-                    wrapped.writeOccurs(c,isOptional,repeated);
-
-                    Field fieldChildren = clazz.getDeclaredField("children");
-                    fieldChildren.setAccessible(true);
-                    Tree[] children = (Tree[])fieldChildren.get(wrapped);
-
-                    XmlSchemaEnhancer.addXsdAnnotationsOutsideElement(elementInfo, c);
-
-                    for (Tree child : children) {
-                        child.write(c,false,false);
-                    }
+            XmlSchemaEnhancer.addXsdAnnotationsOutsideElement(elementInfo, c);
 
-                    /* write all extension elements that need to go at the END
-                     * of all children within the wrapping element. In particular,
-                     * this affects <xs:assert> which can only appear at the end! */
-                    XmlSchemaEnhancer.addXsdExtensionsAtEnd(elementInfo, c);
+            for (Tree child : children) {
+                child.write(c,false,false);
+            }
 
-                } else {
-                    wrapped.write(parent, isOptional, repeated);
-                }
+            /* write all extension elements that need to go at the END
+             * of all children within the wrapping element. In particular,
+             * this affects <xs:assert> which can only appear at the end! */
+            XmlSchemaEnhancer.addXsdExtensionsAtEnd(elementInfo, c);
 
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            
         } else {
             wrapped.write(parent, isOptional, repeated);
         }
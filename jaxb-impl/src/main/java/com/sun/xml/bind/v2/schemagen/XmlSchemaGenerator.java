@@ -40,20 +40,31 @@
 
 package com.sun.xml.bind.v2.schemagen;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,6 +79,13 @@ import javax.xml.transform.stream.StreamResult;
 import org.xml.sax.SAXParseException;
 
 import at.ac.tuwien.infosys.jaxb.AnnotationUtils;
+import at.ac.tuwien.infosys.jaxb.CanonicalSchemas;
+import at.ac.tuwien.infosys.jaxb.PrecompiledSchemas;
+import at.ac.tuwien.infosys.jaxb.SchemaCache;
+import at.ac.tuwien.infosys.jaxb.SchemaFragmentCache;
+import at.ac.tuwien.infosys.jaxb.SchemaOutputProfile;
+import at.ac.tuwien.infosys.jaxb.SchemaSerializers;
+import at.ac.tuwien.infosys.jaxb.SharedFacetTypes;
 import at.ac.tuwien.infosys.jaxb.XmlSchemaEnhancer;
 
 import com.sun.istack.NotNull;
@@ -129,7 +147,6 @@ import com.sun.xml.bind.v2.util.StackRecorder;
 import com.sun.xml.txw2.TXW;
 import com.sun.xml.txw2.TxwException;
 import com.sun.xml.txw2.TypedXmlWriter;
-import com.sun.xml.txw2.output.ResultFactory;
 import com.sun.xml.txw2.output.XmlSerializer;
 
 import static com.sun.xml.bind.v2.WellKnownNamespace.XML_SCHEMA;
@@ -190,10 +207,29 @@ public final class XmlSchemaGenerator<T,C,F,M> {
      */
     private final NonElement<T,C> anyType;
 
+    //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
     /**
-     * Used to detect cycles in anonymous types.
+     * Executor used to write the schema documents of the namespaces concurrently,
+     * or null to write them sequentially (see {@link XmlSchemaEnhancer#SCHEMA_WRITER_EXECUTOR}).
      */
-    private final CollisionCheckStack<ClassInfo<T,C>> collisionChecker = new CollisionCheckStack<ClassInfo<T,C>>();
+    private Executor executor = XmlSchemaEnhancer.SCHEMA_WRITER_EXECUTOR.get();
+
+    /**
+     * Output profile of the current {@link #write(SchemaOutputResolver, ErrorListener)}.
+     */
+    private SchemaOutputProfile profile = SchemaOutputProfile.PRETTY;
+
+    /**
+     * Whether the current {@link #write(SchemaOutputResolver, ErrorListener)} is
+     * canonical (see {@link CanonicalSchemas}).
+     */
+    private boolean canonical;
+
+    /**
+     * StAX output factory of this generator, resolved on first use (see {@link SchemaSerializers}).
+     */
+    private final SchemaSerializers.OutputFactory outputFactory = new SchemaSerializers.OutputFactory();
+    //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
     public XmlSchemaGenerator( Navigator<T,C,F,M> navigator, TypeInfoSet<T,C,F,M> types ) {
         this.navigator = navigator;
@@ -213,6 +249,17 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             add(a);
     }
 
+    //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+    /**
+     * Set the executor used to write the schema documents of the namespaces
+     * concurrently. The output is identical to the sequential mode.
+     * @param executor the executor, or null to write the documents sequentially.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
     private Namespace getNamespace(String uri) {
         Namespace n = namespaces.get(uri);
         if(n==null)
@@ -241,7 +288,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             nsUri = clazz.getElementName().getNamespaceURI();
             Namespace ns = getNamespace(nsUri);
             ns.classes.add(clazz);
-            ns.addDependencyTo(clazz.getTypeName());
+            //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+            ns.pending.add(clazz.getTypeName());
+            //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
 
             // schedule writing this global element
             add(clazz.getElementName(),false,clazz);
@@ -260,15 +309,18 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         n.classes.add(clazz);
 
         // search properties for foreign namespace references
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        // (the global declarations are registered right away, the references
+        // are only examined when the namespace is written, see Namespace.resolve)
         for( PropertyInfo<T,C> p : clazz.getProperties()) {
-            n.processForeignNamespaces(p, 1);
+            n.pending.add(n.new PropertyReferences(p, true));
             if (p instanceof AttributePropertyInfo) {
                 AttributePropertyInfo<T,C> ap = (AttributePropertyInfo<T,C>) p;
                 String aUri = ap.getXmlName().getNamespaceURI();
                 if(aUri.length()>0) {
                     // global attribute
                     getNamespace(aUri).addGlobalAttribute(ap);
-                    n.addDependencyTo(ap.getXmlName());
+                    n.pending.add(ap.getXmlName());
                 }
             }
             if (p instanceof ElementPropertyInfo) {
@@ -277,27 +329,19 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                     String eUri = tref.getTagName().getNamespaceURI();
                     if(eUri.length()>0 && !eUri.equals(n.uri)) {
                         getNamespace(eUri).addGlobalElement(tref);
-                        n.addDependencyTo(tref.getTagName());
+                        n.pending.add(tref.getTagName());
                     }
                 }
             }
-
-            if(generateSwaRefAdapter(p))
-                n.useSwaRef = true;
-
-            MimeType mimeType = p.getExpectedMimeType();
-            if( mimeType != null ) {
-                n.useMimeNs = true;
-            }
-
         }
 
         // recurse on baseTypes to make sure that we can refer to them in the schema
         ClassInfo<T,C> bc = clazz.getBaseClass();
         if (bc != null) {
             add(bc);
-            n.addDependencyTo(bc.getTypeName());
+            n.pending.add(bc.getTypeName());
         }
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
     }
 
     /**
@@ -329,7 +373,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         n.elementDecls.put(name.getLocalPart(),n.new ElementWithType(nillable, elem.getContentType()));
 
         // search for foreign namespace references
-        n.processForeignNamespaces(elem.getProperty(), 1);
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        n.pending.add(n.new PropertyReferences(elem.getProperty(), false));
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
     }
 
     public void add( EnumLeafInfo<T,C> envm ) {
@@ -342,7 +388,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             nsUri = envm.getElementName().getNamespaceURI();
             Namespace ns = getNamespace(nsUri);
             ns.enums.add(envm);
-            ns.addDependencyTo(envm.getTypeName());
+            //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+            ns.pending.add(envm.getTypeName());
+            //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
 
             // schedule writing this global element
             add(envm.getElementName(),false,envm);
@@ -360,7 +408,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         n.enums.add(envm);
 
         // search for foreign namespace references
-        n.addDependencyTo(envm.getBaseType().getTypeName());
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        n.pending.add(envm.getBaseType().getTypeName());
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
     }
 
     public void add( ArrayInfo<T,C> a ) {
@@ -371,7 +421,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         n.arrays.add(a);
 
         // search for foreign namespace references
-        n.addDependencyTo(a.getItemType().getTypeName());
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        n.pending.add(a.getItemType().getTypeName());
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
     }
 
     /**
@@ -393,8 +445,10 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         n.elementDecls.put(tagName.getLocalPart(), n.new ElementWithType(isNillable,type));
 
         // search for foreign namespace references
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
         if(type!=null)
-            n.addDependencyTo(type.getTypeName());
+            n.pending.add(type.getTypeName());
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
     }
 
     /**
@@ -470,11 +524,18 @@ public final class XmlSchemaGenerator<T,C,F,M> {
         // make it fool-proof
         resolver = new FoolProofResolver(resolver);
         this.errorListener = errorListener;
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        this.profile = SchemaOutputProfile.current();
+        this.canonical = CanonicalSchemas.isEnabled();
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
         Map<String, String> schemaLocations = types.getSchemaLocations();
 
         Map<Namespace,Result> out = new HashMap<Namespace,Result>();
         Map<Namespace,String> systemIds = new HashMap<Namespace,String>();
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        Map<Namespace,String> suggestedNames = new HashMap<Namespace,String>();
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
         // we create a Namespace object for the XML Schema namespace
         // as a side-effect, but we don't want to generate it.
@@ -482,43 +543,506 @@ public final class XmlSchemaGenerator<T,C,F,M> {
 
         // first create the outputs for all so that we can resolve references among
         // schema files when we write
-        for( Namespace n : namespaces.values() ) {
-            String schemaLocation = schemaLocations.get(n.uri);
-            if(schemaLocation!=null) {
-                systemIds.put(n,schemaLocation);
-            } else {
-                Result output = resolver.createOutput(n.uri,"schema"+(out.size()+1)+".xsd");
-                if(output!=null) {  // null result means no schema for that namespace
-                    out.put(n,output);
-                    systemIds.put(n,output.getSystemId());
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        // (the references of a namespace are only resolved if it is written, which
+        // may add further namespaces, hence we repeat until all have been visited)
+        Set<Namespace> visited = new HashSet<Namespace>();
+        while(visited.size() < namespaces.size()) {
+            for( Namespace n : new ArrayList<Namespace>(namespaces.values()) ) {
+                if(!visited.add(n))
+                    continue;
+                String schemaLocation = schemaLocations.get(n.uri);
+                if(schemaLocation!=null) {
+                    systemIds.put(n,schemaLocation);
+                } else {
+                    String suggestedName = "schema"+(out.size()+1)+".xsd";
+                    Result output = resolver.createOutput(n.uri,suggestedName);
+                    if(output!=null) {  // null result means no schema for that namespace
+                        out.put(n,output);
+                        systemIds.put(n,output.getSystemId());
+                        suggestedNames.put(n,suggestedName);
+                        n.resolve();
+                    }
                 }
             }
         }
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
 
         // then write'em all
+        //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+        java.util.List<GzipStream> gzipStreams = new ArrayList<GzipStream>();
+        if(profile.isGzip())
+            out = compress(out, gzipStreams);
+        Map<Namespace,CanonicalSchemas.Digest> digests = null;
+        if(canonical)
+            digests = digest(out);
+        boolean written = false;
+        try {
+            writeOutputs(out, systemIds, suggestedNames);
+            written = true;
+        } finally {
+            if(!written) {
+                for( GzipStream s : gzipStreams )
+                    s.discard();
+            }
+        }
+        if(digests != null) {
+            for( Namespace n : namespaces.values() ) {
+                CanonicalSchemas.Digest d = digests.get(n);
+                if(d != null)
+                    CanonicalSchemas.schemaWritten(n.uri, systemIds.get(n), d.getValue());
+            }
+        }
+        //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
+    }
+
+    //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+    /**
+     * Writes the schema documents to the given outputs, either prebuilt, 
+     * cached or generated.
+     *
+     * @param suggestedNames the file names which have been suggested to the
+     * resolver for the outputs (the system ids during precompilation).
+     */
+    private void writeOutputs(Map<Namespace,Result> out, Map<Namespace,String> systemIds,
+            Map<Namespace,String> suggestedNames) throws IOException {
+        SchemaCache cache = XmlSchemaEnhancer.SCHEMA_CACHE.get();
+        boolean cacheable = isCacheable(out.values());
+        if(cacheable && writePrecompiled(out, systemIds, suggestedNames)) {
+            return;
+        }
+        if(cacheable && PrecompiledSchemas.isRecording()) {
+            Map<String,byte[]> documents = generateDocuments(out, systemIds);
+            PrecompiledSchemas.record(getFingerprint(out, systemIds, true), documents);
+            writeDocuments(out, documents);
+        } else if(cache != null && cacheable) {
+            writeCached(cache, out, systemIds);
+        } else {
+            writeAll(out, systemIds);
+        }
+    }
+
+    private void writeAll(Map<Namespace,Result> out, Map<Namespace,String> systemIds) throws IOException {
+        if(executor != null && out.size() > 1) {
+            writeConcurrently(out, systemIds);
+            return;
+        }
         for( Map.Entry<Namespace,Result> e : out.entrySet() ) {
-            Result result = e.getValue();
-            e.getKey().writeTo( result, systemIds );
-            if(result instanceof StreamResult) {
-                OutputStream outputStream = ((StreamResult)result).getOutputStream();
-                if(outputStream != null) {
-                    outputStream.close(); // fix for bugid: 6291301
-                } else {
-                    final Writer writer = ((StreamResult)result).getWriter();
-                    if(writer != null) writer.close();
+            writeAndClose(e.getKey(), e.getValue(), systemIds);
+        }
+    }
+
+    /**
+     * @param streams receives the created gzip streams, which have to be 
+     * discarded if writing fails.
+     * @return the given outputs, with the output streams wrapped into gzip streams
+     * (which are finished when the streams are closed after writing).
+     */
+    private static <N> Map<N,Result> compress(Map<N,Result> out, java.util.List<GzipStream> streams) throws IOException {
+        Map<N,Result> compressed = new HashMap<N,Result>();
+        boolean done = false;
+        try {
+            for( Map.Entry<N,Result> e : out.entrySet() ) {
+                Result r = e.getValue();
+                if(r instanceof StreamResult && ((StreamResult)r).getOutputStream() != null) {
+                    GzipStream stream = new GzipStream(((StreamResult)r).getOutputStream());
+                    streams.add(stream);
+                    StreamResult gzip = new StreamResult(stream);
+                    gzip.setSystemId(r.getSystemId());
+                    r = gzip;
+                }
+                compressed.put(e.getKey(), r);
+            }
+            done = true;
+        } finally {
+            if(!done) {
+                for( GzipStream s : streams )
+                    s.discard();
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Gzip stream which releases its (native) deflater and closes the target
+     * stream even if finishing the document fails.
+     */
+    private static final class GzipStream extends GZIPOutputStream {
+        private boolean closed;
+
+        GzipStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+            closed = true;
+            try {
+                finish();
+            } finally {
+                def.end();
+                out.close();
+            }
+        }
+
+        /**
+         * Closes this stream without finishing the document, after writing has failed.
+         */
+        void discard() {
+            if(closed)
+                return;
+            closed = true;
+            def.end();
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Unable to close schema output", e);
+            }
+        }
+    }
+
+    /**
+     * Wraps the output streams and writers of the given outputs, so that the
+     * digests of the written documents are computed.
+     *
+     * @return the digests, by namespace (none for other results).
+     */
+    private static <N> Map<N,CanonicalSchemas.Digest> digest(Map<N,Result> out) {
+        Map<N,CanonicalSchemas.Digest> digests = new HashMap<N,CanonicalSchemas.Digest>();
+        for( Map.Entry<N,Result> e : out.entrySet() ) {
+            CanonicalSchemas.Digest d = new CanonicalSchemas.Digest();
+            Result r = d.wrap(e.getValue());
+            if(r != null) {
+                e.setValue(r);
+                digests.put(e.getKey(), d);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Only results with an output stream or writer can be served from the
+     * {@link SchemaCache}; other results are always generated.
+     */
+    private static boolean isCacheable(Collection<Result> results) {
+        for( Result r : results ) {
+            if(!(r instanceof StreamResult))
+                return false;
+            StreamResult sr = (StreamResult)r;
+            if(sr.getOutputStream() == null && sr.getWriter() == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the schema documents from the given cache, generating (and caching)
+     * them first if required.
+     */
+    private void writeCached(SchemaCache cache, final Map<Namespace,Result> out, 
+            final Map<Namespace,String> systemIds) throws IOException {
+        Map<String,byte[]> documents = cache.get(getFingerprint(out, systemIds, false), 
+                new Callable<Map<String,byte[]>>() {
+            public Map<String,byte[]> call() throws IOException {
+                return generateDocuments(out, systemIds);
+            }
+        });
+        writeDocuments(out, documents);
+    }
+
+    /**
+     * Writes the prebuilt schema documents which are packaged with the bound
+     * classes (see {@link PrecompiledSchemas}), if they match.
+     *
+     * @return false if there are no matching prebuilt documents.
+     */
+    private boolean writePrecompiled(Map<Namespace,Result> out, Map<Namespace,String> systemIds,
+            Map<Namespace,String> suggestedNames) throws IOException {
+        if(!XmlSchemaEnhancer.PRECOMPILED_SCHEMAS_ENABLED.get())
+            return false;
+        ClassLoader loader = null;
+        for( Namespace n : namespaces.values() ) {
+            for( ClassInfo<T,C> c : n.classes ) {
+                if(c.getClazz() instanceof Class) {
+                    loader = ((Class<?>)c.getClazz()).getClassLoader();
+                    break;
+                }
+            }
+            if(loader != null)
+                break;
+        }
+        if(!PrecompiledSchemas.isAvailable(loader))
+            return false;
+        Map<String,byte[]> documents = PrecompiledSchemas.load(loader, getFingerprint(out, systemIds, true));
+        if(documents == null)
+            return false;
+        writeDocuments(out, relocate(documents, out, systemIds, suggestedNames));
+        return true;
+    }
+
+    /**
+     * The prebuilt documents refer to each other by the suggested file names
+     * (as system ids of the precompilation). Rewrites the schemaLocation of 
+     * their imports to the system ids of the given outputs.
+     *
+     * @return the relocated documents, by namespace URI.
+     */
+    private Map<String,byte[]> relocate(Map<String,byte[]> documents, Map<Namespace,Result> out,
+            Map<Namespace,String> systemIds, Map<Namespace,String> suggestedNames) throws IOException {
+        if(profile.isFastInfoset())
+            return documents;   // not relocatable, see getFingerprint
+        Map<String,byte[]> result = new HashMap<String,byte[]>(documents);
+        for( Namespace n : out.keySet() ) {
+            Map<String,String> locations = new HashMap<String,String>();
+            for( Namespace d : n.getDepends() ) {
+                String systemId = systemIds.get(d);
+                if(systemId==null || systemId.equals(""))
+                    continue;
+                String prebuilt = out.containsKey(d) ? suggestedNames.get(d) : systemId;
+                String from = relativize(prebuilt, suggestedNames.get(n));
+                String to = relativize(systemId, systemIds.get(n));
+                if(!from.equals(to))
+                    locations.put(escapeAttribute(from), escapeAttribute(to));
+            }
+            if(!locations.isEmpty())
+                result.put(n.uri, replaceSchemaLocations(documents.get(n.uri), locations));
+        }
+        return result;
+    }
+
+    /**
+     * @return the given document, with the given schemaLocation attribute values
+     * replaced (in a single pass, i.e., replaced values are not replaced again).
+     */
+    private static byte[] replaceSchemaLocations(byte[] document, Map<String,String> locations) throws IOException {
+        final String attribute = "schemaLocation=\"";
+        String xml = new String(document, "UTF-8");
+        StringBuilder b = new StringBuilder(xml.length());
+        int last = 0;
+        for( int i = xml.indexOf(attribute); i >= 0; i = xml.indexOf(attribute, last) ) {
+            int start = i + attribute.length();
+            int end = xml.indexOf('"', start);
+            if(end < 0)
+                break;
+            String location = locations.get(xml.substring(start, end));
+            b.append(xml, last, start).append(location != null ? location : xml.substring(start, end));
+            last = end;
+        }
+        b.append(xml, last, xml.length());
+        return b.toString().getBytes("UTF-8");
+    }
+
+    private static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * @return the generated schema documents of the given outputs, by namespace URI.
+     */
+    private Map<String,byte[]> generateDocuments(Map<Namespace,Result> out, 
+            Map<Namespace,String> systemIds) throws IOException {
+        // the serializers write slightly different output to streams and writers
+        Map<Namespace,Result> buffers = new LinkedHashMap<Namespace,Result>();
+        for( Map.Entry<Namespace,Result> e : out.entrySet() ) {
+            StreamResult buffer = ((StreamResult)e.getValue()).getOutputStream() != null ?
+                    new StreamResult(new ByteArrayOutputStream()) : new StreamResult(new StringWriter());
+            buffer.setSystemId(e.getValue().getSystemId());
+            buffers.put(e.getKey(), buffer);
+        }
+        writeAll(buffers, systemIds);
+        Map<String,byte[]> result = new HashMap<String,byte[]>();
+        for( Map.Entry<Namespace,Result> e : buffers.entrySet() ) {
+            StreamResult buffer = (StreamResult)e.getValue();
+            result.put(e.getKey().uri, buffer.getOutputStream() != null ?
+                    ((ByteArrayOutputStream)buffer.getOutputStream()).toByteArray() :
+                    buffer.getWriter().toString().getBytes("UTF-8"));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the given schema documents (by namespace URI) to the given outputs.
+     */
+    private void writeDocuments(Map<Namespace,Result> out, Map<String,byte[]> documents) throws IOException {
+        for( Map.Entry<Namespace,Result> e : out.entrySet() ) {
+            byte[] bytes = documents.get(e.getKey().uri);
+            StreamResult result = (StreamResult)e.getValue();
+            if(result.getOutputStream() != null) {
+                OutputStream os = result.getOutputStream();
+                os.write(bytes);
+                os.close();
+            } else {
+                Writer writer = result.getWriter();
+                writer.write(new String(bytes, "UTF-8"));
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * @param precompiled whether the fingerprint identifies prebuilt documents,
+     * which are relocated to the system ids of the outputs (see relocate).
+     * @return the fingerprint of the contents of this generator, which
+     * identifies the generated schema documents in the {@link SchemaCache}.
+     */
+    private SchemaCache.Fingerprint getFingerprint(Map<Namespace,Result> out, Map<Namespace,String> systemIds,
+            boolean precompiled) {
+        SchemaCache.Fingerprint fp = new SchemaCache.Fingerprint();
+        fp.add("xsd11", String.valueOf(XmlSchemaEnhancer.XSD_11_ENABLED.get()));
+        fp.add("stax", String.valueOf(XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.get()));
+        fp.add("indented", String.valueOf(profile.isIndented()));
+        fp.add("fastInfoset", String.valueOf(profile.isFastInfoset()));
+        fp.add("sharedFacetTypes", String.valueOf(XmlSchemaEnhancer.SHARED_FACET_TYPES_ENABLED.get()));
+        fp.add("canonical", String.valueOf(canonical));
+        for( Namespace n : namespaces.values() ) {
+            fp.add("namespace", n.uri);
+            String systemId = systemIds.get(n);
+            if(precompiled && out.containsKey(n) && systemId != null && !systemId.equals("")
+                    && !profile.isFastInfoset())
+                systemId = "relocated";
+            fp.add("systemId", systemId);
+            Result result = out.get(n);
+            fp.add("output", result == null ? null : 
+                    ((StreamResult)result).getOutputStream() != null ? "stream" : "writer");
+            for( ClassInfo<T,C> c : ordered(n.classes) ) {
+                fp.addType(navigator.getClassName(c.getClazz()), c.getClazz());
+                // the adapters determine the types of the properties
+                for( PropertyInfo<T,C> p : c.getProperties() ) {
+                    Adapter<T,C> adapter = p.getAdapter();
+                    if(adapter != null)
+                        fp.addType(navigator.getClassName(adapter.adapterType), adapter.adapterType);
+                }
+            }
+            for( EnumLeafInfo<T,C> e : ordered(n.enums) )
+                fp.addType(navigator.getClassName(e.getClazz()), e.getClazz());
+            for( ArrayInfo<T,C> a : ordered(n.arrays) )
+                fp.addType(navigator.getTypeName(a.getType()), a.getType());
+            for( Map.Entry<String,Namespace.ElementDeclaration> e : n.elementDecls.entrySet() ) {
+                fp.add("element", e.getKey());
+                e.getValue().addTo(fp);
+            }
+        }
+        return fp;
+    }
+
+    private void writeAndClose(Namespace n, Result result, Map<Namespace,String> systemIds) throws IOException {
+        n.writeTo( result, systemIds );
+        if(result instanceof StreamResult) {
+            OutputStream outputStream = ((StreamResult)result).getOutputStream();
+            if(outputStream != null) {
+                outputStream.close(); // fix for bugid: 6291301
+            } else {
+                final Writer writer = ((StreamResult)result).getWriter();
+                if(writer != null) writer.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the schema documents of the namespaces concurrently, using {@link #executor}.
+     * The first failure (in the order of the namespaces) is reported to the 
+     * {@link ErrorListener} and thrown; on failure or interrupt, the documents which 
+     * are still pending are cancelled (and their writers interrupted).
+     */
+    private void writeConcurrently(Map<Namespace,Result> out, final Map<Namespace,String> systemIds) throws IOException {
+        final ErrorListener listener = errorListener;
+        if(listener != null) {
+            // the listener may be invoked from several threads
+            errorListener = new ErrorListener() {
+                public synchronized void error(SAXParseException e) { listener.error(e); }
+                public synchronized void fatalError(SAXParseException e) { listener.fatalError(e); }
+                public synchronized void warning(SAXParseException e) { listener.warning(e); }
+                public synchronized void info(SAXParseException e) { listener.info(e); }
+            };
+        }
+        Map<Namespace,FutureTask<Void>> tasks = new LinkedHashMap<Namespace,FutureTask<Void>>();
+        boolean completed = false;
+        try {
+            // the constraint mappers are resolved via the context class loader of the caller
+            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            for( final Map.Entry<Namespace,Result> e : out.entrySet() ) {
+                FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        Thread thread = Thread.currentThread();
+                        ClassLoader before = thread.getContextClassLoader();
+                        thread.setContextClassLoader(contextClassLoader);
+                        try {
+                            writeAndClose(e.getKey(), e.getValue(), systemIds);
+                        } finally {
+                            thread.setContextClassLoader(before);
+                        }
+                        return null;
+                    }
+                });
+                tasks.put(e.getKey(), task);
+                executor.execute(task);
+            }
+            Throwable failure = null;
+            for( Map.Entry<Namespace,FutureTask<Void>> e : tasks.entrySet() ) {
+                try {
+                    e.getValue().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw (IOException)new InterruptedIOException("Interrupted while writing schema for namespace '" + 
+                            e.getKey().uri + "'").initCause(ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if(errorListener != null) {
+                        errorListener.error(new SAXParseException("Unable to write schema for namespace '" + 
+                                e.getKey().uri + "': " + cause, null, cause instanceof Exception ? (Exception)cause : ex));
+                    }
+                    failure = cause;
+                    break;
                 }
             }
+            completed = failure == null;
+            if(failure instanceof IOException) {
+                throw (IOException)failure;
+            } else if(failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            } else if(failure instanceof Error) {
+                throw (Error)failure;
+            } else if(failure != null) {
+                throw (IOException)new IOException(failure.toString()).initCause(failure);
+            }
+        } finally {
+            // do not leave the remaining documents being written after an interrupt or failure
+            if(!completed) {
+                for( FutureTask<Void> task : tasks.values() )
+                    task.cancel(true);
+            }
+            // the wrapper is only used for this call
+            errorListener = listener;
         }
     }
+    //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
 
 
+    //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+    /**
+     * A pending reference of a namespace, other than a component name (non-generic,
+     * so that the pending references can be examined without unchecked casts).
+     */
+    private interface PendingReference {
+        void resolve();
+    }
+    //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
     /**
      * Schema components are organized per namespace.
      */
     private class Namespace {
         final @NotNull String uri;
 
+        /**
+         * Used to detect cycles in anonymous types (per namespace, since
+         * the namespaces may be written concurrently).
+         */
+        private final CollisionCheckStack<ClassInfo<T,C>> collisionChecker = new CollisionCheckStack<ClassInfo<T,C>>();
+
         /**
          * Other {@link Namespace}s that this namespace depends on.
          */
@@ -529,6 +1053,14 @@ public final class XmlSchemaGenerator<T,C,F,M> {
          */
         private boolean selfReference;
 
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        /**
+         * Facet restrictions which are written as shared named simpleTypes
+         * (null unless enabled, see {@link XmlSchemaEnhancer#SHARED_FACET_TYPES_ENABLED}).
+         */
+        private SharedFacetTypes sharedFacetTypes;
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
         /**
          * List of classes in this namespace.
          */
@@ -570,6 +1102,18 @@ public final class XmlSchemaGenerator<T,C,F,M> {
          */
         private boolean useMimeNs;
 
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        /**
+         * References of this namespace which have not been examined yet, in the
+         * order in which they were added: the {@link QName}s of referenced
+         * components and the {@link PropertyReferences} of properties. They are
+         * only examined (see {@link #resolve()}) if this namespace is written, i.e.,
+         * namespaces which the {@link SchemaOutputResolver} does not ask for cost
+         * nothing besides collecting their classes.
+         */
+        private java.util.List<Object> pending = new ArrayList<Object>();
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
         public Namespace(String uri) {
             this.uri = uri;
             assert !XmlSchemaGenerator.this.namespaces.containsKey(uri);
@@ -601,6 +1145,53 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             }
         }
 
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        /**
+         * Examines the pending references of this namespace, i.e., computes the
+         * dependencies to other namespaces (which may add new namespaces) and
+         * the imports of attachment types. Must be called before this namespace
+         * is written, and not concurrently with other namespaces.
+         */
+        private void resolve() {
+            if(pending == null)
+                return;
+            java.util.List<Object> refs = pending;
+            pending = null;
+            for( Object ref : refs ) {
+                if(ref == null || ref instanceof QName) {
+                    addDependencyTo((QName)ref);
+                    continue;
+                }
+                ((PendingReference)ref).resolve();
+            }
+        }
+
+        /**
+         * A property whose references to other namespaces are examined when
+         * the namespace is resolved.
+         */
+        private final class PropertyReferences implements PendingReference {
+            final PropertyInfo<T,C> property;
+            /** whether swaRef and mime types of the property are imported */
+            final boolean attachments;
+
+            PropertyReferences(PropertyInfo<T,C> property, boolean attachments) {
+                this.property = property;
+                this.attachments = attachments;
+            }
+
+            public void resolve() {
+                processForeignNamespaces(property, 1);
+                if(attachments) {
+                    if(generateSwaRefAdapter(property))
+                        useSwaRef = true;
+                    if(property.getExpectedMimeType() != null)
+                        useMimeNs = true;
+                }
+            }
+        }
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
         private void addDependencyTo(@Nullable QName qname) {
             // even though the Element interface says getElementName() returns non-null,
             // ClassInfo always implements Element (even if an instance of ClassInfo might not be an Element).
@@ -636,20 +1227,31 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             logger.fine("Started JAXB-Facets enabled XmlSchemaGenerator (package com.sun.xml.bind.*).");
             /* end added by hummer@infosys.tuwien.ac.at */
             try {
-                Schema schema = TXW.create(Schema.class,ResultFactory.createSerializer(result));
+                //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                XmlSerializer serializer = SchemaSerializers.createSerializer(result, profile, outputFactory);
+                if(canonical)
+                    serializer = CanonicalSchemas.createSerializer(serializer);
+                Schema schema = TXW.create(Schema.class, serializer);
+                //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
                 // additional namespace declarations to be made.
                 Map<String, String> xmlNs = types.getXmlNs(uri);
+                //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                if(canonical)
+                    xmlNs = new TreeMap<String, String>(xmlNs);
+                //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
-                for (Map.Entry<String, String> e : xmlNs.entrySet()) {
-                    schema._namespace(e.getValue(),e.getKey());
+                //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                if(XmlSchemaEnhancer.SHARED_FACET_TYPES_ENABLED.get()) {
+                    sharedFacetTypes = collectSharedFacetTypes();
+                    if(!sharedFacetTypes.isEmpty())
+                        selfReference = true;
                 }
+                //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
-                if(useSwaRef)
-                    schema._namespace(WellKnownNamespace.SWA_URI,"swaRef");
-
-                if(useMimeNs)
-                    schema._namespace(WellKnownNamespace.XML_MIME_URI,"xmime");
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                declareNamespaces(schema, xmlNs);
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
 
                 attributeFormDefault = Form.get(types.getAttributeFormDefault(uri));
                 attributeFormDefault.declare("attributeFormDefault",schema);
@@ -658,30 +1260,14 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                 // TODO: if elementFormDefault is UNSET, figure out the right default value to use
                 elementFormDefault.declare("elementFormDefault",schema);
 
-
-                // declare XML Schema namespace to be xs, but allow the user to override it.
-                // if 'xs' is used for other things, we'll just let TXW assign a random prefix
-                if(!xmlNs.containsValue(WellKnownNamespace.XML_SCHEMA)
-                && !xmlNs.containsKey("xs"))
-                    schema._namespace(WellKnownNamespace.XML_SCHEMA,"xs");
                 schema.version("1.0");
 
                 if(uri.length()!=0)
                     schema.targetNamespace(uri);
 
-                // declare prefixes for them at this level, so that we can avoid redundant
-                // namespace declarations
-                for (Namespace ns : depends) {
-                    schema._namespace(ns.uri);
-                }
-
-                if(selfReference && uri.length()!=0) {
-                    // use common 'tns' prefix for the own namespace
-                    // if self-reference is needed
-                    schema._namespace(uri,"tns");
-                }
-
-                schema._pcdata(newline);
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                newline(schema);
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
 
                 //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
                 // add <documentation> to <schema> top level element (package-level @Documentation)
@@ -689,7 +1275,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                 //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
                 
                 // refer to other schemas
-                for( Namespace n : depends ) {
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                for( Namespace n : getDepends() ) {
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                     Import imp = schema._import();
                     if(n.uri.length()!=0)
                         imp.namespace(n.uri);
@@ -698,7 +1286,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                         // "" means implied. null if the SchemaOutputResolver said "don't generate!"
                         imp.schemaLocation(relativize(refSystemId,result.getSystemId()));
                     }
-                    schema._pcdata(newline);
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
                 if(useSwaRef) {
                     schema._import().namespace(WellKnownNamespace.SWA_URI).schemaLocation("http://ws-i.org/profiles/basic/1.1/swaref.xsd");
@@ -707,32 +1297,63 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                     schema._import().namespace(WellKnownNamespace.XML_MIME_URI).schemaLocation("http://www.w3.org/2005/05/xmlmime");
                 }
 
+                //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                SchemaFragmentCache fragmentCache = XmlSchemaEnhancer.FRAGMENT_CACHE.get();
+                String fragmentContext = fragmentCache == null ? null : getFragmentContext(xmlNs);
+                //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
                 // then write each component
                 for (Map.Entry<String,ElementDeclaration> e : elementDecls.entrySet()) {
                     e.getValue().writeTo(e.getKey(),schema);
-                    schema._pcdata(newline);
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
-                for (ClassInfo<T, C> c : classes) {
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                for (ClassInfo<T, C> c : ordered(classes)) {
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                     if (c.getTypeName()==null) {
                         // don't generate anything if it's an anonymous type
                         continue;
                     }
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
                     if(uri.equals(c.getTypeName().getNamespaceURI()))
-                        writeClass(c, schema);
-                    schema._pcdata(newline);
+                        writeFragment(c, schema, fragmentCache, fragmentContext, xmlNs);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
-                for (EnumLeafInfo<T, C> e : enums) {
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                for (EnumLeafInfo<T, C> e : ordered(enums)) {
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                     if (e.getTypeName()==null) {
                         // don't generate anything if it's an anonymous type
                         continue;
                     }
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
                     if(uri.equals(e.getTypeName().getNamespaceURI()))
-                        writeEnum(e,schema);
-                    schema._pcdata(newline);
+                        writeFragment(e, schema, fragmentCache, fragmentContext, xmlNs);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
-                for (ArrayInfo<T, C> a : arrays) {
+                //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                if(sharedFacetTypes != null) {
+                    for (QName name : sharedFacetTypes.getTypeNames()) {
+                        sharedFacetTypes.writeType(name, schema.simpleType());
+                        newline(schema);
+                    }
+                }
+                //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+                //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                for (ArrayInfo<T, C> a : ordered(arrays)) {
+                //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                     writeArray(a,schema);
-                    schema._pcdata(newline);
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
                 for (Map.Entry<String,AttributePropertyInfo<T,C>> e : attributeDecls.entrySet()) {
                     TopLevelAttribute a = schema.attribute();
@@ -741,7 +1362,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                         writeTypeRef(a,stringType,"type");
                     else
                         writeAttributeTypeRef(e.getValue(),a);
-                    schema._pcdata(newline);
+                    //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+                    newline(schema);
+                    //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
                 }
 
                 // close the schema
@@ -752,6 +1375,225 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             }
         }
 
+        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+        /**
+         * Declares the namespaces of the schema document on its root element
+         * (also used for the root elements of cached fragments, so that the
+         * fragments use the same prefixes).
+         */
+        private void declareNamespaces(Schema schema, Map<String, String> xmlNs) {
+            for (Map.Entry<String, String> e : xmlNs.entrySet()) {
+                schema._namespace(e.getValue(),e.getKey());
+            }
+
+            if(useSwaRef)
+                schema._namespace(WellKnownNamespace.SWA_URI,"swaRef");
+
+            if(useMimeNs)
+                schema._namespace(WellKnownNamespace.XML_MIME_URI,"xmime");
+
+            // declare XML Schema namespace to be xs, but allow the user to override it.
+            // if 'xs' is used for other things, we'll just let TXW assign a random prefix
+            if(!xmlNs.containsValue(WellKnownNamespace.XML_SCHEMA)
+            && !xmlNs.containsKey("xs"))
+                schema._namespace(WellKnownNamespace.XML_SCHEMA,"xs");
+
+            // declare prefixes for them at this level, so that we can avoid redundant
+            // namespace declarations
+            for (Namespace ns : getDepends()) {
+                schema._namespace(ns.uri);
+            }
+
+            if(selfReference && uri.length()!=0) {
+                // use common 'tns' prefix for the own namespace
+                // if self-reference is needed
+                schema._namespace(uri,"tns");
+            }
+        }
+
+        /**
+         * @return the part of the fragment keys which is common to all types of
+         * this namespace, i.e., everything that determines the namespace prefixes 
+         * and the element/attribute forms, as well as the enhancer settings and
+         * the canonical mode.
+         */
+        private String getFragmentContext(Map<String, String> xmlNs) {
+            StringBuilder b = new StringBuilder(uri);
+            b.append('|').append(xmlNs);
+            b.append('|').append(useSwaRef).append('|').append(useMimeNs);
+            b.append('|').append(selfReference);
+            for (Namespace ns : getDepends()) {
+                b.append('|').append(ns.uri);
+            }
+            b.append('|').append(attributeFormDefault).append('|').append(elementFormDefault);
+            b.append('|').append(XmlSchemaEnhancer.XSD_11_ENABLED.get());
+            b.append('|').append(XmlSchemaEnhancer.FACET_INDEX_ENABLED.get());
+            b.append('|').append(sharedFacetTypes).append('|').append(canonical);
+            return b.toString();
+        }
+
+        /**
+         * @return the namespaces which this namespace depends on, ordered by
+         * their URIs in canonical mode.
+         */
+        private Collection<Namespace> getDepends() {
+            if(!canonical)
+                return depends;
+            Map<String,Namespace> sorted = new TreeMap<String,Namespace>();
+            for (Namespace ns : depends) {
+                sorted.put(ns.uri, ns);
+            }
+            return sorted.values();
+        }
+
+        /**
+         * Registers the facet restrictions of the local elements and attributes
+         * of the types of this namespace, and names those which are used more
+         * than once (see {@link SharedFacetTypes}).
+         */
+        private SharedFacetTypes collectSharedFacetTypes() {
+            SharedFacetTypes shared = new SharedFacetTypes();
+            Set<String> typeNames = new HashSet<String>();
+            for (ClassInfo<T, C> c : ordered(classes)) {
+                if (c.getTypeName() != null) {
+                    if (!uri.equals(c.getTypeName().getNamespaceURI()))
+                        continue;
+                    typeNames.add(c.getTypeName().getLocalPart());
+                }
+                for (PropertyInfo<T, C> p : c.getProperties()) {
+                    if (p instanceof AttributePropertyInfo) {
+                        AttributePropertyInfo<T, C> ap = (AttributePropertyInfo<T, C>) p;
+                        // attributes of other namespaces are written as refs
+                        if (ap.getXmlName().getNamespaceURI().equals(""))
+                            shared.add(ap);
+                    } else if (p instanceof ElementPropertyInfo) {
+                        for (TypeRef<T, C> t : ((ElementPropertyInfo<T, C>) p).getTypes()) {
+                            // facets are only written for class targets (see XmlSchemaEnhancer.addFacets)
+                            if (!canBeDirectElementRef(t, t.getTagName(), c) && XmlSchemaEnhancer.hasFacetTarget(t))
+                                shared.add(t);
+                        }
+                    }
+                }
+            }
+            for (EnumLeafInfo<T, C> e : enums) {
+                if (e.getTypeName() != null)
+                    typeNames.add(e.getTypeName().getLocalPart());
+            }
+            for (ArrayInfo<T, C> a : arrays) {
+                if (a.getTypeName() != null)
+                    typeNames.add(a.getTypeName().getLocalPart());
+            }
+            shared.assignNames(uri, typeNames);
+            return shared;
+        }
+
+        /**
+         * Writes the definition of the given class or enum, using the fragment 
+         * cache if available.
+         */
+        private void writeFragment(NonElement<T,C> type, Schema schema, SchemaFragmentCache cache, 
+                String context, Map<String, String> xmlNs) {
+            String key = null;
+            if(cache != null) {
+                SchemaCache.Fingerprint fp = new SchemaCache.Fingerprint();
+                fp.add("context", context);
+                if(addFragmentKey(fp, type, new HashSet<TypeInfo<T,C>>()))
+                    key = fp.getDigest();
+            }
+            if(key == null) {
+                writeType(type, schema);
+                return;
+            }
+            SchemaFragmentCache.Fragment fragment = cache.get(key);
+            if(fragment == null) {
+                // render the type into a separate document with the same namespace declarations
+                SchemaFragmentCache.Recorder recorder = new SchemaFragmentCache.Recorder();
+                Schema root = TXW.create(Schema.class, recorder);
+                declareNamespaces(root, xmlNs);
+                writeType(type, root);
+                root.commit();
+                fragment = recorder.getFragment();
+                cache.put(key, fragment);
+            }
+            fragment.replay(schema);
+        }
+
+        private void writeType(NonElement<T,C> type, Schema schema) {
+            if(type instanceof ClassInfo)
+                writeClass((ClassInfo<T,C>)type, schema);
+            else
+                writeEnum((EnumLeafInfo<T,C>)type, schema);
+        }
+
+        /**
+         * Adds everything which determines the schema definition of the given
+         * class or enum to the fingerprint: the bytecode of the type, the XML names
+         * of the type and its properties, and the XML names of the referenced types
+         * (or the fingerprints of the referenced anonymous types, which are written
+         * in place).
+         * 
+         * @return false if the type cannot be fingerprinted (e.g., no class file).
+         */
+        private boolean addFragmentKey(SchemaCache.Fingerprint fp, TypeInfo<T,C> type, Set<TypeInfo<T,C>> visited) {
+            if(!visited.add(type)) {
+                fp.add("cycle", null);
+                return true;
+            }
+            if(type instanceof ClassInfo) {
+                ClassInfo<T,C> c = (ClassInfo<T,C>)type;
+                String digest = SchemaFragmentCache.getClassDigest(c.getClazz());
+                if(digest == null)
+                    return false;
+                fp.add("class", digest);
+                fp.add("typeName", String.valueOf(c.getTypeName()));
+                fp.add("elementName", c.isElement() ? String.valueOf(c.getElementName()) : null);
+                if(c.getBaseClass() != null)
+                    fp.add("base", String.valueOf(c.getBaseClass().getTypeName()));
+                for (PropertyInfo<T,C> p : c.getProperties()) {
+                    fp.add("property", p.getName());
+                    if(p instanceof ElementPropertyInfo) {
+                        for (TypeRef<T,C> tref : ((ElementPropertyInfo<T,C>)p).getTypes())
+                            fp.add("tag", String.valueOf(tref.getTagName()));
+                    }
+                    if(p instanceof AttributePropertyInfo)
+                        fp.add("attribute", String.valueOf(((AttributePropertyInfo<T,C>)p).getXmlName()));
+                    for (TypeInfo<T,C> t : p.ref()) {
+                        if(!addReferenceKey(fp, t, visited))
+                            return false;
+                    }
+                }
+                return true;
+            }
+            if(type instanceof EnumLeafInfo) {
+                EnumLeafInfo<T,C> e = (EnumLeafInfo<T,C>)type;
+                String digest = SchemaFragmentCache.getClassDigest(e.getClazz());
+                if(digest == null)
+                    return false;
+                fp.add("enum", digest);
+                fp.add("typeName", String.valueOf(e.getTypeName()));
+                return addReferenceKey(fp, e.getBaseType(), visited);
+            }
+            return false;
+        }
+
+        private boolean addReferenceKey(SchemaCache.Fingerprint fp, TypeInfo<T,C> t, Set<TypeInfo<T,C>> visited) {
+            if(t instanceof Element)
+                fp.add("refElement", String.valueOf(((Element<T,C>)t).getElementName()));
+            if(t instanceof NonElement) {
+                QName tn = ((NonElement<T,C>)t).getTypeName();
+                if(tn != null) {
+                    fp.add("refType", tn.toString());
+                } else if(t instanceof ClassInfo || t instanceof EnumLeafInfo) {
+                    // anonymous types are written in place
+                    return addFragmentKey(fp, t, visited);
+                } else {
+                    fp.add("refAnonymous", navigator.getTypeName(((NonElement<T,C>)t).getType()));
+                }
+            }
+            return true;
+        }
+        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
+
         /**
          * Writes a type attribute (if the referenced type is a global type)
          * or writes out the definition of the anonymous type in place (if the referenced
@@ -1040,11 +1882,11 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             }
 
             // then attributes
-            for (PropertyInfo<T,C> p : c.getProperties()) {
-                if (p instanceof AttributePropertyInfo) {
-                    handleAttributeProp((AttributePropertyInfo<T,C>)p, contentModel);
-                }
+            //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+            for (AttributePropertyInfo<T,C> ap : getAttributes(c)) {
+                handleAttributeProp(ap, contentModel);
             }
+            //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
             if( c.hasAttributeWildcard()) {
                 contentModel.anyAttribute().namespace("##other").processContents("skip");
             }
@@ -1130,6 +1972,9 @@ public final class XmlSchemaGenerator<T,C,F,M> {
 
                         PropertyInfo propInfo = t.getSource();
                         TypeInfo parentInfo = (propInfo == null) ? null : propInfo.parent();
+                        //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+                        QName sharedType = null;
+                        //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
                         if (canBeDirectElementRef(t, tn, parentInfo)) {
                             if ((!t.getTarget().isSimpleType()) && (t.getTarget() instanceof ClassInfo) && collisionChecker.findDuplicate((ClassInfo<T, C>) t.getTarget())) {
@@ -1160,7 +2005,11 @@ public final class XmlSchemaGenerator<T,C,F,M> {
                             e.name(tn.getLocalPart());
 			    
                             //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
-                            if(!XmlSchemaEnhancer.hasFacets(t)) {
+                            if(sharedFacetTypes != null)
+                                sharedType = sharedFacetTypes.getTypeName(t);
+                            if(sharedType != null) {
+                                e.type(sharedType);
+                            } else if(!XmlSchemaEnhancer.hasFacets(t)) {
                             //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
                                 writeTypeRef(e,t, "type");
                             }
@@ -1182,7 +2031,8 @@ public final class XmlSchemaGenerator<T,C,F,M> {
 
                         //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
                         XmlSchemaEnhancer.addXsdExtensionsAtStart(t, e);
-                        XmlSchemaEnhancer.addFacets(t, e);
+                        if(sharedType == null)
+                            XmlSchemaEnhancer.addFacets(t, e);
                         //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
                     }
                 });
@@ -1310,13 +2160,20 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             // or it could also be an in-lined type (attr ref)
             //
             LocalAttribute localAttribute = attr.attribute();
+            //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+            QName sharedType = null;
+            //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 
             final String attrURI = ap.getXmlName().getNamespaceURI();
             if (attrURI.equals("") /*|| attrURI.equals(uri) --- those are generated as global attributes anyway, so use them.*/) {
                 localAttribute.name(ap.getXmlName().getLocalPart());
 
                 //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
-                if(!XmlSchemaEnhancer.hasFacets(ap)) {
+                if(sharedFacetTypes != null)
+                    sharedType = sharedFacetTypes.getTypeName(ap);
+                if(sharedType != null) {
+                    localAttribute.type(sharedType);
+                } else if(!XmlSchemaEnhancer.hasFacets(ap)) {
                 //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
                     writeAttributeTypeRef(ap, localAttribute);
                 }
@@ -1333,7 +2190,8 @@ public final class XmlSchemaGenerator<T,C,F,M> {
 
             //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
             XmlSchemaEnhancer.addXsdExtensionsAtStart(ap, localAttribute);
-            XmlSchemaEnhancer.addFacets(ap, localAttribute);
+            if(sharedType == null)
+                XmlSchemaEnhancer.addFacets(ap, localAttribute);
             //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
         }
 
@@ -1473,12 +2331,16 @@ public final class XmlSchemaGenerator<T,C,F,M> {
 
         public void addGlobalAttribute(AttributePropertyInfo<T,C> ap) {
             attributeDecls.put( ap.getXmlName().getLocalPart(), ap );
-            addDependencyTo(ap.getTarget().getTypeName());
+            //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+            pending.add(ap.getTarget().getTypeName());
+            //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
         }
 
         public void addGlobalElement(TypeRef<T,C> tref) {
             elementDecls.put( tref.getTagName().getLocalPart(), new ElementWithType(false,tref.getTarget()) );
-            addDependencyTo(tref.getTarget().getTypeName());
+            //jaxb-facets: begin changed by hummer@infosys.tuwien.ac.at
+            pending.add(tref.getTarget().getTypeName());
+            //jaxb-facets: end changed by hummer@infosys.tuwien.ac.at
         }
 
         @Override
@@ -1519,6 +2381,13 @@ public final class XmlSchemaGenerator<T,C,F,M> {
              * Generates the declaration.
              */
             public abstract void writeTo(String localName, Schema schema);
+
+            //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+            /**
+             * Adds the declaration to the fingerprint of the generated schema.
+             */
+            public abstract void addTo(SchemaCache.Fingerprint fp);
+            //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
         }
 
         /**
@@ -1556,6 +2425,14 @@ public final class XmlSchemaGenerator<T,C,F,M> {
             public int hashCode() {
                 return type.hashCode();
             }
+
+            //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+            public void addTo(SchemaCache.Fingerprint fp) {
+                fp.add("nillable", String.valueOf(nillable));
+                if(type != null)
+                    fp.addType(navigator.getTypeName(type.getType()), type.getType());
+            }
+            //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
         }
     }
 
@@ -1704,4 +2581,70 @@ public final class XmlSchemaGenerator<T,C,F,M> {
     };
 
     private static final String newline = "\n";
+
+    //jaxb-facets: begin added by hummer@infosys.tuwien.ac.at
+    /**
+     * Orders the types by their names (anonymous types last) in canonical mode.
+     */
+    private final Comparator<NonElement<T,C>> typeOrder = new Comparator<NonElement<T,C>>() {
+        public int compare(NonElement<T,C> lhs, NonElement<T,C> rhs) {
+            QName l = lhs.getTypeName();
+            QName r = rhs.getTypeName();
+            if(l != null && r != null) {
+                int c = l.getNamespaceURI().compareTo(r.getNamespaceURI());
+                if(c == 0)
+                    c = l.getLocalPart().compareTo(r.getLocalPart());
+                if(c != 0)
+                    return c;
+            } else if(l != null || r != null) {
+                return l == null ? 1 : -1;
+            }
+            return navigator.getTypeName(lhs.getType()).compareTo(navigator.getTypeName(rhs.getType()));
+        }
+    };
+
+    /**
+     * @return the given types, ordered by their names in canonical mode.
+     */
+    private <X extends NonElement<T,C>> Collection<X> ordered(Collection<X> types) {
+        if(!canonical)
+            return types;
+        java.util.List<X> sorted = new ArrayList<X>(types);
+        Collections.sort(sorted, typeOrder);
+        return sorted;
+    }
+
+    /**
+     * @return the attribute properties of the given class, ordered by their
+     * names in canonical mode.
+     */
+    private java.util.List<AttributePropertyInfo<T,C>> getAttributes(ClassInfo<T,C> c) {
+        java.util.List<AttributePropertyInfo<T,C>> attributes = new ArrayList<AttributePropertyInfo<T,C>>();
+        for (PropertyInfo<T,C> p : c.getProperties()) {
+            if (p instanceof AttributePropertyInfo) {
+                attributes.add((AttributePropertyInfo<T,C>)p);
+            }
+        }
+        if(canonical) {
+            Collections.sort(attributes, new Comparator<AttributePropertyInfo<T,C>>() {
+                public int compare(AttributePropertyInfo<T,C> lhs, AttributePropertyInfo<T,C> rhs) {
+                    QName l = lhs.getXmlName();
+                    QName r = rhs.getXmlName();
+                    int c = l.getNamespaceURI().compareTo(r.getNamespaceURI());
+                    return c != 0 ? c : l.getLocalPart().compareTo(r.getLocalPart());
+                }
+            });
+        }
+        return attributes;
+    }
+
+    /**
+     * Separates the top-level components of a schema document by a blank
+     * line, unless the output profile is compact.
+     */
+    private void newline(Schema schema) {
+        if(profile.isIndented())
+            schema._pcdata(newline);
+    }
+    //jaxb-facets: end added by hummer@infosys.tuwien.ac.at
 }
@@ -0,0 +1,77 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.AppInfo;
+import javax.xml.bind.annotation.Documentation;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.MaxOccurs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.test.XmlTestType;
+
+/**
+ * Tests for the immutable annotation implementations (e.g., {@link FacetsImpl}).
+ */
+public class AnnotationImplTest {
+
+    @Test
+    public void testEqualsCompiledAnnotation() throws Exception {
+        Facets compiled = XmlTestType.class.getDeclaredField("foo").getAnnotation(Facets.class);
+        Facets built = FacetsImpl.builder().length(100).pattern("[a-z]+").build();
+
+        Assert.assertEquals(Facets.class, built.annotationType());
+        Assert.assertEquals(compiled, built);
+        Assert.assertEquals(built, compiled);
+        Assert.assertEquals(compiled.hashCode(), built.hashCode());
+        Assert.assertFalse(built.equals(FacetsImpl.builder().length(99).pattern("[a-z]+").build()));
+
+        AppInfo appinfo = XmlTestType.class.getDeclaredField("foo").getAnnotation(AppInfo.class);
+        AppInfo builtAppinfo = AppInfoImpl.builder().source("src 1").
+                value("<foo xmlns=\"myns123\">appinfo 1</foo>").build();
+        Assert.assertEquals(appinfo, builtAppinfo);
+        Assert.assertEquals(appinfo.hashCode(), builtAppinfo.hashCode());
+
+        MaxOccurs max = XmlTestType.class.getDeclaredField("bar").getAnnotation(MaxOccurs.class);
+        Assert.assertEquals(max, MaxOccursImpl.builder().value(10).build());
+        Assert.assertEquals(max.hashCode(), MaxOccursImpl.builder().value(10).build().hashCode());
+
+        javax.xml.bind.annotation.Annotation anno = XmlTestType.class.getAnnotation(
+                javax.xml.bind.annotation.Annotation.class);
+        javax.xml.bind.annotation.Annotation builtAnno = AnnotationImpl.builder().id("anno1").
+                documentation(DocumentationImpl.builder().value("doc 1").lang("en").source("src 1").build(),
+                        DocumentationImpl.builder().value("doc 2").build()).build();
+        Assert.assertEquals(anno, builtAnno);
+        Assert.assertEquals(anno.hashCode(), builtAnno.hashCode());
+    }
+
+    @Test
+    public void testCreateFromValues() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("maxLength", 10);
+        values.put("enumeration", new Object[] { "a", "b" });
+        values.put("whiteSpace", "collapse");
+        Facets facets = AnnotationUtils.createAnnotation(Facets.class, values);
+
+        Assert.assertTrue(facets instanceof FacetsImpl);
+        Assert.assertEquals(10L, facets.maxLength());
+        Assert.assertArrayEquals(new String[] { "a", "b" }, facets.enumeration());
+        Assert.assertEquals(Facets.WhiteSpace.collapse, facets.whiteSpace());
+        Assert.assertEquals(Facets.VOID_LONG, facets.minLength());
+
+        /* values which do not match the member types result in a proxy */
+        values.put("maxLength", "not a number");
+        facets = AnnotationUtils.createAnnotation(Facets.class, values);
+        Assert.assertTrue(Proxy.isProxyClass(facets.getClass()));
+
+        Documentation doc = AnnotationUtils.createAnnotation(Documentation.class,
+                new HashMap<String, Object>());
+        Assert.assertEquals("", doc.source());
+        Assert.assertNull(doc.value());
+    }
+
+}
@@ -0,0 +1,39 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlElement;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the annotation proxies created by {@link AnnotationUtils}.
+ */
+public class AnnotationUtilsTest {
+
+    @Test
+    public void testProxyHandler() throws Exception {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", "foo");
+        XmlElement anno = AnnotationUtils.createAnnotationProxy(XmlElement.class, values);
+
+        Assert.assertEquals("foo", anno.name());
+        Assert.assertEquals(XmlElement.class, anno.annotationType());
+        Assert.assertEquals(anno, anno);
+        Assert.assertFalse(anno.equals(AnnotationUtils.createAnnotationProxy(XmlElement.class, values)));
+        Assert.assertNotNull(AnnotationUtils.getInvocationHandler(anno));
+        Assert.assertNull(AnnotationUtils.getInvocationHandler(FacetsImpl.builder().build()));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testProxiesAreNotRegistered() throws Exception {
+        int before = AnnotationUtils.PROXY_HANDLERS.size();
+        XmlElement anno = AnnotationUtils.createAnnotationProxy(XmlElement.class, new HashMap<String, Object>());
+        Assert.assertNotNull(AnnotationUtils.getInvocationHandler(anno));
+        Assert.assertEquals(before, AnnotationUtils.PROXY_HANDLERS.size());
+    }
+
+}
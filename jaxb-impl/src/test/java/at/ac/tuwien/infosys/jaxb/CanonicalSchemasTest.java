@@ -0,0 +1,114 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Tests for the canonical schema output and the digests of the documents, see {@link CanonicalSchemas}.
+ */
+public class CanonicalSchemasTest {
+
+    private static final String NS = "urn:canonical";
+
+    @XmlRootElement(namespace = NS)
+    @XmlType(namespace = NS)
+    public static class Zeta {
+        @XmlAttribute
+        public String zebra;
+        @XmlAttribute
+        public String aardvark;
+        @XmlElement(namespace = NS)
+        public Alpha alpha;
+    }
+
+    @XmlType(namespace = NS)
+    public static class Alpha {
+        @XmlElement(namespace = NS)
+        public String value;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder b = new StringBuilder();
+        for (byte x : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            b.append(String.format("%02x", x));
+        }
+        return b.toString();
+    }
+
+    @Test
+    public void testOrderIndependent() throws Exception {
+        InMemorySchemaResolver first = new InMemorySchemaResolver();
+        Map<String, String> firstDigests = CanonicalSchemas.generateSchema(
+                JAXBContext.newInstance(Zeta.class, Alpha.class), first);
+        InMemorySchemaResolver second = new InMemorySchemaResolver();
+        Map<String, String> secondDigests = CanonicalSchemas.generateSchema(
+                JAXBContext.newInstance(Alpha.class, Zeta.class), second);
+
+        String xsd = first.get(NS);
+        Assert.assertEquals(xsd, second.get(NS));
+        Assert.assertEquals(firstDigests, secondDigests);
+
+        /* types, attribute declarations and XML attributes in the order of their names */
+        Assert.assertTrue(xsd, xsd.indexOf("complexType name=\"alpha\"") < xsd.indexOf("complexType name=\"zeta\""));
+        Assert.assertTrue(xsd, xsd.indexOf("name=\"aardvark\"") < xsd.indexOf("name=\"zebra\""));
+        Assert.assertTrue(xsd, xsd.contains("<xs:element form=\"qualified\" minOccurs=\"0\" name=\"value\" type=\"xs:string\""));
+    }
+
+    @Test
+    public void testDigests() throws Exception {
+        InMemorySchemaResolver streams = new InMemorySchemaResolver();
+        Map<String, String> digests = CanonicalSchemas.generateSchema(
+                JAXBContext.newInstance(XmlSchemaGeneratorTest.TypeA.class), streams);
+        Assert.assertEquals(streams.getNamespaces(), digests.keySet());
+        for (String ns : digests.keySet()) {
+            Assert.assertEquals(sha256(streams.getBytes(ns)), digests.get(ns));
+        }
+        Assert.assertFalse(digests.get("urn:a").equals(digests.get("urn:b")));
+
+        /* documents written to writers have the digests of their UTF-8 encoding */
+        InMemorySchemaResolver writers = new InMemorySchemaResolver(true);
+        Map<String, String> writerDigests = CanonicalSchemas.generateSchema(
+                JAXBContext.newInstance(XmlSchemaGeneratorTest.TypeA.class), writers);
+        for (String ns : digests.keySet()) {
+            Assert.assertEquals(sha256(writers.get(ns).getBytes("UTF-8")), writerDigests.get(ns));
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        final Map<String, String> reported = new TreeMap<String, String>();
+        CanonicalSchemas.Listener listener = new CanonicalSchemas.Listener() {
+            public synchronized void schemaWritten(String namespaceUri, String systemId, String digest) {
+                reported.put(namespaceUri, systemId + "=" + digest);
+            }
+        };
+        XmlSchemaEnhancer.SCHEMA_DIGEST_LISTENER.set(listener);
+        try {
+            JAXBContext.newInstance(Zeta.class).generateSchema(new InMemorySchemaResolver());
+            Assert.assertTrue(reported.isEmpty());
+
+            XmlSchemaEnhancer.CANONICAL_OUTPUT_ENABLED.set(true);
+            InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+            JAXBContext.newInstance(Zeta.class).generateSchema(resolver);
+            Assert.assertEquals(1, reported.size());
+            Assert.assertEquals("schema1.xsd=" + sha256(resolver.getBytes(NS)),
+                    reported.get(NS));
+        } finally {
+            XmlSchemaEnhancer.CANONICAL_OUTPUT_ENABLED.set(false);
+            XmlSchemaEnhancer.SCHEMA_DIGEST_LISTENER.set(null);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Size;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.xml.bind.v2.model.runtime.RuntimeClassInfo;
+import com.sun.xml.bind.v2.runtime.JAXBContextImpl;
+
+/**
+ * Tests for {@link ConstraintMapperRegistry} and custom {@link ConstraintFacetMapper}s.
+ */
+public class ConstraintMapperRegistryTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public static @interface Range {
+        long min() default 0;
+        long max() default Long.MAX_VALUE;
+    }
+
+    public static class RangeMapper implements ConstraintFacetMapper {
+        public List<Class<? extends Annotation>> getConstraintTypes() {
+            return Collections.<Class<? extends Annotation>>singletonList(Range.class);
+        }
+        public void map(Annotation constraint, DerivedFacets facets) {
+            Range r = (Range) constraint;
+            facets.minInclusive(Long.toString(r.min()));
+            facets.maxInclusive(Long.toString(r.max()));
+        }
+    }
+
+    static class Constrained {
+        @Range(min = 1, max = 10)
+        @Max(5)
+        int range;
+        @Size(max = 20)
+        @Range(min = 3)
+        String name;
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class FieldBean {
+        @Max(5)
+        @Size(max = 20)
+        public String value;
+    }
+
+    public static class PropertyBean {
+        private String value;
+        @Size(max = 20)
+        public String getValue() {
+            return value;
+        }
+        @Max(5)
+        @Size(max = 30)
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void testCustomMapper() throws Exception {
+        List<ConstraintFacetMapper> mappers = new ArrayList<ConstraintFacetMapper>(
+                ValidationConstraintMappers.getMappers());
+        mappers.add(new RangeMapper());
+        ConstraintMapperRegistry registry = new ConstraintMapperRegistry(mappers);
+        Assert.assertTrue(registry.getConstraintTypes().contains(Range.class));
+
+        Field field = Constrained.class.getDeclaredField("range");
+        DerivedFacets derived = registry.derive(field);
+        /* built-in Max mapper is registered first and takes precedence */
+        Assert.assertEquals("5", derived.get("maxInclusive"));
+        Assert.assertEquals("1", derived.get("minInclusive"));
+
+        ValidationFacetsFilter filter = new ValidationFacetsFilter(registry);
+        Facets facets = (Facets) filter.filterAnnotation(Facets.class, null,
+                Constrained.class.getDeclaredField("name"));
+        Assert.assertEquals(20, facets.maxLength());
+        Assert.assertEquals("3", facets.minInclusive());
+    }
+
+    @Test
+    public void testDefaultRegistry() throws Exception {
+        ConstraintMapperRegistry registry = ConstraintMapperRegistry.getDefault();
+        Assert.assertSame(registry, ConstraintMapperRegistry.getDefault());
+        Assert.assertEquals(ValidationConstraintMappers.getMappers(),
+                registry.getMappers().subList(0, ValidationConstraintMappers.getMappers().size()));
+        Assert.assertFalse(registry.getConstraintTypes().contains(Range.class));
+        Assert.assertTrue(registry.derive(
+                Constrained.class.getDeclaredField("range")).get("minInclusive") == null);
+        Assert.assertEquals(Arrays.asList("5"), Arrays.asList(registry.derive(
+                Constrained.class.getDeclaredField("range")).get("maxInclusive")));
+    }
+
+    @Test
+    public void testDefaultRegistryPerClassLoader() throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[0]);
+        ConstraintMapperRegistry registry = ConstraintMapperRegistry.getDefault(loader);
+        Assert.assertSame(registry, ConstraintMapperRegistry.getDefault(loader));
+        Assert.assertNotSame(registry, ConstraintMapperRegistry.getDefault(getClass().getClassLoader()));
+
+        Thread thread = Thread.currentThread();
+        ClassLoader before = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            Assert.assertSame(registry, ConstraintMapperRegistry.getDefault());
+        } finally {
+            thread.setContextClassLoader(before);
+        }
+    }
+
+    @Test
+    public void testDeriveFromRuntimeProperties() throws Exception {
+        ConstraintMapperRegistry registry = ConstraintMapperRegistry.getDefault();
+
+        JAXBContextImpl ctx = (JAXBContextImpl) JAXBContext.newInstance(FieldBean.class);
+        RuntimeClassInfo ci = (RuntimeClassInfo) ctx.getTypeInfoSet().getTypeInfo(FieldBean.class);
+        DerivedFacets derived = registry.derive(ci.getProperty("value"));
+        Assert.assertEquals("5", derived.get("maxInclusive"));
+        Assert.assertEquals(20L, derived.get("maxLength"));
+
+        /* the constraints of the getter take precedence over those of the setter */
+        ctx = (JAXBContextImpl) JAXBContext.newInstance(PropertyBean.class);
+        ci = (RuntimeClassInfo) ctx.getTypeInfoSet().getTypeInfo(PropertyBean.class);
+        derived = registry.derive(ci.getProperty("value"));
+        Assert.assertEquals("5", derived.get("maxInclusive"));
+        Assert.assertEquals(20L, derived.get("maxLength"));
+    }
+
+}
@@ -0,0 +1,167 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlID;
+import javax.xml.bind.annotation.XmlIDREF;
+import javax.xml.bind.annotation.XmlList;
+import javax.xml.bind.annotation.XmlMimeType;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlValue;
+
+import at.ac.tuwien.infosys.jaxb.test.validation.ValidatedClass;
+
+import com.sun.xml.bind.v2.model.annotation.AnnotationSource;
+import com.sun.xml.bind.v2.model.runtime.RuntimeClassInfo;
+import com.sun.xml.bind.v2.model.runtime.RuntimePropertyInfo;
+import com.sun.xml.bind.v2.runtime.JAXBContextImpl;
+
+/**
+ * Micro benchmark which shows that the cost of deriving facets from the
+ * constraints of a property does not grow with the number of registered
+ * {@link ConstraintFacetMapper}s (which handle constraints not present on
+ * the property). Covers the fields, the runtime properties of a JAXB context
+ * (fields and getter/setter pairs) and annotation sources which cannot enumerate
+ * their annotations (for which each registered type is looked up). Run via the
+ * main method.
+ */
+public class ConstraintMappingBenchmark {
+
+    private static final int ITERATIONS = 200000;
+
+    private static final List<Class<? extends Annotation>> UNRELATED_TYPES = 
+            new ArrayList<Class<? extends Annotation>>();
+    static {
+        UNRELATED_TYPES.add(XmlAttribute.class);
+        UNRELATED_TYPES.add(XmlElementWrapper.class);
+        UNRELATED_TYPES.add(XmlID.class);
+        UNRELATED_TYPES.add(XmlIDREF.class);
+        UNRELATED_TYPES.add(XmlList.class);
+        UNRELATED_TYPES.add(XmlMimeType.class);
+        UNRELATED_TYPES.add(XmlTransient.class);
+        UNRELATED_TYPES.add(XmlValue.class);
+    }
+
+    private static class NoopMapper implements ConstraintFacetMapper {
+        private final List<Class<? extends Annotation>> types;
+        NoopMapper(Class<? extends Annotation> type) {
+            this.types = Collections.<Class<? extends Annotation>>singletonList(type);
+        }
+        public List<Class<? extends Annotation>> getConstraintTypes() {
+            return types;
+        }
+        public void map(Annotation constraint, DerivedFacets facets) {
+            facets.pattern(".*");
+        }
+    }
+
+    /** getter/setter counterpart of some of the properties of {@link ValidatedClass} */
+    public static class ValidatedBean {
+        private String size;
+        private int max;
+        private String pattern;
+
+        @javax.validation.constraints.Size(min = 7, max = 8)
+        public String getSize() {
+            return size;
+        }
+        public void setSize(String size) {
+            this.size = size;
+        }
+        @javax.validation.constraints.Max(3)
+        public int getMax() {
+            return max;
+        }
+        public void setMax(int max) {
+            this.max = max;
+        }
+        public String getPattern() {
+            return pattern;
+        }
+        @javax.validation.constraints.Pattern(regexp = "ABCDEFGHIJ")
+        public void setPattern(String pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /** an annotation source which cannot enumerate the annotations of the field */
+    private static final class FieldSource implements AnnotationSource {
+        private final Field field;
+        FieldSource(Field field) {
+            this.field = field;
+        }
+        public <A extends Annotation> A readAnnotation(Class<A> annotationType) {
+            return field.getAnnotation(annotationType);
+        }
+        public boolean hasAnnotation(Class<? extends Annotation> annotationType) {
+            return field.isAnnotationPresent(annotationType);
+        }
+    }
+
+    private static List<RuntimePropertyInfo> getProperties(Class<?> clazz) throws Exception {
+        JAXBContextImpl ctx = (JAXBContextImpl) JAXBContext.newInstance(clazz);
+        RuntimeClassInfo ci = (RuntimeClassInfo) ctx.getTypeInfoSet().getTypeInfo(clazz);
+        return new ArrayList<RuntimePropertyInfo>(ci.getProperties());
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Field> fields = new ArrayList<Field>();
+        List<AnnotationSource> fieldSources = new ArrayList<AnnotationSource>();
+        for (Field f : ValidatedClass.class.getDeclaredFields()) {
+            fields.add(f);
+            fieldSources.add(new FieldSource(f));
+        }
+        List<RuntimePropertyInfo> fieldProperties = getProperties(ValidatedClass.class);
+        List<RuntimePropertyInfo> beanProperties = getProperties(ValidatedBean.class);
+
+        for (int extra : new int[] { 0, 10, 100, 1000, 0, 10, 100, 1000 }) {
+            List<ConstraintFacetMapper> mappers = new ArrayList<ConstraintFacetMapper>(
+                    ValidationConstraintMappers.getMappers());
+            for (int i = 0; i < extra; i ++) {
+                mappers.add(new NoopMapper(UNRELATED_TYPES.get(i % UNRELATED_TYPES.size())));
+            }
+            ConstraintMapperRegistry registry = new ConstraintMapperRegistry(mappers);
+            int derived = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i ++) {
+                if (!registry.derive(fields.get(i % fields.size())).isEmpty()) {
+                    derived ++;
+                }
+            }
+            long fieldNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i ++) {
+                if (!registry.derive(fieldProperties.get(i % fieldProperties.size())).isEmpty()) {
+                    derived ++;
+                }
+            }
+            long fieldPropertyNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i ++) {
+                if (!registry.derive(beanProperties.get(i % beanProperties.size())).isEmpty()) {
+                    derived ++;
+                }
+            }
+            long beanPropertyNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i ++) {
+                if (!registry.derive(fieldSources.get(i % fieldSources.size())).isEmpty()) {
+                    derived ++;
+                }
+            }
+            long sourceNanos = System.nanoTime() - start;
+            System.out.println(String.format("%5d extra mappers: field %6.1f, field property %6.1f, "
+                    + "getter/setter property %6.1f, other source %7.1f ns/property (%d derived)",
+                    extra, (double) fieldNanos / ITERATIONS, (double) fieldPropertyNanos / ITERATIONS,
+                    (double) beanPropertyNanos / ITERATIONS, (double) sourceNanos / ITERATIONS, derived));
+        }
+    }
+
+}
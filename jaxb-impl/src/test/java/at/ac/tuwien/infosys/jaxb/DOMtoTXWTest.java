@@ -0,0 +1,47 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.StringWriter;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.TypedXmlWriter;
+import com.sun.xml.txw2.output.StreamSerializer;
+
+/**
+ * Tests for the XML embedding of {@link DOMtoTXW}.
+ */
+public class DOMtoTXWTest {
+
+    @Test
+    public void testConvert() throws Exception {
+        StringWriter out = new StringWriter();
+        TypedXmlWriter root = TXW.create(new QName("urn:r", "appinfo"),
+                TypedXmlWriter.class, new StreamSerializer(out));
+        new DOMtoTXW(root).convert("<foo:a xmlns:foo=\"urn:foo\" b=\"1\">x &amp; <c/>ä</foo:a>");
+        root.commit();
+        String xml = out.toString();
+        Assert.assertTrue(xml, xml.contains(":a b=\"1\" xmlns"));
+        Assert.assertTrue(xml, xml.contains("\"urn:foo\""));
+        Assert.assertTrue(xml, xml.contains("x &amp;"));
+        Assert.assertTrue(xml, xml.contains("<c/>"));
+        /* non-ASCII characters are not subject to the platform charset */
+        Assert.assertTrue(xml, xml.contains("&#228;"));
+    }
+
+    @Test
+    public void testParseCached() throws Exception {
+        String value = "<doc>cached " + System.nanoTime() + "</doc>";
+        SchemaFragmentCache.Fragment fragment = DOMtoTXW.parse(value);
+        Assert.assertNotNull(fragment);
+        Assert.assertSame(fragment, DOMtoTXW.parse(new String(value)));
+
+        Assert.assertNull(DOMtoTXW.parse("no XML"));
+        Assert.assertNull(DOMtoTXW.parse("<not> well-formed"));
+        Assert.assertNull(DOMtoTXW.parse(null));
+    }
+
+}
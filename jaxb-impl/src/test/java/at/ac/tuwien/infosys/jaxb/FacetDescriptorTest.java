@@ -0,0 +1,62 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import javax.xml.bind.annotation.Facets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.test.XmlTestType;
+
+/**
+ * Tests for the facet descriptor table used by {@link XmlSchemaEnhancer#getDefinedFacets(Facets)}.
+ */
+public class FacetDescriptorTest {
+
+    @Test
+    public void testDescriptors() throws Exception {
+        List<FacetDescriptor> descriptors = FacetDescriptor.getDescriptors();
+        Assert.assertEquals(Constants.FACET_NAMES.size(), descriptors.size());
+        for(int i = 1; i < descriptors.size(); i ++) {
+            Assert.assertTrue(descriptors.get(i - 1).getXsdName().compareTo(
+                    descriptors.get(i).getXsdName()) < 0);
+        }
+    }
+
+    @Test
+    public void testDefinedFacets() throws Exception {
+        Facets compiled = XmlTestType.class.getDeclaredField("foo").getAnnotation(Facets.class);
+        SortedMap<String, List<String>> facets = XmlSchemaEnhancer.getDefinedFacets(compiled);
+        Assert.assertEquals(Arrays.asList(Constants.FACET_LENGTH, Constants.FACET_PATTERN),
+                Arrays.asList(facets.keySet().toArray()));
+        Assert.assertEquals(Arrays.asList("100"), facets.get(Constants.FACET_LENGTH));
+        Assert.assertEquals(Arrays.asList("[a-z]+"), facets.get(Constants.FACET_PATTERN));
+
+        facets = XmlSchemaEnhancer.getDefinedFacets(FacetsImpl.builder().
+                enumeration("a", "b").whiteSpace(Facets.WhiteSpace.collapse).build());
+        Assert.assertEquals(Arrays.asList("a", "b"), facets.get(Constants.FACET_ENUMERATION));
+        Assert.assertEquals(Arrays.asList("collapse"), facets.get(Constants.FACET_WHITESPACE));
+        Assert.assertEquals(2, facets.size());
+
+        Assert.assertTrue(XmlSchemaEnhancer.getDefinedFacets(FacetsImpl.builder().build()).isEmpty());
+    }
+
+    @Test
+    public void testEmptyArraysUndefined() throws Exception {
+        FacetDescriptor enumeration = FacetDescriptor.getDescriptor("enumeration");
+        Assert.assertFalse(enumeration.isDefined(null));
+        Assert.assertFalse(enumeration.isDefined(new String[0]));
+        Assert.assertTrue(enumeration.isDefined(new String[] { "a" }));
+
+        /* no facets are defined: the same empty map is returned each time */
+        Facets empty = FacetsImpl.builder().enumeration().build();
+        SortedMap<String, List<String>> facets = XmlSchemaEnhancer.getDefinedFacets(empty);
+        Assert.assertTrue(facets.isEmpty());
+        Assert.assertSame(facets, XmlSchemaEnhancer.getDefinedFacets(null));
+        Assert.assertFalse(XmlSchemaEnhancer.hasFacets(empty));
+    }
+
+}
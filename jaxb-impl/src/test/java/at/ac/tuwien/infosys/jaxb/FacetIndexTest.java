@@ -0,0 +1,140 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.constraints.Size;
+import javax.xml.bind.annotation.Annotation;
+import javax.xml.bind.annotation.AnnotationLocation;
+import javax.xml.bind.annotation.Facets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.test.XmlTestType;
+
+/**
+ * Tests for the compile-time {@link FacetIndex}.
+ */
+public class FacetIndexTest {
+
+    private static Map<String, Map<String, Map<String, Map<String, Object>>>> createIndex() {
+        Map<String, Object> facets = new HashMap<String, Object>();
+        facets.put("maxLength", 7L);
+        facets.put("enumeration", Arrays.<Object>asList("a", "b"));
+        facets.put("whiteSpace", FacetIndex.Ref.enumConstant("collapse"));
+        Map<String, Object> size = new HashMap<String, Object>();
+        size.put("min", 1);
+        size.put("max", 3);
+        size.put("groups", Arrays.<Object>asList());
+        size.put("payload", Arrays.<Object>asList());
+        size.put("message", "size");
+        Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put("value", "doc");
+        Map<String, Object> xsdAnnotation = new HashMap<String, Object>();
+        xsdAnnotation.put("documentation", Arrays.<Object>asList(doc));
+        xsdAnnotation.put("location", FacetIndex.Ref.enumConstant("OUTSIDE_ELEMENT"));
+
+        Map<String, Map<String, Object>> annos = new HashMap<String, Map<String, Object>>();
+        annos.put(Facets.class.getName(), facets);
+        annos.put(Size.class.getName(), size);
+        annos.put(Annotation.class.getName(), xsdAnnotation);
+        Map<String, Map<String, Map<String, Object>>> members =
+                new HashMap<String, Map<String, Map<String, Object>>>();
+        members.put("foo", annos);
+        Map<String, Map<String, Map<String, Map<String, Object>>>> classes =
+                new HashMap<String, Map<String, Map<String, Map<String, Object>>>>();
+        classes.put(XmlTestType.class.getName(), members);
+        return classes;
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FacetIndex.write(out, createIndex());
+        Map<String, Map<String, Map<String, Map<String, Object>>>> read =
+                FacetIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        Map<String, Object> facets = read.get(XmlTestType.class.getName())
+                .get("foo").get(Facets.class.getName());
+        Assert.assertEquals(7L, facets.get("maxLength"));
+        Assert.assertEquals(Arrays.asList("a", "b"), facets.get("enumeration"));
+        Assert.assertEquals(3, read.get(XmlTestType.class.getName())
+                .get("foo").get(Size.class.getName()).get("max"));
+    }
+
+    private static File writeIndex() throws Exception {
+        File dir = File.createTempFile("facet-index", "");
+        dir.delete();
+        File file = new File(dir, FacetIndex.RESOURCE);
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            FacetIndex.write(out, createIndex());
+        } finally {
+            out.close();
+        }
+        return dir;
+    }
+
+    @Test
+    public void testIndexedElement() throws Exception {
+        ClassLoader loader = new URLClassLoader(new URL[] { writeIndex().toURI().toURL() },
+                getClass().getClassLoader());
+        FacetIndex index = FacetIndex.forClassLoader(loader);
+        Assert.assertSame(index, FacetIndex.forClassLoader(loader));
+        Assert.assertTrue(index.isIndexed(XmlTestType.class));
+
+        Field field = XmlTestType.class.getDeclaredField("foo");
+        AnnotatedElement element = index.getElement(field);
+        Assert.assertSame(element, index.getElement(field));
+        Facets facets = element.getAnnotation(Facets.class);
+        Assert.assertEquals(7, facets.maxLength());
+        Assert.assertEquals(Facets.WhiteSpace.collapse, facets.whiteSpace());
+        Assert.assertEquals(Arrays.asList("a", "b"), Arrays.asList(facets.enumeration()));
+        Assert.assertEquals(3, element.getAnnotation(Size.class).max());
+        Annotation xsdAnnotation = element.getAnnotation(Annotation.class);
+        Assert.assertEquals(AnnotationLocation.OUTSIDE_ELEMENT, xsdAnnotation.location());
+        Assert.assertEquals("doc", xsdAnnotation.documentation()[0].value());
+
+        /* annotations of the indexed element are used to derive facets */
+        Assert.assertEquals("3", ConstraintMapperRegistry.getDefault().derive(element)
+                .get("maxLength").toString());
+        Assert.assertNull(index.getElement(XmlTestType.class.getDeclaredField("bar"))
+                .getAnnotation(Facets.class));
+        Assert.assertNull(FacetIndex.forClassLoader(getClass().getClassLoader())
+                .getElement(field));
+    }
+
+    @Test
+    public void testClassLoaderNotRetained() throws Exception {
+        URL classes = XmlTestType.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { writeIndex().toURI().toURL(), classes }, null);
+        Class<?> type = loader.loadClass(XmlTestType.class.getName());
+        Assert.assertNotSame(XmlTestType.class, type);
+        AnnotatedElement element = FacetIndex.forClassLoader(loader).getElement(type.getDeclaredField("foo"));
+        Assert.assertEquals(7, element.getAnnotation(Facets.class).maxLength());
+        Assert.assertEquals(3, element.getAnnotation(Size.class).max());
+
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        type = null;
+        element = null;
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+}
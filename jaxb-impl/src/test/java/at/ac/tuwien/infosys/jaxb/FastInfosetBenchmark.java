@@ -0,0 +1,63 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBContext;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Benchmark of the Fast Infoset schema output (see {@link SchemaOutputProfile#FAST_INFOSET})
+ * compared to the textual output, for a large synthetic model (the model of
+ * {@link SchemaFragmentBenchmark}): reports the document size, and the time to
+ * generate the documents plus the time to parse them into DOM documents (as
+ * tools which load the schemas do). Requires a JDK (javax.tools). Run via the
+ * main method.
+ */
+public class FastInfosetBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static void run(JAXBContext ctx, SchemaOutputProfile profile) throws Exception {
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+        System.gc();
+        long start = System.nanoTime();
+        profile.generateSchema(ctx, resolver);
+        long generated = System.nanoTime();
+        long bytes = 0;
+        for (String ns : resolver.getNamespaces()) {
+            byte[] document = resolver.getBytes(ns);
+            bytes += document.length;
+            FastInfosetSchemas.parse(new ByteArrayInputStream(document));
+        }
+        long parsed = System.nanoTime();
+        System.out.println(String.format(
+                "%-12s: %9d bytes, %8.1f ms generation + %8.1f ms parsing = %8.1f ms",
+                profile, bytes, (generated - start) / 1e6, (parsed - generated) / 1e6,
+                (parsed - start) / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        /* facet validity messages would dominate the measurement */
+        XmlSchemaEnhancer.logger.setLevel(Level.WARNING);
+        File dir = File.createTempFile("fastinfoset-bench", "");
+        dir.delete();
+        File src = new File(dir, "src");
+        src.mkdirs();
+        File classes = new File(dir, "classes");
+        System.out.println("Compiling " + SchemaFragmentBenchmark.TYPES + " classes to " + dir);
+        SchemaFragmentBenchmark.compile(src, classes, classes, 0, SchemaFragmentBenchmark.TYPES, 10);
+        JAXBContext ctx = SchemaFragmentBenchmark.load(classes);
+
+        SchemaOutputProfile[] profiles = { SchemaOutputProfile.PRETTY,
+                SchemaOutputProfile.COMPACT, SchemaOutputProfile.FAST_INFOSET };
+        for (int round = 0; round < ROUNDS; round ++) {
+            for (SchemaOutputProfile profile : profiles) {
+                run(ctx, profile);
+            }
+        }
+    }
+
+}
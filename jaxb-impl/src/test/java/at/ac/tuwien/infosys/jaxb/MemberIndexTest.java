@@ -0,0 +1,91 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.validation.constraints.Size;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlElement;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the resolution of property annotations via {@link MemberIndex}.
+ */
+public class MemberIndexTest {
+
+    public static class Base {
+        @Facets(maxLength = 5)
+        protected String name;
+
+        @XmlElement(name = "other-name")
+        @Facets(pattern = "[a-z]+")
+        protected String otherName;
+    }
+
+    public static class Sub extends Base {
+        private String code;
+
+        @Size(min = 1, max = 3)
+        public String getCode() {
+            return code;
+        }
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        MemberIndex index = MemberIndex.forClass(Sub.class);
+        /* the members are resolved once */
+        Assert.assertSame(index.getMembers("code").get(0), MemberIndex.forClass(Sub.class).getMembers("code").get(0));
+        Assert.assertEquals(Base.class.getDeclaredField("name"), index.getMembers("name").get(0));
+        Assert.assertEquals(Base.class.getDeclaredField("otherName"), index.getMembers("other-name").get(0));
+        /* field first, then getter and setter */
+        Assert.assertEquals(3, index.getMembers("code").size());
+        Assert.assertEquals(Sub.class.getDeclaredField("code"), index.getMembers("code").get(0));
+        Assert.assertTrue(index.getMembers("code").contains(Sub.class.getMethod("setCode", String.class)));
+        Assert.assertTrue(index.getMembers("foo").isEmpty());
+    }
+
+    @Test
+    public void testClassLoaderNotRetained() throws Exception {
+        URL classes = MemberIndexTest.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { classes }, null);
+        Class<?> base = loader.loadClass(Base.class.getName());
+        Assert.assertNotSame(Base.class, base);
+        Assert.assertEquals(2, MemberIndex.forClass(base).getMembers("otherName").size()
+                + MemberIndex.forClass(base).getMembers("name").size());
+
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        base = null;
+        /* as when the memory runs low; the index must not reference the class otherwise */
+        MemberIndex.clearSoftReferences();
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    @Test
+    public void testInheritedAndAccessorAnnotations() throws Exception {
+        Facets facets = XmlSchemaEnhancer.getAnnotationOfProperty(Sub.class, "name", Facets.class);
+        Assert.assertEquals(5, facets.maxLength());
+
+        facets = XmlSchemaEnhancer.getAnnotationOfProperty(Sub.class, "other-name", Facets.class);
+        Assert.assertEquals("[a-z]+", facets.pattern());
+
+        /* derived from the @Size constraint of the getter */
+        facets = XmlSchemaEnhancer.getAnnotationOfProperty(Sub.class, "code", Facets.class);
+        Assert.assertEquals(1, facets.minLength());
+        Assert.assertEquals(3, facets.maxLength());
+
+        Assert.assertNull(XmlSchemaEnhancer.getAnnotationOfProperty(Sub.class, "foo", Facets.class));
+    }
+
+}
@@ -0,0 +1,141 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.transform.Result;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Tests for the {@link PrecompiledSchemas}.
+ */
+public class PrecompiledSchemasTest {
+
+    /**
+     * Assigns the system ids "schemas/b.xsd", "schemas/a.xsd", ... in the reverse
+     * order of the suggested file names.
+     */
+    private static class RelocatingResolver extends InMemorySchemaResolver {
+        private final int count;
+
+        RelocatingResolver(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public synchronized Result createOutput(String namespaceUri, String suggestedFileName) {
+            Result result = super.createOutput(namespaceUri, suggestedFileName);
+            int i = Integer.parseInt(suggestedFileName.replaceAll("\\D", ""));
+            result.setSystemId("schemas/" + (char) ('a' + count - i) + ".xsd");
+            return result;
+        }
+    }
+
+    private static File precompile(Class<?> type, int documents) throws Exception {
+        File dir = File.createTempFile("precompiled", "");
+        dir.delete();
+        Assert.assertEquals(documents, PrecompiledSchemas.precompile(JAXBContext.newInstance(type), dir));
+        Assert.assertTrue(new File(dir, PrecompiledSchemas.MANIFEST).isFile());
+        return dir;
+    }
+
+    private static File precompile() throws Exception {
+        return precompile(Person.class, 2);
+    }
+
+    private static Map<String, String> generate(boolean stream, File classpath) throws Exception {
+        return generate(Person.class, new InMemorySchemaResolver(!stream), classpath);
+    }
+
+    private static Map<String, String> generate(Class<?> type, InMemorySchemaResolver resolver,
+            File classpath) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classpath == null ? loader :
+                new URLClassLoader(new URL[] { classpath.toURI().toURL() }, loader));
+        try {
+            JAXBContext.newInstance(type).generateSchema(resolver);
+        } finally {
+            thread.setContextClassLoader(loader);
+        }
+        return resolver.getDocuments();
+    }
+
+    @Test
+    public void testPrebuiltDocuments() throws Exception {
+        File dir = precompile();
+        for (boolean stream : new boolean[] { true, false }) {
+            Map<String, String> expected = generate(stream, null);
+            long hits = PrecompiledSchemas.getHits();
+            Assert.assertEquals(expected, generate(stream, dir));
+            Assert.assertEquals(hits + 1, PrecompiledSchemas.getHits());
+
+            /* disabled lookup */
+            XmlSchemaEnhancer.PRECOMPILED_SCHEMAS_ENABLED.set(false);
+            try {
+                Assert.assertEquals(expected, generate(stream, dir));
+                Assert.assertEquals(hits + 1, PrecompiledSchemas.getHits());
+            } finally {
+                XmlSchemaEnhancer.PRECOMPILED_SCHEMAS_ENABLED.set(true);
+            }
+        }
+    }
+
+    @Test
+    public void testRelocatedDocuments() throws Exception {
+        Class<?> type = XmlSchemaGeneratorTest.TypeA.class;
+        File dir = precompile(type, 6);
+        int count = generate(type, new InMemorySchemaResolver(), null).size();
+        Map<String, String> expected = generate(type, new RelocatingResolver(count), null);
+        Assert.assertTrue(expected.toString(), expected.toString().contains("schemaLocation=\"b.xsd\""));
+
+        long hits = PrecompiledSchemas.getHits();
+        Assert.assertEquals(expected, generate(type, new RelocatingResolver(count), dir));
+        Assert.assertEquals(hits + 1, PrecompiledSchemas.getHits());
+    }
+
+    @Test
+    public void testMismatchFallsBack() throws Exception {
+        File dir = precompile();
+        File manifestFile = new File(dir, PrecompiledSchemas.MANIFEST);
+        Properties manifest = new Properties();
+        InputStream in = new FileInputStream(manifestFile);
+        try {
+            manifest.load(in);
+        } finally {
+            in.close();
+        }
+        /* as if the classes had been changed after the build */
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.endsWith(".content")) {
+                manifest.setProperty(key, "outdated");
+            }
+        }
+        OutputStream out = new FileOutputStream(manifestFile);
+        try {
+            manifest.store(out, null);
+        } finally {
+            out.close();
+        }
+
+        Map<String, String> expected = generate(true, null);
+        long hits = PrecompiledSchemas.getHits();
+        long mismatches = PrecompiledSchemas.getMismatches();
+        Assert.assertEquals(expected, generate(true, dir));
+        Assert.assertEquals(hits, PrecompiledSchemas.getHits());
+        Assert.assertEquals(mismatches + 1, PrecompiledSchemas.getMismatches());
+    }
+
+}
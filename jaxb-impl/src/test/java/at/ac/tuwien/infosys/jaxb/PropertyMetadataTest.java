@@ -0,0 +1,84 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import javax.xml.bind.JAXBContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.test.validation.ValidatedClass;
+
+import com.sun.xml.bind.v2.model.runtime.RuntimeClassInfo;
+import com.sun.xml.bind.v2.model.runtime.RuntimePropertyInfo;
+import com.sun.xml.bind.v2.runtime.JAXBContextImpl;
+
+/**
+ * Tests for the per-property metadata resolved by {@link XmlSchemaEnhancer}.
+ */
+public class PropertyMetadataTest {
+
+    private RuntimePropertyInfo getProperty(Class<?> clazz, String name) throws Exception {
+        JAXBContextImpl ctx = (JAXBContextImpl) JAXBContext.newInstance(clazz);
+        RuntimeClassInfo ci = (RuntimeClassInfo) ctx.getTypeInfoSet().getTypeInfo(clazz);
+        return ci.getProperty(name);
+    }
+
+    @Test
+    public void testMetadataResolvedOnce() throws Exception {
+        RuntimePropertyInfo prop = getProperty(ValidatedClass.class, "sizeField");
+        PropertyMetadata meta = XmlSchemaEnhancer.getPropertyMetadata(prop);
+        Assert.assertSame(meta, XmlSchemaEnhancer.getPropertyMetadata(prop));
+        Assert.assertNotNull(meta.getFacets());
+        Assert.assertTrue(meta.hasFacets());
+        Assert.assertEquals(Arrays.asList("8"), meta.getDefinedFacets().get(Constants.FACET_MAXLENGTH));
+        Assert.assertEquals(Arrays.asList("7"), meta.getDefinedFacets().get(Constants.FACET_MINLENGTH));
+    }
+
+    @Test
+    public void testOccursFromValidation() throws Exception {
+        RuntimePropertyInfo prop = getProperty(ValidatedClass.class, "notNullField");
+        PropertyMetadata meta = XmlSchemaEnhancer.getPropertyMetadata(prop);
+        Assert.assertNotNull(meta.getMinOccurs());
+        Assert.assertEquals(1L, meta.getMinOccurs().value());
+        Assert.assertNull(meta.getMaxOccurs());
+        Assert.assertFalse(meta.hasFacets());
+        Assert.assertNull(meta.getXsdAnnotation());
+    }
+
+    @Test
+    public void testMetadataResolvedAgainOnChange() throws Exception {
+        RuntimePropertyInfo prop = getProperty(ValidatedClass.class, "sizeField");
+        PropertyMetadata meta = XmlSchemaEnhancer.getPropertyMetadata(prop);
+
+        boolean indexEnabled = XmlSchemaEnhancer.FACET_INDEX_ENABLED.get();
+        XmlSchemaEnhancer.FACET_INDEX_ENABLED.set(!indexEnabled);
+        PropertyMetadata other;
+        try {
+            other = XmlSchemaEnhancer.getPropertyMetadata(prop);
+            Assert.assertNotSame(meta, other);
+            Assert.assertSame(other, XmlSchemaEnhancer.getPropertyMetadata(prop));
+        } finally {
+            XmlSchemaEnhancer.FACET_INDEX_ENABLED.set(indexEnabled);
+        }
+        meta = XmlSchemaEnhancer.getPropertyMetadata(prop);
+        Assert.assertNotSame(other, meta);
+
+        /* another context class loader, i.e., other constraint mappers */
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[0], loader));
+        try {
+            other = XmlSchemaEnhancer.getPropertyMetadata(prop);
+            Assert.assertNotSame(meta, other);
+            Assert.assertEquals(meta.getDefinedFacets(), other.getDefinedFacets());
+        } finally {
+            thread.setContextClassLoader(loader);
+        }
+        meta = XmlSchemaEnhancer.getPropertyMetadata(prop);
+        Assert.assertSame(meta, XmlSchemaEnhancer.getPropertyMetadata(prop));
+    }
+
+}
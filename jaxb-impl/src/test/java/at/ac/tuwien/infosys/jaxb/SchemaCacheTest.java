@@ -0,0 +1,135 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import static com.pellcorp.jaxb.test.InMemorySchemaResolver.generate;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SchemaCache} and its use by the schema generator.
+ */
+public class SchemaCacheTest {
+
+    @Test
+    public void testCachedOutputIdentical() throws Exception {
+        Map<String, String> expected = generate(XmlSchemaGeneratorTest.TypeA.class);
+        SchemaCache cache = new SchemaCache(2);
+        SchemaCache before = XmlSchemaEnhancer.SCHEMA_CACHE.getAndSet(cache);
+        boolean xsd11 = XmlSchemaEnhancer.XSD_11_ENABLED.get();
+        try {
+            Assert.assertEquals(expected, generate(XmlSchemaGeneratorTest.TypeA.class));
+            Assert.assertEquals(0, cache.getHits());
+            Assert.assertEquals(1, cache.getMisses());
+            Assert.assertEquals(expected, generate(XmlSchemaGeneratorTest.TypeA.class));
+            Assert.assertEquals(1, cache.getHits());
+            Assert.assertEquals(1, cache.size());
+
+            /* settings are part of the fingerprint */
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(!xsd11);
+            generate(XmlSchemaGeneratorTest.TypeA.class);
+            Assert.assertEquals(2, cache.getMisses());
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(xsd11);
+
+            /* other classes, the least recently used entry (with XSD 1.1) is evicted */
+            generate(Person.class);
+            Assert.assertEquals(3, cache.getMisses());
+            Assert.assertEquals(1, cache.getEvictions());
+            Assert.assertEquals(2, cache.size());
+            Assert.assertEquals(expected, generate(XmlSchemaGeneratorTest.TypeA.class));
+            Assert.assertEquals(4, cache.getMisses());
+            Assert.assertEquals(1, cache.getHits());
+        } finally {
+            XmlSchemaEnhancer.SCHEMA_CACHE.set(before);
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(xsd11);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsCoalesced() throws Exception {
+        final SchemaCache cache = new SchemaCache();
+        final AtomicInteger generations = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Map<String, byte[]>> generator = new Callable<Map<String, byte[]>>() {
+            public Map<String, byte[]> call() throws Exception {
+                generations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return Collections.singletonMap("urn:a", new byte[] { 1 });
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] results = new Future<?>[4];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = executor.submit(new Callable<Map<String, byte[]>>() {
+                    public Map<String, byte[]> call() throws Exception {
+                        return cache.get(new SchemaCache.Fingerprint().addType("A", String.class),
+                                generator);
+                    }
+                });
+                if (i == 0) {
+                    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+                }
+            }
+            /* give the other requests the chance to arrive while generating */
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<?> f : results) {
+                Assert.assertEquals(1, ((byte[]) ((Map<?, ?>) f.get()).get("urn:a"))[0]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, generations.get());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(3, cache.getHits());
+    }
+
+    @Test
+    public void testTypeIdentity() throws Exception {
+        SchemaCache cache = new SchemaCache();
+        final AtomicInteger generations = new AtomicInteger();
+        Callable<Map<String, byte[]>> generator = new Callable<Map<String, byte[]>>() {
+            public Map<String, byte[]> call() {
+                generations.incrementAndGet();
+                return Collections.emptyMap();
+            }
+        };
+        cache.get(new SchemaCache.Fingerprint().addType("A", String.class), generator);
+        cache.get(new SchemaCache.Fingerprint().addType("A", String.class), generator);
+        Assert.assertEquals(1, generations.get());
+        /* same name, but different identity */
+        cache.get(new SchemaCache.Fingerprint().addType("A", Integer.class), generator);
+        Assert.assertEquals(2, generations.get());
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        SchemaCache cache = new SchemaCache();
+        Callable<Map<String, byte[]>> generator = new Callable<Map<String, byte[]>>() {
+            public Map<String, byte[]> call() throws IOException {
+                throw new IOException("failed");
+            }
+        };
+        try {
+            cache.get(new SchemaCache.Fingerprint().add("a", "b"), generator);
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,136 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import javax.xml.bind.JAXBContext;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Benchmark for the incremental schema generation via {@link SchemaFragmentCache}.
+ * A synthetic model of 5,000 classes is compiled; then, for an increasing number
+ * of changed classes (different facets), the changed classes are recompiled and
+ * the whole model is loaded by a new class loader (as in a redeployment). The
+ * schema generation time with a fragment cache (filled with the fragments of the
+ * original model) is compared to a generation without the cache. Requires a JDK (javax.tools). Run via the main method.
+ */
+public class SchemaFragmentBenchmark {
+
+    static final int TYPES = 5000;
+    private static final String PACKAGE = "bench";
+
+    private static String getSource(int i, int maxLength) {
+        return "package " + PACKAGE + ";\n" +
+                "import javax.xml.bind.annotation.*;\n" +
+                "@XmlType(namespace = \"urn:bench\")\n" +
+                "public class Type" + i + " {\n" +
+                "  @XmlElement(namespace = \"urn:bench\") @Facets(maxLength = " + maxLength + ")\n" +
+                "  public String name;\n" +
+                "  @XmlElement(namespace = \"urn:bench\") @Facets(minInclusive = \"0\", maxInclusive = \"100\")\n" +
+                "  public int count;\n" +
+                "  @XmlAttribute @Documentation(\"id of type " + i + "\")\n" +
+                "  public String id;\n" +
+                (i > 0 ? "  @XmlElement(namespace = \"urn:bench\") public Type" + ((i - 1) / 2) + " parent;\n" : "") +
+                "}\n";
+    }
+
+    static void compile(File srcDir, File outDir, File classpath, int from, int to,
+            int maxLength) throws IOException {
+        List<String> args = new ArrayList<String>(Arrays.asList("-nowarn", "-proc:none",
+                "-d", outDir.getAbsolutePath(), "-classpath",
+                classpath.getAbsolutePath() + File.pathSeparator + System.getProperty("java.class.path")));
+        for (int i = from; i < to; i++) {
+            File f = new File(srcDir, "Type" + i + ".java");
+            Writer w = new FileWriter(f);
+            try {
+                w.write(getSource(i, maxLength));
+            } finally {
+                w.close();
+            }
+            args.add(f.getAbsolutePath());
+        }
+        outDir.mkdirs();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+            throw new IOException("Compilation failed");
+        }
+    }
+
+    static JAXBContext load(File... dirs) throws Exception {
+        URL[] urls = new URL[dirs.length];
+        for (int i = 0; i < dirs.length; i++) {
+            urls[i] = dirs[i].toURI().toURL();
+        }
+        ClassLoader loader = new URLClassLoader(urls, SchemaFragmentBenchmark.class.getClassLoader());
+        Class<?>[] classes = new Class<?>[TYPES];
+        for (int i = 0; i < TYPES; i++) {
+            classes[i] = loader.loadClass(PACKAGE + ".Type" + i);
+        }
+        return JAXBContext.newInstance(classes);
+    }
+
+    private static long generate(JAXBContext ctx) throws IOException {
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+        System.gc();
+        long start = System.nanoTime();
+        ctx.generateSchema(resolver);
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        /* facet validity messages would dominate the measurement */
+        XmlSchemaEnhancer.logger.setLevel(Level.WARNING);
+        File dir = File.createTempFile("fragment-bench", "");
+        dir.delete();
+        File src = new File(dir, "src");
+        src.mkdirs();
+        File base = new File(dir, "base");
+        System.out.println("Compiling " + TYPES + " classes to " + dir);
+        compile(src, base, base, 0, TYPES, 10);
+
+        SchemaFragmentCache before = XmlSchemaEnhancer.FRAGMENT_CACHE.get();
+        try {
+            /* warm-up */
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(null);
+            JAXBContext baseContext = load(base);
+            generate(baseContext);
+            generate(baseContext);
+
+            SchemaFragmentCache cache = new SchemaFragmentCache();
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(cache);
+            generate(baseContext);
+            for (int changed : new int[] { 0, 10, 100, 1000, TYPES }) {
+                File changedDir = new File(dir, "changed" + changed);
+                if (changed > 0) {
+                    compile(src, changedDir, base, 0, changed, 20);
+                }
+                /* fresh class loaders, as after a redeployment */
+                JAXBContext ctx = load(changedDir, base);
+                XmlSchemaEnhancer.FRAGMENT_CACHE.set(null);
+                long uncached = generate(ctx);
+
+                ctx = load(changedDir, base);
+                XmlSchemaEnhancer.FRAGMENT_CACHE.set(cache);
+                long misses = cache.getMisses();
+                long cached = generate(ctx);
+                System.out.println(String.format(
+                        "%5d changed types: %8.1f ms without cache, %8.1f ms with cache (%d fragments rendered)",
+                        changed, uncached / 1e6, cached / 1e6, cache.getMisses() - misses));
+            }
+        } finally {
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(before);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import static com.pellcorp.jaxb.test.InMemorySchemaResolver.generate;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.TypedXmlWriter;
+import com.sun.xml.txw2.output.StreamSerializer;
+
+/**
+ * Tests for the {@link SchemaFragmentCache}.
+ */
+public class SchemaFragmentCacheTest {
+
+    @Test
+    public void testCachedFragmentsIdentical() throws Exception {
+        SchemaFragmentCache before = XmlSchemaEnhancer.FRAGMENT_CACHE.get();
+        try {
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(null);
+            Map<String, String> expected = generate(Person.class);
+            Map<String, String> expectedTypeA = generate(XmlSchemaGeneratorTest.TypeA.class);
+
+            SchemaFragmentCache cache = new SchemaFragmentCache();
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(cache);
+            Assert.assertEquals(expected, generate(Person.class));
+            long misses = cache.getMisses();
+            Assert.assertTrue(misses > 0);
+            Assert.assertEquals(0, cache.getHits());
+            Assert.assertEquals(misses, cache.size());
+
+            /* the second generation only replays fragments */
+            Assert.assertEquals(expected, generate(Person.class));
+            Assert.assertEquals(misses, cache.getMisses());
+            Assert.assertEquals(misses, cache.getHits());
+
+            /* types in multiple namespaces (with imports) */
+            Assert.assertEquals(expectedTypeA, generate(XmlSchemaGeneratorTest.TypeA.class));
+            Assert.assertEquals(expectedTypeA, generate(XmlSchemaGeneratorTest.TypeA.class));
+        } finally {
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(before);
+        }
+    }
+
+    @Test
+    public void testCanonicalModeNotShared() throws Exception {
+        SchemaFragmentCache before = XmlSchemaEnhancer.FRAGMENT_CACHE.get();
+        try {
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(null);
+            Map<String, String> expected = generate(CanonicalSchemasTest.Zeta.class);
+            InMemorySchemaResolver expectedCanonical = new InMemorySchemaResolver(true);
+            CanonicalSchemas.generateSchema(JAXBContext.newInstance(CanonicalSchemasTest.Zeta.class),
+                    expectedCanonical);
+            Assert.assertFalse(expected.equals(expectedCanonical.getDocuments()));
+
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(new SchemaFragmentCache());
+            Assert.assertEquals(expected, generate(CanonicalSchemasTest.Zeta.class));
+            InMemorySchemaResolver canonical = new InMemorySchemaResolver(true);
+            CanonicalSchemas.generateSchema(JAXBContext.newInstance(CanonicalSchemasTest.Zeta.class),
+                    canonical);
+            Assert.assertEquals(expectedCanonical.getDocuments(), canonical.getDocuments());
+            Assert.assertEquals(expected, generate(CanonicalSchemasTest.Zeta.class));
+        } finally {
+            XmlSchemaEnhancer.FRAGMENT_CACHE.set(before);
+        }
+    }
+
+    @Test
+    public void testRecordReplay() throws Exception {
+        SchemaFragmentCache.Recorder recorder = new SchemaFragmentCache.Recorder();
+        TypedXmlWriter root = TXW.create(new QName("urn:r", "root"),
+                TypedXmlWriter.class, recorder);
+        root._namespace("urn:x", "x");
+        TypedXmlWriter a = root._element("urn:x", "a", TypedXmlWriter.class);
+        a._attribute("name", "x:b");
+        a._pcdata("text & more");
+        a._element("urn:y", "c", TypedXmlWriter.class)._namespace("urn:y", "y");
+        root.commit();
+        SchemaFragmentCache.Fragment fragment = recorder.getFragment();
+
+        StringWriter out = new StringWriter();
+        TypedXmlWriter target = TXW.create(new QName("urn:r", "root"),
+                TypedXmlWriter.class, new StreamSerializer(out));
+        target._namespace("urn:x", "x");
+        fragment.replay(target);
+        target.commit();
+        String xml = out.toString();
+        Assert.assertTrue(xml, xml.contains("<x:a name=\"x:b\">text &amp; more"));
+        Assert.assertTrue(xml, xml.contains("<y:c xmlns:y=\"urn:y\"/>"));
+        Assert.assertEquals(xml, 1, xml.split("xmlns:x=").length - 1);
+    }
+
+}
@@ -0,0 +1,50 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBContext;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Benchmark of the schema output profiles (see {@link SchemaOutputProfile})
+ * over the test model classes: reports the bytes of the generated documents,
+ * the generation (serialization) time, and the resulting transfer time of the
+ * documents over a slow (mobile) and a faster link. Run via the main method.
+ */
+public class SchemaOutputProfileBenchmark {
+
+    private static final int ITERATIONS = 2000;
+    /** link speeds in bits per second */
+    private static final long[] BANDWIDTHS = { 1000000L, 10000000L };
+
+    private static void run(JAXBContext ctx, SchemaOutputProfile profile) throws Exception {
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            profile.generateSchema(ctx, resolver);
+        }
+        long nanos = System.nanoTime() - start;
+        /* the documents of the last iteration */
+        long bytes = resolver.getTotalBytes();
+        StringBuilder transfer = new StringBuilder();
+        for (long bandwidth : BANDWIDTHS) {
+            transfer.append(String.format(", %6.2f ms @ %2d Mbit/s",
+                    bytes * 8 * 1000.0 / bandwidth, bandwidth / 1000000));
+        }
+        System.out.println(String.format("%-12s: %7d bytes, %8.1f us generation%s",
+                profile, bytes, nanos / 1e3 / ITERATIONS, transfer));
+    }
+
+    public static void main(String[] args) throws Exception {
+        /* facet validity messages would dominate the measurement */
+        XmlSchemaEnhancer.logger.setLevel(Level.WARNING);
+        JAXBContext ctx = JAXBContext.newInstance(Person.class, XmlSchemaGeneratorTest.TypeA.class);
+        for (int round = 0; round < 3; round ++) {
+            for (SchemaOutputProfile profile : SchemaOutputProfile.values()) {
+                run(ctx, profile);
+            }
+        }
+    }
+
+}
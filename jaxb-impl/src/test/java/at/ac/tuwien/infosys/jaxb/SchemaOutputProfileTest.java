@@ -0,0 +1,178 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Tests for the compact (gzip compressed, and Fast Infoset) schema output, see {@link SchemaOutputProfile}.
+ */
+public class SchemaOutputProfileTest {
+
+    private static InMemorySchemaResolver generate(SchemaOutputProfile profile) throws Exception {
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+        profile.generateSchema(JAXBContext.newInstance(XmlSchemaGeneratorTest.TypeA.class), resolver);
+        return resolver;
+    }
+
+    private static Document parse(InputStream in) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(in);
+        removeWhitespace(doc.getDocumentElement());
+        doc.normalizeDocument();
+        return doc;
+    }
+
+    private static void removeWhitespace(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().length() == 0) {
+                node.removeChild(child);
+            } else {
+                removeWhitespace(child);
+            }
+            child = next;
+        }
+    }
+
+    @Test
+    public void testCompactOutputEquivalent() throws Exception {
+        InMemorySchemaResolver pretty = generate(SchemaOutputProfile.PRETTY);
+        InMemorySchemaResolver compact = generate(SchemaOutputProfile.COMPACT);
+        Assert.assertEquals(pretty.getNamespaces(), compact.getNamespaces());
+        for (String ns : pretty.getNamespaces()) {
+            byte[] bytes = compact.getBytes(ns);
+            Assert.assertTrue(bytes.length < pretty.getBytes(ns).length);
+            String xml = new String(bytes, "UTF-8");
+            Assert.assertFalse(xml, xml.contains(">\n"));
+            Assert.assertFalse(xml, xml.contains("> "));
+            Assert.assertTrue("schema of namespace " + ns + " differs",
+                    parse(new ByteArrayInputStream(pretty.getBytes(ns))).isEqualNode(
+                    parse(new ByteArrayInputStream(bytes))));
+        }
+        Assert.assertTrue(new String(compact.getBytes("urn:a"), "UTF-8")
+                .contains("maxLength"));
+    }
+
+    @Test
+    public void testGzipOutput() throws Exception {
+        InMemorySchemaResolver compact = generate(SchemaOutputProfile.COMPACT);
+        InMemorySchemaResolver gzip = generate(SchemaOutputProfile.COMPACT_GZIP);
+        for (String ns : compact.getNamespaces()) {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.getBytes(ns)));
+            ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int len; (len = in.read(buffer)) > 0; ) {
+                unzipped.write(buffer, 0, len);
+            }
+            Assert.assertArrayEquals(compact.getBytes(ns), unzipped.toByteArray());
+        }
+    }
+
+    /**
+     * Accepts the gzip header, and fails when the compressed document is written.
+     */
+    private static class FailingStream extends OutputStream {
+        private int written;
+        boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (++written > 10) {
+                throw new IOException("disk full");
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testGzipOutputClosedOnFailure() throws Exception {
+        final List<FailingStream> streams = new ArrayList<FailingStream>();
+        try {
+            SchemaOutputProfile.COMPACT_GZIP.generateSchema(
+                    JAXBContext.newInstance(XmlSchemaGeneratorTest.TypeA.class), new SchemaOutputResolver() {
+                public Result createOutput(String namespaceUri, String suggestedFileName) {
+                    FailingStream stream = new FailingStream();
+                    streams.add(stream);
+                    StreamResult result = new StreamResult(stream);
+                    result.setSystemId(suggestedFileName);
+                    return result;
+                }
+            });
+            Assert.fail("writing should have failed");
+        } catch (IOException e) {
+            /* expected */
+        }
+        Assert.assertTrue(streams.size() > 1);
+        for (FailingStream stream : streams) {
+            Assert.assertTrue(stream.closed);
+        }
+    }
+
+    @Test
+    public void testFastInfosetOutput() throws Exception {
+        InMemorySchemaResolver pretty = generate(SchemaOutputProfile.PRETTY);
+        InMemorySchemaResolver fastInfoset = generate(SchemaOutputProfile.FAST_INFOSET);
+        Assert.assertEquals(pretty.getNamespaces(), fastInfoset.getNamespaces());
+        for (String ns : pretty.getNamespaces()) {
+            byte[] bytes = fastInfoset.getBytes(ns);
+            Assert.assertTrue(FastInfosetSchemas.isFastInfoset(new ByteArrayInputStream(bytes)));
+            Document expected = parse(new ByteArrayInputStream(pretty.getBytes(ns)));
+            Document actual = FastInfosetSchemas.parse(new ByteArrayInputStream(bytes));
+            Assert.assertTrue("schema of namespace " + ns + " differs", expected.isEqualNode(actual));
+
+            DOMResult result = new DOMResult();
+            TransformerFactory.newInstance().newTransformer().transform(
+                    FastInfosetSchemas.createSource(new ByteArrayInputStream(bytes), ns), result);
+            Assert.assertTrue(expected.isEqualNode(result.getNode()));
+        }
+        /* textual documents are parsed as well */
+        Assert.assertFalse(FastInfosetSchemas.isFastInfoset(
+                new ByteArrayInputStream(pretty.getBytes("urn:a"))));
+        Assert.assertEquals("schema", FastInfosetSchemas.parse(new ByteArrayInputStream(
+                pretty.getBytes("urn:a"))).getDocumentElement().getLocalName());
+    }
+
+    @Test
+    public void testProfileSelection() throws Exception {
+        Assert.assertEquals(SchemaOutputProfile.PRETTY, SchemaOutputProfile.current());
+        /* the profile of a single call does not apply to subsequent calls */
+        generate(SchemaOutputProfile.COMPACT);
+        Assert.assertEquals(SchemaOutputProfile.PRETTY, SchemaOutputProfile.current());
+
+        SchemaOutputProfile before = XmlSchemaEnhancer.OUTPUT_PROFILE.getAndSet(SchemaOutputProfile.COMPACT);
+        try {
+            String xsd = InMemorySchemaResolver.generate(XmlSchemaGeneratorTest.TypeA.class).get("urn:a");
+            Assert.assertFalse(xsd, xsd.contains(">\n"));
+        } finally {
+            XmlSchemaEnhancer.OUTPUT_PROFILE.set(before);
+        }
+    }
+
+}
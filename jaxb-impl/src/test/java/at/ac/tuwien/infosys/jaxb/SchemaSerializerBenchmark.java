@@ -0,0 +1,71 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+
+import javax.xml.bind.JAXBContext;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Benchmark which compares the default TXW serializer with the StAX based
+ * schema output (see {@link SchemaSerializers}), in terms of generated bytes
+ * per second and bytes allocated per generated XSD document. Allocation is
+ * only reported on JVMs which provide com.sun.management.ThreadMXBean.
+ * Run via the main method.
+ */
+public class SchemaSerializerBenchmark {
+
+    private static final int ITERATIONS = 2000;
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method m = bean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+            m.setAccessible(true);
+            return (Long) m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static void run(JAXBContext ctx, boolean stax) throws Exception {
+        XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.set(stax);
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+        long allocStart = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            ctx.generateSchema(resolver);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocStart;
+        /* each iteration generates the same documents */
+        long documents = (long) resolver.size() * ITERATIONS;
+        long bytes = resolver.getTotalBytes() * ITERATIONS;
+        System.out.println(String.format(
+                "%-4s: %8.2f MB/s, %8.1f us/XSD, %10s bytes allocated/XSD (%d bytes/XSD)",
+                stax ? "StAX" : "TXW",
+                bytes / (nanos / 1e9) / (1024 * 1024),
+                nanos / 1e3 / documents,
+                allocStart < 0 ? "n/a" : String.valueOf(allocated / documents),
+                bytes / documents));
+    }
+
+    public static void main(String[] args) throws Exception {
+        /* facet validity messages would dominate the measurement */
+        XmlSchemaEnhancer.logger.setLevel(Level.WARNING);
+        JAXBContext ctx = JAXBContext.newInstance(Person.class);
+        boolean before = XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.get();
+        try {
+            for (int round = 0; round < 3; round ++) {
+                run(ctx, false);
+                run(ctx, true);
+            }
+        } finally {
+            XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.set(before);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+import com.sun.xml.txw2.output.StaxSerializer;
+import com.sun.xml.txw2.output.XmlSerializer;
+
+/**
+ * Tests for the StAX based schema output (see {@link SchemaSerializers}).
+ */
+public class SchemaSerializersTest {
+
+    private static InMemorySchemaResolver generate(boolean stax) throws Exception {
+        boolean before = XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.getAndSet(stax);
+        try {
+            InMemorySchemaResolver resolver = new InMemorySchemaResolver();
+            JAXBContext.newInstance(XmlSchemaGeneratorTest.TypeA.class).generateSchema(resolver);
+            return resolver;
+        } finally {
+            XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.set(before);
+        }
+    }
+
+    private static Document parse(byte[] bytes) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+        doc.normalizeDocument();
+        return doc;
+    }
+
+    @Test
+    public void testStaxOutputEquivalent() throws Exception {
+        InMemorySchemaResolver txw = generate(false);
+        InMemorySchemaResolver stax = generate(true);
+        Assert.assertEquals(3, stax.size());
+        Assert.assertEquals(txw.getNamespaces(), stax.getNamespaces());
+        for (String ns : txw.getNamespaces()) {
+            Document expected = parse(txw.getBytes(ns));
+            Document actual = parse(stax.getBytes(ns));
+            Assert.assertTrue("schema of namespace " + ns + " differs",
+                    expected.isEqualNode(actual));
+        }
+        Assert.assertTrue(new String(stax.getBytes("urn:a"), "UTF-8")
+                .contains("maxLength"));
+    }
+
+    @Test
+    public void testSerializerSelection() throws Exception {
+        StreamResult result = new StreamResult(new StringWriter());
+        Assert.assertTrue(SchemaSerializers.createStaxSerializer(result) instanceof StaxSerializer);
+        Assert.assertNull(SchemaSerializers.createStaxSerializer(new StreamResult("file:/tmp/a.xsd")));
+        boolean before = XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.getAndSet(false);
+        try {
+            XmlSerializer serializer = SchemaSerializers.createSerializer(result);
+            Assert.assertFalse(serializer instanceof StaxSerializer);
+        } finally {
+            XmlSchemaEnhancer.STAX_OUTPUT_ENABLED.set(before);
+        }
+    }
+
+    @Test
+    public void testOutputFactoryPerGenerator() throws Exception {
+        SchemaSerializers.OutputFactory factory = new SchemaSerializers.OutputFactory();
+        Assert.assertSame(factory.get(), factory.get());
+        /* the default factory is shared by the generators of a class loader */
+        Assert.assertSame(factory.get(), new SchemaSerializers.OutputFactory().get());
+        Assert.assertTrue(SchemaSerializers.createSerializer(new StreamResult(new StringWriter()),
+                SchemaOutputProfile.COMPACT, factory) instanceof StaxSerializer);
+    }
+
+}
@@ -0,0 +1,104 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import static com.pellcorp.jaxb.test.InMemorySchemaResolver.generate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the persistent {@link SchemaStore}.
+ */
+public class SchemaStoreTest {
+
+    private static File createDirectory() throws Exception {
+        File dir = File.createTempFile("schema-store", "");
+        dir.delete();
+        return dir;
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        SchemaStore store = new SchemaStore(createDirectory());
+        SchemaCache.Fingerprint fp = new SchemaCache.Fingerprint().addType("person", Person.class);
+        Assert.assertNull(store.load(fp));
+        store.save(fp, Collections.singletonMap("urn:a", new byte[] { 1, 2, 3 }));
+
+        Map<String, byte[]> documents = store.load(
+                new SchemaCache.Fingerprint().addType("person", Person.class));
+        Assert.assertEquals(1, documents.size());
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, documents.get("urn:a"));
+        Assert.assertEquals(1, store.getHits());
+
+        /* same names, but other bytecode */
+        Assert.assertNull(store.load(new SchemaCache.Fingerprint().addType("person", Gender.class)));
+        Assert.assertEquals(1, store.getInvalidations());
+        Assert.assertNull(store.load(fp));
+
+        /* types without class files are not stored */
+        SchemaCache.Fingerprint other = new SchemaCache.Fingerprint().addType("x", new Object());
+        store.save(other, Collections.singletonMap("urn:a", new byte[] { 1 }));
+        Assert.assertEquals(0, store.getDirectory().list().length);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        File dir = createDirectory();
+        Map<String, String> expected = generate(Person.class);
+        SchemaCache before = XmlSchemaEnhancer.SCHEMA_CACHE.get();
+        try {
+            SchemaStore store = new SchemaStore(dir);
+            XmlSchemaEnhancer.SCHEMA_CACHE.set(new SchemaCache(SchemaCache.DEFAULT_MAX_ENTRIES, store));
+            Assert.assertEquals(expected, generate(Person.class));
+            Assert.assertEquals(0, store.getHits());
+            Assert.assertEquals(1, dir.list().length);
+
+            /* a new cache (as after a restart) uses the stored documents */
+            store = new SchemaStore(dir);
+            SchemaCache cache = new SchemaCache(SchemaCache.DEFAULT_MAX_ENTRIES, store);
+            XmlSchemaEnhancer.SCHEMA_CACHE.set(cache);
+            Assert.assertEquals(expected, generate(Person.class));
+            Assert.assertEquals(1, store.getHits());
+            Assert.assertEquals(1, cache.getMisses());
+            store.clear();
+            Assert.assertEquals(0, dir.list().length);
+        } finally {
+            XmlSchemaEnhancer.SCHEMA_CACHE.set(before);
+        }
+    }
+
+    @Test
+    public void testContentDigestCoversMappers() throws Exception {
+        SchemaCache.Fingerprint fp = new SchemaCache.Fingerprint().addType("person", Person.class);
+        String digest = SchemaStore.getContentDigest(fp);
+        Assert.assertEquals(digest, SchemaStore.getContentDigest(fp));
+
+        /* an additional constraint mapper of the context class loader */
+        File dir = createDirectory();
+        File services = new File(dir, "META-INF/services/" + ConstraintFacetMapper.class.getName());
+        services.getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(services), "UTF-8");
+        try {
+            w.write(ConstraintMapperRegistryTest.RangeMapper.class.getName());
+        } finally {
+            w.close();
+        }
+        Thread thread = Thread.currentThread();
+        ClassLoader before = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[] { dir.toURI().toURL() }, before));
+        try {
+            Assert.assertFalse(digest.equals(SchemaStore.getContentDigest(fp)));
+        } finally {
+            thread.setContextClassLoader(before);
+        }
+    }
+
+}
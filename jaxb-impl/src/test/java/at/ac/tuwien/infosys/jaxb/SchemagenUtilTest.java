@@ -0,0 +1,93 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import javax.xml.bind.annotation.Documentation;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlEnum;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SchemagenUtil}, which reads the annotations
+ * of the compiler model used by schemagen.
+ */
+public class SchemagenUtilTest {
+
+    /**
+     * Reads the annotations of the compiler model of {@link Gender}.
+     */
+    private static class ExtractingProcessor extends AbstractProcessor {
+        Facets facets;
+        Documentation doc;
+        XmlEnum xmlEnum;
+        boolean cached;
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return new HashSet<String>(Arrays.asList("*"));
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return SourceVersion.latestSupported();
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+            if (facets == null) {
+                TypeElement type = processingEnv.getElementUtils().getTypeElement(
+                        Gender.class.getName());
+                facets = SchemagenUtil.extractAnnotation(type, Facets.class);
+                doc = SchemagenUtil.extractAnnotation(type, Documentation.class);
+                xmlEnum = SchemagenUtil.extractAnnotation(type, XmlEnum.class);
+                cached = facets == SchemagenUtil.extractAnnotation(type, Facets.class);
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void testExtractFromCompilerModel() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull(compiler);
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///Dummy.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return "class Dummy { }";
+            }
+        };
+        ExtractingProcessor processor = new ExtractingProcessor();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null,
+                new DiagnosticCollector<JavaFileObject>(), Arrays.asList(
+                "-proc:only", "-classpath", System.getProperty("java.class.path")),
+                null, Arrays.asList(source));
+        task.setProcessors(Arrays.asList(processor));
+        Assert.assertTrue(task.call());
+
+        Assert.assertNotNull(processor.facets);
+        Assert.assertEquals(20, processor.facets.maxLength());
+        Assert.assertEquals("Gender Type", processor.doc.value());
+        /* jaxb-facets annotations are built directly, without proxies */
+        Assert.assertTrue(processor.facets instanceof FacetsImpl);
+        Assert.assertTrue(processor.doc instanceof DocumentationImpl);
+        /* class-typed member (with default) */
+        Assert.assertEquals(String.class, processor.xmlEnum.value());
+        Assert.assertTrue(processor.cached);
+    }
+
+}
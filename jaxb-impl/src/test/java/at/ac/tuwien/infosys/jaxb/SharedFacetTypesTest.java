@@ -0,0 +1,129 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.StringReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+
+/**
+ * Tests for the sharing of identical facet restrictions, see {@link SharedFacetTypes}.
+ */
+public class SharedFacetTypesTest {
+
+    private static final String NS = "urn:shared";
+
+    @XmlRootElement(namespace = NS)
+    @XmlType(namespace = NS, propOrder = { "code1", "code2", "name" })
+    public static class Codes {
+        @XmlElement(namespace = NS)
+        @Facets(pattern = "[A-Z]{3}")
+        public String code1;
+        @XmlElement(namespace = NS)
+        @Facets(pattern = "[A-Z]{3}")
+        public String code2;
+        @XmlElement(namespace = NS)
+        @Facets(maxLength = 10)
+        public String name;
+        @XmlAttribute
+        @Facets(pattern = "[A-Z]{3}")
+        public String ref;
+        @XmlAttribute
+        @Facets(minLength = 1)
+        public String label;
+    }
+
+    private static String generate(boolean shared) throws Exception {
+        boolean before = XmlSchemaEnhancer.SHARED_FACET_TYPES_ENABLED.getAndSet(shared);
+        try {
+            return InMemorySchemaResolver.generate(Codes.class).get(NS);
+        } finally {
+            XmlSchemaEnhancer.SHARED_FACET_TYPES_ENABLED.set(before);
+        }
+    }
+
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    private static Element getChild(Document doc, String localName, String name) {
+        NodeList list = doc.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, localName);
+        for (int i = 0; i < list.getLength(); i++) {
+            Element e = (Element) list.item(i);
+            if (name.equals(e.getAttribute("name"))) {
+                return e;
+            }
+        }
+        Assert.fail("no " + localName + " named " + name);
+        return null;
+    }
+
+    private static boolean isValid(Schema schema, String xml) throws Exception {
+        try {
+            schema.newValidator().validate(new StreamSource(new StringReader(xml)));
+            return true;
+        } catch (SAXException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testSharedRestrictions() throws Exception {
+        String xsd = generate(true);
+        Document doc = parse(xsd);
+
+        /* the pattern is written once, for two elements and one attribute */
+        Assert.assertEquals(xsd, 1, doc.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, "pattern").getLength());
+        Element type = getChild(doc, "simpleType", "stringRestriction1");
+        Assert.assertEquals(doc.getDocumentElement(), type.getParentNode());
+        Assert.assertEquals(1, type.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, "pattern").getLength());
+        for (String name : new String[] { "code1", "code2" }) {
+            Element e = getChild(doc, "element", name);
+            Assert.assertEquals("tns:stringRestriction1", e.getAttribute("type"));
+            Assert.assertEquals(0, e.getChildNodes().getLength());
+        }
+        Assert.assertEquals("tns:stringRestriction1", getChild(doc, "attribute", "ref").getAttribute("type"));
+
+        /* restrictions used once remain anonymous */
+        Assert.assertEquals(1, doc.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, "maxLength").getLength());
+        Assert.assertEquals("", getChild(doc, "element", "name").getAttribute("type"));
+        Assert.assertEquals("", getChild(doc, "attribute", "label").getAttribute("type"));
+        Assert.assertEquals(1, doc.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, "minLength").getLength());
+
+        /* the shared types restrict the same values */
+        Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                new StreamSource(new StringReader(xsd)));
+        Assert.assertTrue(isValid(schema, "<codes xmlns='" + NS + "' ref='ABC'>"
+                + "<code1>ABC</code1><code2>DEF</code2></codes>"));
+        Assert.assertFalse(isValid(schema, "<codes xmlns='" + NS + "'><code2>abc</code2></codes>"));
+        Assert.assertFalse(isValid(schema, "<codes xmlns='" + NS + "' ref='abc'/>"));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        Assert.assertFalse(XmlSchemaEnhancer.SHARED_FACET_TYPES_ENABLED.get());
+        Document doc = parse(generate(false));
+        Assert.assertEquals(3, doc.getElementsByTagNameNS(XmlSchemaEnhancer.NS_XSD, "pattern").getLength());
+        Assert.assertEquals("", getChild(doc, "element", "code1").getAttribute("type"));
+    }
+
+}
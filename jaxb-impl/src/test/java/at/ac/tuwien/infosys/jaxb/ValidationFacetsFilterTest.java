@@ -0,0 +1,69 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.lang.reflect.Field;
+
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.MinOccurs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.test.XmlTestType;
+import at.ac.tuwien.infosys.jaxb.test.validation.ValidatedClass;
+
+/**
+ * Tests for {@link ValidationFacetsFilter}.
+ */
+public class ValidationFacetsFilterTest {
+
+    private final ValidationFacetsFilter filter = new ValidationFacetsFilter();
+
+    @Test
+    public void testFilteredOnce() throws Exception {
+        Field field = ValidatedClass.class.getDeclaredField("digitsField");
+        Facets facets = (Facets) filter.filterAnnotation(Facets.class, null, field);
+        Assert.assertEquals(10, facets.fractionDigits());
+        Assert.assertEquals(19, facets.totalDigits());
+        Assert.assertSame(facets, filter.filterAnnotation(Facets.class, null, field));
+
+        /* a different original annotation is filtered again */
+        Facets original = FacetsImpl.builder().totalDigits(5).build();
+        facets = (Facets) filter.filterAnnotation(Facets.class, original, field);
+        Assert.assertEquals(10, facets.fractionDigits());
+        Assert.assertEquals(5, facets.totalDigits());
+
+        field = ValidatedClass.class.getDeclaredField("notNullField");
+        MinOccurs min = (MinOccurs) filter.filterAnnotation(MinOccurs.class, null, field);
+        Assert.assertEquals(1, min.value());
+        Assert.assertNull(filter.filterAnnotation(Facets.class, null, field));
+        Assert.assertNull(filter.filterAnnotation(Facets.class, null, field));
+    }
+
+    @Test
+    public void testCachedForMemberCopies() throws Exception {
+        /* reflection returns a new copy of the field on each call */
+        Field field = ValidatedClass.class.getDeclaredField("digitsField");
+        Assert.assertNotSame(field, ValidatedClass.class.getDeclaredField("digitsField"));
+        Facets facets = (Facets) filter.filterAnnotation(Facets.class, null, field);
+        field = null;
+        System.gc();
+        Assert.assertSame(facets, filter.filterAnnotation(Facets.class, null,
+                ValidatedClass.class.getDeclaredField("digitsField")));
+
+        /* equal (indexed) original annotations */
+        Facets original = FacetsImpl.builder().totalDigits(5).build();
+        facets = (Facets) filter.filterAnnotation(Facets.class, original,
+                ValidatedClass.class.getDeclaredField("digitsField"));
+        Assert.assertSame(facets, filter.filterAnnotation(Facets.class,
+                FacetsImpl.builder().totalDigits(5).build(), ValidatedClass.class.getDeclaredField("digitsField")));
+    }
+
+    @Test
+    public void testUnconstrained() throws Exception {
+        Field field = XmlTestType.class.getDeclaredField("foo");
+        Facets original = field.getAnnotation(Facets.class);
+        Assert.assertSame(original, filter.filterAnnotation(Facets.class, original, field));
+        Assert.assertNull(filter.filterAnnotation(MinOccurs.class, null, field));
+    }
+
+}
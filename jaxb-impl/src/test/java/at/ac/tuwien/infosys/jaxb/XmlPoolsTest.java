@@ -0,0 +1,190 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Tests for the per-thread {@link XmlPools}.
+ */
+public class XmlPoolsTest {
+
+    /**
+     * Transformer factory of a class loader (as provided by a web application),
+     * which counts the transformers it creates.
+     */
+    public static class CountingTransformerFactory extends TransformerFactory {
+        static final AtomicInteger CREATED = new AtomicInteger();
+        private final TransformerFactory delegate = TransformerFactory.newInstance(
+                "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl", null);
+
+        public Transformer newTransformer(Source source) throws TransformerConfigurationException {
+            return delegate.newTransformer(source);
+        }
+        public Transformer newTransformer() throws TransformerConfigurationException {
+            CREATED.incrementAndGet();
+            return delegate.newTransformer();
+        }
+        public Templates newTemplates(Source source) throws TransformerConfigurationException {
+            return delegate.newTemplates(source);
+        }
+        public Source getAssociatedStylesheet(Source source, String media, String title, String charset)
+                throws TransformerConfigurationException {
+            return delegate.getAssociatedStylesheet(source, media, title, charset);
+        }
+        public void setURIResolver(URIResolver resolver) {
+            delegate.setURIResolver(resolver);
+        }
+        public URIResolver getURIResolver() {
+            return delegate.getURIResolver();
+        }
+        public void setFeature(String name, boolean value) throws TransformerConfigurationException {
+            delegate.setFeature(name, value);
+        }
+        public boolean getFeature(String name) {
+            return delegate.getFeature(name);
+        }
+        public void setAttribute(String name, Object value) {
+            delegate.setAttribute(name, value);
+        }
+        public Object getAttribute(String name) {
+            return delegate.getAttribute(name);
+        }
+        public void setErrorListener(ErrorListener listener) {
+            delegate.setErrorListener(listener);
+        }
+        public ErrorListener getErrorListener() {
+            return delegate.getErrorListener();
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        XmlPools.clear();
+        XMLReader reader = XmlPools.getXMLReader();
+        /* nested use within the same thread */
+        XMLReader nested = XmlPools.getXMLReader();
+        Assert.assertNotSame(reader, nested);
+        XmlPools.release(nested);
+        XmlPools.release(reader);
+
+        long hits = XmlPools.getHits();
+        Assert.assertSame(reader, XmlPools.getXMLReader());
+        Assert.assertEquals(hits + 1, XmlPools.getHits());
+        XmlPools.release(reader);
+
+        Transformer transformer = XmlPools.getTransformer();
+        XmlPools.release(transformer);
+        Assert.assertSame(transformer, XmlPools.getTransformer());
+        XmlPools.release(transformer);
+    }
+
+    @Test
+    public void testTransformerFactoryPerClassLoader() throws Exception {
+        File dir = File.createTempFile("transformer-factory", "");
+        dir.delete();
+        File services = new File(dir, "META-INF/services/" + TransformerFactory.class.getName());
+        services.getParentFile().mkdirs();
+        Writer w = new OutputStreamWriter(new FileOutputStream(services), "UTF-8");
+        try {
+            w.write(CountingTransformerFactory.class.getName());
+        } finally {
+            w.close();
+        }
+
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        XmlPools.clear();
+        try {
+            thread.setContextClassLoader(new URLClassLoader(new URL[] { dir.toURI().toURL() }, loader));
+            int created = CountingTransformerFactory.CREATED.get();
+            XmlPools.release(XmlPools.getTransformer());
+            Assert.assertEquals(created + 1, CountingTransformerFactory.CREATED.get());
+
+            /* neither the factory nor the pooled transformer are used for another class loader */
+            thread.setContextClassLoader(new URLClassLoader(new URL[0], loader));
+            long creations = XmlPools.getCreations();
+            XmlPools.release(XmlPools.getTransformer());
+            Assert.assertEquals(created + 1, CountingTransformerFactory.CREATED.get());
+            Assert.assertEquals(creations + 1, XmlPools.getCreations());
+        } finally {
+            thread.setContextClassLoader(loader);
+            XmlPools.clear();
+        }
+    }
+
+    @Test
+    public void testTransformerReset() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element element = factory.newDocumentBuilder().parse(
+                new InputSource(new StringReader("<a><b>x</b></a>"))).getDocumentElement();
+
+        String indented = XmlUtil.toString(element, true);
+        Assert.assertTrue(indented, indented.contains("\n"));
+        long creations = XmlPools.getCreations();
+        /* the output properties of the previous use are reset */
+        Assert.assertEquals("<a><b>x</b></a>", XmlUtil.toString(element, false));
+        Assert.assertEquals(creations, XmlPools.getCreations());
+    }
+
+    @Test
+    public void testConcurrentToString() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final String xml = "<foo:a xmlns:foo=\"urn:foo\"><b>x \u00e4</b></foo:a>";
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100; i++) {
+                /* DOM trees are not thread-safe, hence one per task */
+                final Element element = factory.newDocumentBuilder().parse(
+                        new InputSource(new StringReader(xml))).getDocumentElement();
+                final boolean indent = i % 2 == 0;
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return XmlUtil.toString(element, indent);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                String result = results.get(i).get();
+                /* no XML declaration, and no platform charset involved */
+                Assert.assertTrue(result, result.startsWith("<foo:a"));
+                Assert.assertTrue(result, result.contains("x \u00e4"));
+                if (i % 2 != 0) {
+                    Assert.assertEquals(xml, result);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
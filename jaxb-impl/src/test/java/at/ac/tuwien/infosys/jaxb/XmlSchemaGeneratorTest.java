@@ -0,0 +1,233 @@
+package at.ac.tuwien.infosys.jaxb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+import com.pellcorp.jaxb.test.InMemorySchemaResolver;
+import com.sun.xml.bind.api.ErrorListener;
+import com.sun.xml.bind.v2.model.runtime.RuntimeTypeInfoSet;
+import com.sun.xml.bind.v2.runtime.JAXBContextImpl;
+import com.sun.xml.bind.v2.schemagen.XmlSchemaGenerator;
+
+/**
+ * Tests for the (concurrent, lazy) writing of schema documents in {@link XmlSchemaGenerator}.
+ */
+public class XmlSchemaGeneratorTest {
+
+    @XmlRootElement(namespace = "urn:a")
+    @XmlType(namespace = "urn:a")
+    public static class TypeA {
+        @XmlElement(namespace = "urn:a")
+        @Facets(maxLength = 10)
+        public String name;
+        @XmlElement(namespace = "urn:a")
+        public TypeB b;
+        @XmlElement(namespace = "urn:a")
+        public TypeC c;
+    }
+
+    @XmlType(namespace = "urn:b")
+    public static class TypeB {
+        @XmlElement(namespace = "urn:b")
+        @Facets(pattern = "[0-9]+")
+        public String id;
+    }
+
+    @XmlType(namespace = "urn:c")
+    public static class TypeC {
+        @XmlElement(namespace = "urn:c")
+        public TypeB b;
+    }
+
+    private static class Resolver extends InMemorySchemaResolver {
+        /** fails all namespaces */
+        static final String ALL = "*";
+
+        final String failingNamespace;
+
+        Resolver(String failingNamespace) {
+            super(true);
+            this.failingNamespace = failingNamespace;
+        }
+
+        @Override
+        public synchronized Result createOutput(final String namespaceUri, String suggestedFileName) {
+            Result result = super.createOutput(namespaceUri, suggestedFileName);
+            if (!namespaceUri.equals(failingNamespace) && !ALL.equals(failingNamespace)) {
+                return result;
+            }
+            StreamResult failing = new StreamResult(new Writer() {
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    throw new IOException("cannot write " + namespaceUri);
+                }
+                public void flush() { }
+                public void close() { }
+            });
+            failing.setSystemId(suggestedFileName);
+            return failing;
+        }
+    }
+
+    /**
+     * Runs the given number of tasks in the calling thread and keeps the others pending.
+     */
+    private static class DeferringExecutor implements Executor {
+        final List<Future<?>> pending = new ArrayList<Future<?>>();
+        int inline;
+
+        DeferringExecutor(int inline) {
+            this.inline = inline;
+        }
+
+        public synchronized void execute(Runnable task) {
+            if (inline-- > 0) {
+                task.run();
+            } else {
+                pending.add((Future<?>) task);
+            }
+        }
+    }
+
+    private static class Listener implements ErrorListener {
+        final List<SAXParseException> errors = new ArrayList<SAXParseException>();
+        public void error(SAXParseException e) { errors.add(e); }
+        public void fatalError(SAXParseException e) { errors.add(e); }
+        public void warning(SAXParseException e) { }
+        public void info(SAXParseException e) { }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static XmlSchemaGenerator createGenerator() throws Exception {
+        JAXBContextImpl ctx = (JAXBContextImpl) JAXBContext.newInstance(TypeA.class);
+        RuntimeTypeInfoSet types = ctx.getTypeInfoSet();
+        return new XmlSchemaGenerator(types.getNavigator(), types);
+    }
+
+    @Test
+    public void testConcurrentOutputIdentical() throws Exception {
+        Resolver sequential = new Resolver(null);
+        XmlSchemaGenerator<?, ?, ?, ?> gen = createGenerator();
+        gen.setExecutor(null);
+        gen.write(sequential, new Listener());
+        Assert.assertEquals(3, sequential.size());
+        Assert.assertTrue(sequential.get("urn:b").contains("[0-9]+"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 0; i < 5; i ++) {
+                Resolver concurrent = new Resolver(null);
+                gen = createGenerator();
+                gen.setExecutor(executor);
+                gen.write(concurrent, new Listener());
+                Assert.assertEquals(sequential.getDocuments(), concurrent.getDocuments());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSingleNamespace() throws Exception {
+        final List<String> requested = new ArrayList<String>();
+        Resolver resolver = new Resolver(null) {
+            @Override
+            public synchronized Result createOutput(String namespaceUri, String suggestedFileName) {
+                requested.add(namespaceUri);
+                return namespaceUri.equals("urn:c") ? super.createOutput(namespaceUri, suggestedFileName) : null;
+            }
+        };
+        XmlSchemaGenerator<?, ?, ?, ?> gen = createGenerator();
+        gen.write(resolver, new Listener());
+        Assert.assertEquals(3, requested.size());
+        Assert.assertEquals(1, resolver.size());
+        String xsd = resolver.get("urn:c");
+        Assert.assertTrue(xsd, xsd.contains("namespace=\"urn:b\""));
+        Assert.assertTrue(xsd, xsd.contains("name=\"typeC\""));
+        Assert.assertFalse(xsd, xsd.contains("schemaLocation"));
+    }
+
+    @Test
+    public void testConcurrentErrorReported() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Resolver resolver = new Resolver("urn:b");
+            Listener listener = new Listener();
+            XmlSchemaGenerator<?, ?, ?, ?> gen = createGenerator();
+            gen.setExecutor(executor);
+            try {
+                gen.write(resolver, listener);
+                Assert.fail("expected IOException");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("urn:b"));
+            }
+            Assert.assertEquals(1, listener.errors.size());
+            Assert.assertTrue(listener.errors.get(0).getMessage().contains("'urn:b'"));
+            /* the namespaces before the failing one have been written */
+            Assert.assertTrue(resolver.get("urn:a").contains("maxLength"));
+            /* the synchronized wrapper of the listener is only used during the call */
+            Field field = XmlSchemaGenerator.class.getDeclaredField("errorListener");
+            field.setAccessible(true);
+            Assert.assertSame(listener, field.get(gen));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* the pending tasks are never run, i.e., waiting for them would block */
+    @Test(timeout = 60000)
+    public void testPendingDocumentsCancelled() throws Exception {
+        /* the first document fails, the others are cancelled */
+        DeferringExecutor executor = new DeferringExecutor(1);
+        Listener listener = new Listener();
+        XmlSchemaGenerator<?, ?, ?, ?> gen = createGenerator();
+        gen.setExecutor(executor);
+        try {
+            gen.write(new Resolver(Resolver.ALL), listener);
+            Assert.fail("expected IOException");
+        } catch (IOException e) {
+            /* expected */
+        }
+        Assert.assertEquals(1, listener.errors.size());
+        Assert.assertEquals(2, executor.pending.size());
+        for (Future<?> task : executor.pending) {
+            Assert.assertTrue(task.isCancelled());
+        }
+
+        /* the writing thread is interrupted while waiting */
+        executor = new DeferringExecutor(0);
+        gen = createGenerator();
+        gen.setExecutor(executor);
+        Thread.currentThread().interrupt();
+        try {
+            gen.write(new Resolver(null), new Listener());
+            Assert.fail("expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(Thread.interrupted());
+        }
+        Assert.assertEquals(3, executor.pending.size());
+        for (Future<?> task : executor.pending) {
+            Assert.assertTrue(task.isCancelled());
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.sun.xml.bind.v2.schemagen;
+
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import com.sun.xml.bind.v2.model.core.PropertyInfo;
+import com.sun.xml.bind.v2.schemagen.xmlschema.ContentModelContainer;
+import com.sun.xml.txw2.TXW;
+import com.sun.xml.txw2.output.StreamSerializer;
+
+/**
+ * Microbenchmark of {@link TreeWrapper#wrap(Tree, PropertyInfo)} and
+ * {@link TreeWrapper#write(ContentModelContainer, boolean, boolean)}
+ * for a model with thousands of CHOICE groups (i.e., element properties with
+ * several alternatives, as with @XmlElements). Each round wraps the groups and
+ * writes them to a discarding serializer, such that the time is dominated by
+ * the wrapping and the tree traversal.
+ * Run via the main method.
+ */
+public class TreeWrapperBenchmark {
+
+    private static final int GROUPS = 5000;
+    private static final int ROUNDS = 50;
+
+    /** property without annotations */
+    @SuppressWarnings("unchecked")
+    private static final PropertyInfo<Object,Object> PROPERTY = (PropertyInfo<Object,Object>)Proxy.newProxyInstance(
+            PropertyInfo.class.getClassLoader(), new Class<?>[]{PropertyInfo.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] cbuf, int off, int len) { }
+        public void flush() { }
+        public void close() { }
+    };
+
+    private static Tree element(final String name) {
+        return new Tree.Term() {
+            protected void write(ContentModelContainer parent, boolean isOptional, boolean repeated) {
+                parent.element().name(name);
+            }
+        };
+    }
+
+    private static List<Tree> createGroups() {
+        List<Tree> groups = new ArrayList<Tree>(GROUPS);
+        for (int i = 0; i < GROUPS; i++) {
+            List<Tree> children = new ArrayList<Tree>();
+            for (int j = 0; j < 3; j++) {
+                children.add(element("e" + i + "_" + j));
+            }
+            groups.add(Tree.makeGroup(GroupKind.CHOICE, children));
+        }
+        return groups;
+    }
+
+    private static long write(List<Tree> groups) {
+        long start = System.nanoTime();
+        ContentModelContainer sequence = TXW.create(new QName(XMLConstants.W3C_XML_SCHEMA_NS_URI, "sequence"),
+                ContentModelContainer.class, new StreamSerializer(NULL_WRITER));
+        for (int i = 0; i < groups.size(); i++) {
+            TreeWrapper.wrap(groups.get(i), PROPERTY).makeOptional(i % 2 == 0).makeRepeated(i % 3 == 0)
+                    .write(sequence, false, false);
+        }
+        sequence.commit();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        List<Tree> groups = createGroups();
+        /* warm-up */
+        for (int i = 0; i < ROUNDS; i++) {
+            write(groups);
+        }
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            System.gc();
+            long time = write(groups);
+            total += time;
+            min = Math.min(min, time);
+        }
+        System.out.println("Wrapping and writing " + GROUPS + " choice groups: avg " +
+                (total / ROUNDS / 1000) + " us, min " + (min / 1000) + " us");
+    }
+
+}
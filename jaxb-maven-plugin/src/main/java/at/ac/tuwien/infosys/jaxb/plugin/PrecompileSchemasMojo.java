@@ -0,0 +1,129 @@
+package at.ac.tuwien.infosys.jaxb.plugin;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import at.ac.tuwien.infosys.jaxb.PrecompiledSchemas;
+import at.ac.tuwien.infosys.jaxb.XmlSchemaEnhancer;
+
+/**
+ * Generates the schema documents of the configured JAXB contexts at build
+ * time, and writes them (together with a fingerprint manifest) to the class
+ * output directory, i.e., they are packaged into the jar of the project. At
+ * runtime, JAXBContext.generateSchema then writes the prebuilt documents, as
+ * long as they match the bound classes (see {@link PrecompiledSchemas}).
+ *
+ * <p>
+ * Each entry of classes makes up one context (as JAXBContext.newInstance(Class...)),
+ * and each entry of contextPaths one further context (as JAXBContext.newInstance(String)).
+ * The contexts at runtime have to be created for the same classes.
+ *
+ * <p>
+ * The mojo is not thread-safe, as it sets the global XmlSchemaEnhancer.XSD_11_ENABLED
+ * during the generation (i.e., parallel builds execute it serially).
+ *
+ * @goal precompile-schemas
+ * @phase process-classes
+ * @requiresDependencyResolution compile
+ */
+public class PrecompileSchemasMojo extends AbstractMojo {
+
+    /**
+     * @parameter expression="${project.build.outputDirectory}"
+     * @required
+     */
+    private File outputDirectory;
+
+    /**
+     * @parameter expression="${project.compileClasspathElements}"
+     * @required
+     * @readonly
+     */
+    private List<String> classpathElements;
+
+    /**
+     * Fully qualified names of the classes of one context.
+     *
+     * @parameter
+     */
+    private List<String> classes;
+
+    /**
+     * Context paths (colon separated packages with ObjectFactory or jaxb.index),
+     * one per context.
+     *
+     * @parameter
+     */
+    private List<String> contextPaths;
+
+    /**
+     * Whether XSD 1.1 features are generated; has to match
+     * XmlSchemaEnhancer.XSD_11_ENABLED at runtime.
+     *
+     * @parameter default-value="true"
+     */
+    private boolean xsd11;
+
+    /**
+     * @parameter expression="${jaxb-facets.skip}" default-value="false"
+     */
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping schema precompilation.");
+            return;
+        }
+        if ((classes == null || classes.isEmpty()) && (contextPaths == null || contextPaths.isEmpty())) {
+            getLog().warn("No classes or contextPaths configured, no schemas to precompile.");
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        boolean xsd11Before = XmlSchemaEnhancer.XSD_11_ENABLED.get();
+        try {
+            List<URL> urls = new ArrayList<URL>();
+            for (String element : classpathElements) {
+                urls.add(new File(element).toURI().toURL());
+            }
+            ClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                    getClass().getClassLoader());
+            thread.setContextClassLoader(loader);
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(xsd11);
+
+            List<JAXBContext> contexts = new ArrayList<JAXBContext>();
+            if (classes != null && !classes.isEmpty()) {
+                Class<?>[] types = new Class<?>[classes.size()];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = loader.loadClass(classes.get(i).trim());
+                }
+                contexts.add(JAXBContext.newInstance(types));
+            }
+            if (contextPaths != null) {
+                for (String path : contextPaths) {
+                    contexts.add(JAXBContext.newInstance(path.trim(), loader));
+                }
+            }
+            int documents = 0;
+            for (JAXBContext context : contexts) {
+                documents += PrecompiledSchemas.precompile(context, outputDirectory);
+            }
+            getLog().info("Precompiled " + documents + " schema documents of " +
+                    contexts.size() + " JAXB context(s) to " + outputDirectory);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Unable to precompile schemas: " + e, e);
+        } finally {
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(xsd11Before);
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package at.ac.tuwien.infosys.jaxb.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.bind.annotation.Facets;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.PrecompiledSchemas;
+import at.ac.tuwien.infosys.jaxb.XmlSchemaEnhancer;
+
+/**
+ * Tests for {@link PrecompileSchemasMojo}.
+ */
+public class PrecompileSchemasMojoTest {
+
+    @XmlRootElement(namespace = "urn:mojo")
+    public static class Order {
+        @XmlElement(namespace = "urn:mojo") @Facets(maxLength = 10)
+        public String id;
+    }
+
+    private static PrecompileSchemasMojo createMojo(File outputDirectory) throws Exception {
+        PrecompileSchemasMojo mojo = new PrecompileSchemasMojo();
+        set(mojo, "outputDirectory", outputDirectory);
+        set(mojo, "classpathElements", Collections.<String>emptyList());
+        set(mojo, "xsd11", true);
+        return mojo;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field f = target.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    private static File createDirectory() throws Exception {
+        File dir = File.createTempFile("precompile-mojo", "");
+        dir.delete();
+        return dir;
+    }
+
+    private static void generate(File classpath) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(new URLClassLoader(new URL[] { classpath.toURI().toURL() }, loader));
+        try {
+            JAXBContext.newInstance(Order.class).generateSchema(new SchemaOutputResolver() {
+                public Result createOutput(String namespaceUri, String suggestedFileName) {
+                    StreamResult result = new StreamResult(new ByteArrayOutputStream());
+                    result.setSystemId(suggestedFileName);
+                    return result;
+                }
+            });
+        } finally {
+            thread.setContextClassLoader(loader);
+        }
+    }
+
+    @Test
+    public void testPrecompile() throws Exception {
+        File dir = createDirectory();
+        PrecompileSchemasMojo mojo = createMojo(dir);
+        set(mojo, "classes", Arrays.asList(Order.class.getName()));
+        set(mojo, "xsd11", false);
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        mojo.execute();
+
+        /* the global settings are restored */
+        Assert.assertTrue(XmlSchemaEnhancer.XSD_11_ENABLED.get());
+        Assert.assertSame(contextLoader, Thread.currentThread().getContextClassLoader());
+
+        Assert.assertTrue(new File(dir, PrecompiledSchemas.MANIFEST).isFile());
+        Assert.assertTrue(new File(dir, PrecompiledSchemas.DIRECTORY).isDirectory());
+
+        /* the documents are used at runtime with the same settings */
+        XmlSchemaEnhancer.XSD_11_ENABLED.set(false);
+        try {
+            long hits = PrecompiledSchemas.getHits();
+            generate(dir);
+            Assert.assertEquals(hits + 1, PrecompiledSchemas.getHits());
+        } finally {
+            XmlSchemaEnhancer.XSD_11_ENABLED.set(true);
+        }
+        long hits = PrecompiledSchemas.getHits();
+        generate(dir);
+        Assert.assertEquals(hits, PrecompiledSchemas.getHits());
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        File dir = createDirectory();
+        PrecompileSchemasMojo mojo = createMojo(dir);
+        set(mojo, "classes", Arrays.asList(Order.class.getName()));
+        set(mojo, "skip", true);
+        mojo.execute();
+        Assert.assertFalse(new File(dir, PrecompiledSchemas.MANIFEST).exists());
+
+        /* nothing configured */
+        mojo = createMojo(dir);
+        mojo.execute();
+        Assert.assertFalse(new File(dir, PrecompiledSchemas.MANIFEST).exists());
+    }
+
+}
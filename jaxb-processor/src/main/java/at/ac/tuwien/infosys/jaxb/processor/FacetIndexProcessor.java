@@ -0,0 +1,311 @@
+package at.ac.tuwien.infosys.jaxb.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.AnnotationValueVisitor;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.UnknownAnnotationValueException;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import at.ac.tuwien.infosys.jaxb.Constants;
+import at.ac.tuwien.infosys.jaxb.FacetIndex;
+
+/**
+ * Annotation processor which records the facet and XSD extension annotations
+ * (Facets, MinOccurs, MaxOccurs, Documentation, AppInfo, Annotation, Assert),
+ * as well as the javax.validation constraints, of fields and methods in the
+ * index file read by {@link FacetIndex}. At runtime, the annotations of indexed
+ * classes are then taken from the index instead of reflection.
+ *
+ * <p>
+ * The processor is registered via META-INF/services, i.e., it is active as soon
+ * as this artifact is on the compile classpath (use -proc:none to disable it).
+ * Facets which are not allowed for the type of the annotated property are
+ * reported as compiler warnings. Note that the index only covers the classes of
+ * the current compilation, i.e., partial recompilation overwrites it.
+ */
+@SupportedAnnotationTypes({
+    "javax.xml.bind.annotation.Facets",
+    "javax.xml.bind.annotation.MinOccurs",
+    "javax.xml.bind.annotation.MaxOccurs",
+    "javax.xml.bind.annotation.Documentation",
+    "javax.xml.bind.annotation.AppInfo",
+    "javax.xml.bind.annotation.Annotation",
+    "javax.xml.bind.annotation.Assert",
+    "javax.validation.constraints.*"
+})
+public class FacetIndexProcessor extends AbstractProcessor {
+
+    private static final String FACETS = "javax.xml.bind.annotation.Facets";
+
+    /** index data, by binary class name */
+    private final Map<String, Map<String, Map<String, Map<String, Object>>>> classes =
+            new TreeMap<String, Map<String, Map<String, Map<String, Object>>>>();
+    /** classes which have been processed (including the ones not indexed) */
+    private final Set<String> processed = new HashSet<String>();
+
+    private final ValueConverter converter = new ValueConverter();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+        for (TypeElement anno : annotations) {
+            for (Element e : env.getElementsAnnotatedWith(anno)) {
+                if (e.getKind() == ElementKind.FIELD || e.getKind() == ElementKind.METHOD) {
+                    indexClass((TypeElement) e.getEnclosingElement());
+                }
+            }
+        }
+        if (env.processingOver() && !classes.isEmpty()) {
+            writeIndex();
+        }
+        /* do not claim the annotations */
+        return false;
+    }
+
+    private void indexClass(TypeElement type) {
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        if (!processed.add(className)) {
+            return;
+        }
+        Map<String, Map<String, Map<String, Object>>> members =
+                new TreeMap<String, Map<String, Map<String, Object>>>();
+        for (Element e : type.getEnclosedElements()) {
+            if (e.getKind() != ElementKind.FIELD && e.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            Map<String, Map<String, Object>> annos = getAnnotations(e);
+            if (annos.isEmpty()) {
+                continue;
+            }
+            String key = e.getSimpleName().toString();
+            if (e.getKind() == ElementKind.METHOD) {
+                key += "/" + ((ExecutableElement) e).getParameters().size();
+            }
+            if (members.containsKey(key)) {
+                /* overloaded methods cannot be distinguished in the index */
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "Class " + className + " not added to facet index (ambiguous member " +
+                        key + ")", e);
+                return;
+            }
+            members.put(key, annos);
+        }
+        if (!members.isEmpty()) {
+            classes.put(className, members);
+        }
+    }
+
+    private Map<String, Map<String, Object>> getAnnotations(Element e) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+        for (AnnotationMirror m : e.getAnnotationMirrors()) {
+            TypeElement annoType = (TypeElement) m.getAnnotationType().asElement();
+            String pkg = processingEnv.getElementUtils().getPackageOf(annoType)
+                    .getQualifiedName().toString();
+            if (!FacetIndex.INDEXED_PACKAGES.contains(pkg)) {
+                continue;
+            }
+            String name = processingEnv.getElementUtils().getBinaryName(annoType).toString();
+            if (FACETS.equals(name)) {
+                checkFacetsValidity(e, m);
+            }
+            result.put(name, getValues(m));
+        }
+        return result;
+    }
+
+    private Map<String, Object> getValues(AnnotationMirror m) {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e :
+                processingEnv.getElementUtils().getElementValuesWithDefaults(m).entrySet()) {
+            values.put(e.getKey().getSimpleName().toString(), e.getValue().accept(converter, null));
+        }
+        return values;
+    }
+
+    /**
+     * Reports facets which are not allowed for the type of the property
+     * (see also XmlSchemaEnhancer.checkFacetsValidity(..)).
+     */
+    private void checkFacetsValidity(Element e, AnnotationMirror facets) {
+        Class<?> baseType = getBaseType(e);
+        if (baseType == null) {
+            return;
+        }
+        Set<String> allowed = Constants.getAllowedFacets(baseType);
+        if (allowed == null) {
+            return;
+        }
+        for (ExecutableElement member : facets.getElementValues().keySet()) {
+            String facetName = member.getSimpleName().toString();
+            if (!allowed.contains(facetName)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Facet '" + facetName + "' not in allowed facets " +
+                        allowed + " for base type " + baseType, e, facets);
+            }
+        }
+    }
+
+    /**
+     * @return the JDK class of the type of the given field or accessor method,
+     * Enum.class for enum types, or null if the type cannot be determined.
+     */
+    private Class<?> getBaseType(Element e) {
+        TypeMirror type = e.asType();
+        if (e.getKind() == ElementKind.METHOD) {
+            ExecutableElement m = (ExecutableElement) e;
+            if (m.getParameters().size() == 1) {
+                type = m.getParameters().get(0).asType();
+            } else {
+                type = m.getReturnType();
+            }
+        }
+        TypeElement typeElement;
+        if (type.getKind().isPrimitive()) {
+            typeElement = processingEnv.getTypeUtils().boxedClass(
+                    processingEnv.getTypeUtils().getPrimitiveType(type.getKind()));
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+        } else {
+            return null;
+        }
+        if (typeElement.getKind() == ElementKind.ENUM) {
+            return Enum.class;
+        }
+        String name = processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+        if (!name.startsWith("java.")) {
+            /* do not load application classes */
+            return null;
+        }
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException ex) {
+            return null;
+        }
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", FacetIndex.RESOURCE);
+            OutputStream out = file.openOutputStream();
+            try {
+                FacetIndex.write(out, classes);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable to write facet index: " + e);
+        }
+    }
+
+    /**
+     * Converts annotation values into the value types of the index.
+     */
+    private class ValueConverter implements AnnotationValueVisitor<Object, Void> {
+
+        public Object visit(AnnotationValue av, Void p) {
+            return av.accept(this, p);
+        }
+
+        public Object visit(AnnotationValue av) {
+            return av.accept(this, null);
+        }
+
+        /* primitives and strings */
+
+        public Object visitBoolean(boolean b, Void p) {
+            return b;
+        }
+
+        public Object visitByte(byte b, Void p) {
+            return b;
+        }
+
+        public Object visitChar(char c, Void p) {
+            return c;
+        }
+
+        public Object visitDouble(double d, Void p) {
+            return d;
+        }
+
+        public Object visitFloat(float f, Void p) {
+            return f;
+        }
+
+        public Object visitInt(int i, Void p) {
+            return i;
+        }
+
+        public Object visitLong(long i, Void p) {
+            return i;
+        }
+
+        public Object visitShort(short s, Void p) {
+            return s;
+        }
+
+        public Object visitString(String s, Void p) {
+            return s;
+        }
+
+        public Object visitUnknown(AnnotationValue av, Void p) {
+            throw new UnknownAnnotationValueException(av, p);
+        }
+
+        public Object visitEnumConstant(VariableElement c, Void p) {
+            return FacetIndex.Ref.enumConstant(c.getSimpleName().toString());
+        }
+
+        public Object visitType(TypeMirror t, Void p) {
+            TypeMirror erasure = processingEnv.getTypeUtils().erasure(t);
+            if (erasure.getKind() == TypeKind.DECLARED) {
+                TypeElement type = (TypeElement) processingEnv.getTypeUtils().asElement(erasure);
+                return FacetIndex.Ref.type(processingEnv.getElementUtils()
+                        .getBinaryName(type).toString());
+            }
+            return FacetIndex.Ref.type(erasure.toString());
+        }
+
+        public Object visitAnnotation(AnnotationMirror a, Void p) {
+            return getValues(a);
+        }
+
+        public Object visitArray(List<? extends AnnotationValue> values, Void p) {
+            List<Object> result = new ArrayList<Object>(values.size());
+            for (AnnotationValue v : values) {
+                result.add(v.accept(this, null));
+            }
+            return result;
+        }
+    }
+
+}
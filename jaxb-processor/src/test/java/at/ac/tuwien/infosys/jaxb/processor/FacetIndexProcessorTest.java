@@ -0,0 +1,101 @@
+package at.ac.tuwien.infosys.jaxb.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.jaxb.FacetIndex;
+
+/**
+ * Tests for {@link FacetIndexProcessor}.
+ */
+public class FacetIndexProcessorTest {
+
+    private static final String SOURCE =
+            "package test;\n" +
+            "import javax.xml.bind.annotation.*;\n" +
+            "import javax.validation.constraints.*;\n" +
+            "public class Indexed {\n" +
+            "  @Facets(maxLength = 10, whiteSpace = Facets.WhiteSpace.collapse) @MinOccurs(2)\n" +
+            "  String name;\n" +
+            "  @Size(max = 5) @Documentation(\"the id\")\n" +
+            "  public String getId() { return null; }\n" +
+            "  @Facets(minInclusive = \"1\")\n" +
+            "  String invalid;\n" +
+            "  int unannotated;\n" +
+            "}\n";
+
+    @Test
+    public void testWriteIndex() throws Exception {
+        File dir = File.createTempFile("facet-index", "");
+        dir.delete();
+        dir.mkdirs();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///test/Indexed.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return SOURCE;
+            }
+        };
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-d", dir.getAbsolutePath(),
+                        "-classpath", System.getProperty("java.class.path")),
+                null, Arrays.asList(source));
+        task.setProcessors(Arrays.asList(new FacetIndexProcessor()));
+        Assert.assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+
+        /* minInclusive is not allowed for strings */
+        boolean warned = false;
+        for (Diagnostic<?> d : diagnostics.getDiagnostics()) {
+            if (d.getKind() == Diagnostic.Kind.WARNING && d.getMessage(null).contains("minInclusive")) {
+                warned = true;
+            }
+        }
+        Assert.assertTrue(warned);
+
+        InputStream in = new FileInputStream(new File(dir, FacetIndex.RESOURCE));
+        Map<String, Map<String, Map<String, Map<String, Object>>>> index;
+        try {
+            index = FacetIndex.read(in);
+        } finally {
+            in.close();
+        }
+        Map<String, Map<String, Map<String, Object>>> members = index.get("test.Indexed");
+        Assert.assertNotNull(members);
+        Assert.assertEquals(3, members.size());
+        Assert.assertFalse(members.containsKey("unannotated"));
+
+        Map<String, Object> facets = members.get("name").get("javax.xml.bind.annotation.Facets");
+        Assert.assertEquals(10L, facets.get("maxLength"));
+        Assert.assertEquals("collapse", ((FacetIndex.Ref) facets.get("whiteSpace")).getName());
+        Assert.assertEquals(Arrays.asList(), facets.get("enumeration"));
+        Assert.assertEquals(2L, members.get("name").get(
+                "javax.xml.bind.annotation.MinOccurs").get("value"));
+
+        Map<String, Map<String, Object>> getter = members.get("getId/0");
+        Assert.assertEquals(5, getter.get("javax.validation.constraints.Size").get("max"));
+        Assert.assertEquals(0, getter.get("javax.validation.constraints.Size").get("min"));
+        Assert.assertEquals(0, ((List<?>) getter.get(
+                "javax.validation.constraints.Size").get("groups")).size());
+        Assert.assertEquals("the id", getter.get(
+                "javax.xml.bind.annotation.Documentation").get("value"));
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.pellcorp.jaxb.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.SchemaOutputResolver;
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Schema output resolver which keeps the generated schema documents in memory,
+ * by namespace URI. The documents are written to output streams, or to writers
+ * if selected. A document which is generated again for the same namespace
+ * replaces the previous one.
+ */
+public class InMemorySchemaResolver extends SchemaOutputResolver {
+    private static final String ENCODING = "UTF-8";
+
+    /** output streams or writers, by namespace URI */
+    private final Map<String, Object> outputs = new TreeMap<String, Object>();
+    private final boolean useWriters;
+
+    public InMemorySchemaResolver() {
+        this(false);
+    }
+
+    public InMemorySchemaResolver(boolean useWriters) {
+        this.useWriters = useWriters;
+    }
+
+    /**
+     * Generates the schema documents of the given classes.
+     * @return the documents, by namespace URI.
+     */
+    public static Map<String, String> generate(Class<?>... classes) throws JAXBException, IOException {
+        return generate(JAXBContext.newInstance(classes));
+    }
+
+    /**
+     * Generates the schema documents of the given context.
+     * @return the documents, by namespace URI.
+     */
+    public static Map<String, String> generate(JAXBContext context) throws IOException {
+        InMemorySchemaResolver resolver = new InMemorySchemaResolver(true);
+        context.generateSchema(resolver);
+        return resolver.getDocuments();
+    }
+
+    @Override
+    public synchronized Result createOutput(String namespaceUri, String suggestedFileName) {
+        StreamResult result;
+        if (useWriters) {
+            StringWriter writer = new StringWriter();
+            outputs.put(namespaceUri, writer);
+            result = new StreamResult(writer);
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outputs.put(namespaceUri, out);
+            result = new StreamResult(out);
+        }
+        result.setSystemId(suggestedFileName);
+        return result;
+    }
+
+    public synchronized Set<String> getNamespaces() {
+        return Collections.unmodifiableSet(new TreeSet<String>(outputs.keySet()));
+    }
+
+    public synchronized int size() {
+        return outputs.size();
+    }
+
+    /**
+     * @return the bytes of the document of the given namespace (for writers,
+     * the UTF-8 encoded characters), or null if there is no such document.
+     */
+    public synchronized byte[] getBytes(String namespaceUri) {
+        Object out = outputs.get(namespaceUri);
+        if (out instanceof ByteArrayOutputStream) {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+        return out == null ? null : encode(out.toString());
+    }
+
+    /**
+     * @return the document of the given namespace (for output streams, the
+     * UTF-8 decoded bytes), or null if there is no such document.
+     */
+    public synchronized String get(String namespaceUri) {
+        Object out = outputs.get(namespaceUri);
+        if (out instanceof ByteArrayOutputStream) {
+            return decode(((ByteArrayOutputStream) out).toByteArray());
+        }
+        return out == null ? null : out.toString();
+    }
+
+    /**
+     * @return the documents, by namespace URI.
+     */
+    public synchronized Map<String, String> getDocuments() {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (String namespaceUri : outputs.keySet()) {
+            result.put(namespaceUri, get(namespaceUri));
+        }
+        return result;
+    }
+
+    /**
+     * @return the total size of the documents in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        long bytes = 0;
+        for (String namespaceUri : outputs.keySet()) {
+            bytes += getBytes(namespaceUri).length;
+        }
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        outputs.clear();
+    }
+
+    private static byte[] encode(String text) {
+        try {
+            return text.getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        try {
+            return new String(bytes, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}